@@ -0,0 +1,182 @@
+package benchmark;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Scanner;
+
+import assembler.FileGenerator;
+import assembler.FirstPass;
+import assembler.LiteralTable;
+import assembler.LiteralTable1;
+import assembler.MachineOpTable;
+import assembler.MachineOpTable1;
+import assembler.Parser;
+import assembler.PseudoOpTable;
+import assembler.PseudoOpTable1;
+import assembler.Record;
+import assembler.SecondPass;
+import assembler.SymbolTable;
+import assembler.SymbolTable1;
+
+/**
+ * Times tokenizing and both passes of the assembler on generated programs of
+ * every size in ProgramGenerator.SIZES. The passes write the same intermediate
+ * files as the assembler, so the benchmark creates the temp folders they use
+ * in the working directory.
+ */
+public class AssemblerBenchmark {
+
+    /**
+     * The folders the assembler writes its intermediate, object and listing
+     * files to.
+     */
+    private static final String[] TEMP_FOLDERS = { "./temp/intermediate/",
+            "./temp/object/", "./temp/listing/" };
+
+    /**
+     * Runs the assembler benchmarks.
+     *
+     * @param args
+     *            Unused arguments that can be passed into the command line.
+     * @throws IOException
+     *             If a generated source file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        createTempFolders();
+        for (int words : ProgramGenerator.SIZES) {
+            String source = ProgramGenerator.assemblySource("BENCH", words, 0);
+            File input = ProgramGenerator.writeTemporaryFile("BENCH", ".txt",
+                    source);
+            long lines = source.lines().count();
+
+            Harness.measure("Parser.TokenizeLine " + words, lines,
+                    () -> tokenizeAll(source));
+            Harness.measure("FirstPass.runFirstPass " + words, words,
+                    () -> new Assembly().runFirstPass(input).length());
+
+            Assembly assembly = new Assembly();
+            File intermediate = assembly.runFirstPass(input);
+            if (intermediate == null) {
+                throw new IllegalStateException("Could not assemble " + input);
+            }
+            Harness.measure("SecondPass.pass " + words, words,
+                    () -> assembly.runSecondPass(intermediate).size());
+        }
+    }
+
+    /**
+     * Creates the temp folders the assembler and linker write to.
+     */
+    static void createTempFolders() {
+        for (String folder : TEMP_FOLDERS) {
+            new File(folder).mkdirs();
+        }
+    }
+
+    /**
+     * Assembles a source file into an object file.
+     *
+     * @param input
+     *            The assembly source
+     * @return A temporary object file deleted when the virtual machine exits
+     * @throws IOException
+     *             If the source cannot be assembled or the object file cannot
+     *             be written
+     */
+    static File assemble(File input) throws IOException {
+        Assembly assembly = new Assembly();
+        File intermediate = assembly.runFirstPass(input);
+        ArrayList<Record> records = intermediate == null ? null
+                : assembly.runSecondPass(intermediate);
+        if (records == null) {
+            throw new IOException("Could not assemble " + input);
+        }
+        File object = File.createTempFile("object", ".o");
+        object.deleteOnExit();
+        try (PrintWriter writer = new PrintWriter(object)) {
+            FileGenerator.generateObjectFile(records, writer);
+        }
+        return object;
+    }
+
+    /**
+     * Tokenizes every line of a source.
+     *
+     * @param source
+     *            The lines of the source separated by newlines
+     * @return The number of tokens
+     */
+    private static long tokenizeAll(String source) {
+        long tokens = 0;
+        Scanner input = new Scanner(source);
+        while (input.hasNextLine()) {
+            tokens += Parser.TokenizeLine(input).length;
+        }
+        return tokens;
+    }
+
+    /**
+     * The tables of a single assembly, filled in by the first pass and read
+     * by the second.
+     */
+    private static final class Assembly {
+
+        /**
+         * The symbol table.
+         */
+        private final SymbolTable symbols = new SymbolTable1();
+
+        /**
+         * The literal table.
+         */
+        private final LiteralTable literals = new LiteralTable1();
+
+        /**
+         * The machine-op table.
+         */
+        private final MachineOpTable machineOps = new MachineOpTable1();
+
+        /**
+         * The pseudo-op table.
+         */
+        private final PseudoOpTable pseudoOps = new PseudoOpTable1();
+
+        /**
+         * The first pass, kept for its external symbols.
+         */
+        private final FirstPass pass1 = new FirstPass(this.literals,
+                this.symbols, this.pseudoOps, this.machineOps);
+
+        /**
+         * Runs the first pass over a source file.
+         *
+         * @param input
+         *            The assembly source
+         * @return The intermediate file, or null if an error occurred
+         */
+        File runFirstPass(File input) {
+            return this.pass1.runFirstPass(input);
+        }
+
+        /**
+         * Runs the second pass over the intermediate file of the first.
+         *
+         * @param intermediate
+         *            The intermediate file written by runFirstPass()
+         * @return The generated records, or null if an error occurred
+         */
+        ArrayList<Record> runSecondPass(File intermediate) {
+            SecondPass pass2 = new SecondPass(this.literals, this.machineOps,
+                    this.symbols, this.pseudoOps, this.pass1.getExtSet());
+            try {
+                return pass2.pass(intermediate);
+            } catch (FileNotFoundException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
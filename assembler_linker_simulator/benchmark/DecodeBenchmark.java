@@ -0,0 +1,124 @@
+package benchmark;
+
+import simulator.Decoder;
+
+/**
+ * Compares decoding every 16-bit instruction word with the original
+ * bit-at-a-time field extraction against the precomputed decode table.
+ */
+public class DecodeBenchmark {
+
+    /**
+     * The number of distinct 16-bit instruction words.
+     */
+    private static final int WORD_COUNT = 65536;
+
+    /**
+     * The values of simulator.Instructions in declaration order, scanned the
+     * same way the original decoder scanned Instructions.values().
+     */
+    private static final short[] INSTRUCTION_VALUES = { 0b0001, 0b0101,
+            0b0000, 0b1000, 0b0100, 0b1100, 0b10000, 0b10001, 0b0010, 0b1010,
+            0b0110, 0b1110, 0b1001, 0b1101, 0b0011, 0b1011, 0b0111, 0b1111,
+            0b11111110, 0b00100101, 0x21, 0x22, 0x23, 0x31, 0x33, 0x43 };
+
+    /**
+     * Runs the decode benchmarks.
+     *
+     * @param args
+     *            Unused arguments that can be passed into the command line.
+     */
+    public static void main(String[] args) {
+        Harness.measure("decode (bit loop)", WORD_COUNT,
+                DecodeBenchmark::decodeAllWithBitLoop);
+        Harness.measure("decode (table)", WORD_COUNT,
+                DecodeBenchmark::decodeAllWithTable);
+    }
+
+    /**
+     * Decodes every word the way MainMemory.getInfo originally did: a linear
+     * scan of the opcodes followed by one loop per field.
+     *
+     * @return A checksum of the decoded fields
+     */
+    private static long decodeAllWithBitLoop() {
+        long checksum = 0;
+        for (int word = 0; word < WORD_COUNT; word++) {
+            short val = (short) word;
+            short opcode = bitRange(val, 12, 16);
+            int current = -1;
+            for (int i = 0; i < INSTRUCTION_VALUES.length; i++) {
+                if (opcode == INSTRUCTION_VALUES[i]) {
+                    current = i;
+                }
+            }
+            checksum += (current < 0 ? 0 : 1) + opcode
+                    + bitRange(val, 9, 12) + bitRange(val, 6, 9)
+                    + bitRange(val, 5, 6) + signExtend(bitRange(val, 0, 5));
+        }
+        return checksum;
+    }
+
+    /**
+     * Decodes every word through the precomputed table.
+     *
+     * @return A checksum of the decoded fields
+     */
+    private static long decodeAllWithTable() {
+        long checksum = 0;
+        for (int word = 0; word < WORD_COUNT; word++) {
+            int entry = Decoder.lookup((short) word);
+            checksum += 1 + Decoder.opcode(entry) + Decoder.dr(entry)
+                    + Decoder.sr(entry) + Decoder.flag(entry)
+                    + Decoder.operand(entry);
+        }
+        return checksum;
+    }
+
+    /**
+     * The original bit-at-a-time implementation of Bits.getBitRange.
+     *
+     * @param val
+     *            The short to get the bits from
+     * @param startIndex
+     *            The first bit to get (inclusive)
+     * @param endIndex
+     *            Where to stop getting bits (non-inclusive)
+     * @return The value of the specified bits
+     */
+    private static short bitRange(short val, int startIndex, int endIndex) {
+        int tossAway = 16 - endIndex;
+        val = (short) (val << tossAway);
+        int diff = endIndex - startIndex;
+        short fewerBits = 0;
+        for (int i = 0; i < diff; i++) {
+            fewerBits = (short) (fewerBits << 1);
+            if ((val & 0x8000) != 0) {
+                fewerBits++;
+            }
+            val = (short) (val << 1);
+        }
+        return fewerBits;
+    }
+
+    /**
+     * The original bit-counting implementation of Bits.signExtend.
+     *
+     * @param undersizedValue
+     *            The value to sign extend, should be 5 bits or fewer
+     * @return The sign-extended value as a short
+     */
+    private static short signExtend(short undersizedValue) {
+        short iterateVal = undersizedValue;
+        int i = 0;
+        while (iterateVal != 0) {
+            iterateVal /= 2;
+            i++;
+        }
+        int diff = 16 - i;
+        if (bitRange(undersizedValue, 4, 5) == 1) {
+            return (short) ((short) (undersizedValue << diff) >> diff);
+        }
+        return undersizedValue;
+    }
+}
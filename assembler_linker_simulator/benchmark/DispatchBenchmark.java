@@ -0,0 +1,206 @@
+package benchmark;
+
+import simulator.ConditionRegister;
+import simulator.GeneralRegister;
+import simulator.Interpreter;
+import simulator.MachineState;
+import simulator.MainMemory;
+import simulator.ProgramCounter;
+import simulator.ThreadedCode;
+
+/**
+ * Compares the ways the simulator can dispatch instructions on the same guest
+ * loop: the original switch interpreter on register objects, the switch
+ * interpreter on a flat machine state, and threaded code built at load time,
+ * one instruction at a time and in a batch with fused pairs.
+ * A second loop of nothing but arithmetic and a branch shows the cost of
+ * setting the condition codes.
+ */
+public class DispatchBenchmark {
+
+    /**
+     * The number of instructions executed per round.
+     */
+    private static final int CYCLES = 1_000_000;
+
+    /**
+     * The load address of the guest loop.
+     */
+    private static final short START = 0x3000;
+
+    /**
+     * An endless loop mixing arithmetic, loads and stores:
+     * <pre>
+     *         LEA  R5, DATA
+     * LOOP    ADD  R1, R1, #1
+     *         AND  R2, R1, #7
+     *         NOT  R3, R2
+     *         LDR  R4, R5, #0
+     *         ADD  R4, R4, R2
+     *         STR  R4, R5, #0
+     *         LD   R6, DATA+1
+     *         ADD  R6, R6, R1
+     *         BRNZP LOOP
+     * </pre>
+     */
+    private static final short[] LOOP = { (short) 0xEA20, 0x1261, 0x5467,
+            (short) 0x9680, 0x6940, 0x1902, 0x7940, 0x2C21, 0x1D81, 0x0E01 };
+
+    /**
+     * An endless loop of arithmetic, where every instruction but the branch
+     * sets the condition codes:
+     * <pre>
+     * LOOP    ADD  R1, R1, #1
+     *         ADD  R2, R2, R1
+     *         AND  R3, R2, #15
+     *         NOT  R4, R3
+     *         ADD  R4, R4, R2
+     *         ADD  R5, R5, #-1
+     *         BRNZP LOOP
+     * </pre>
+     */
+    private static final short[] ARITHMETIC = { 0x1261, 0x1481, 0x56AF,
+            (short) 0x98FF, 0x1902, 0x1B7F, 0x0E00 };
+
+    /**
+     * Runs the dispatch benchmarks.
+     *
+     * @param args
+     *            Unused arguments that can be passed into the command line.
+     */
+    public static void main(String[] args) {
+        Harness.measure("Interpreter (register objects)", CYCLES,
+                DispatchBenchmark::runRegisterObjects);
+        Harness.measure("Interpreter (flat state)", CYCLES,
+                DispatchBenchmark::runFlatState);
+        Harness.measure("ThreadedCode", CYCLES,
+                DispatchBenchmark::runThreadedCode);
+        Harness.measure("ThreadedCode.run (fused pairs)", CYCLES,
+                DispatchBenchmark::runThreadedBatch);
+        Harness.measure("Interpreter.run (arithmetic)", CYCLES,
+                DispatchBenchmark::runArithmetic);
+        Harness.measure("ThreadedCode (arithmetic)", CYCLES,
+                DispatchBenchmark::runThreadedArithmetic);
+    }
+
+    /**
+     * Creates a memory holding the guest loop.
+     *
+     * @return The loaded memory
+     */
+    static MainMemory loadLoop() {
+        return loadLoop(LOOP);
+    }
+
+    /**
+     * Creates a memory holding a guest loop.
+     *
+     * @param loop
+     *            The words of the loop, loaded at START
+     * @return The loaded memory
+     */
+    static MainMemory loadLoop(short[] loop) {
+        MainMemory mem = new MainMemory(0x40, START);
+        for (int i = 0; i < loop.length; i++) {
+            mem.writeToMemory((short) (START + i), loop[i]);
+        }
+        return mem;
+    }
+
+    /**
+     * Runs the loop through the register object interpreter.
+     *
+     * @return The final value of R6
+     */
+    private static long runRegisterObjects() {
+        MainMemory mem = loadLoop();
+        GeneralRegister[] reg = new GeneralRegister[8];
+        for (int i = 0; i < reg.length; i++) {
+            reg[i] = new GeneralRegister(i);
+        }
+        ConditionRegister[] cond = { new ConditionRegister("N"),
+                new ConditionRegister("Z"), new ConditionRegister("P") };
+        ProgramCounter pc = new ProgramCounter();
+        pc.setAddress(START);
+        for (int i = 0; i < CYCLES; i++) {
+            Interpreter.executeCycle(mem, reg, cond, pc);
+        }
+        return reg[6].getVal();
+    }
+
+    /**
+     * Runs the loop through the flat state interpreter.
+     *
+     * @return The final value of R6
+     */
+    private static long runFlatState() {
+        MainMemory mem = loadLoop();
+        MachineState state = new MachineState();
+        state.setPc(START);
+        for (int i = 0; i < CYCLES; i++) {
+            Interpreter.executeCycle(mem, state);
+        }
+        return state.getRegister(6);
+    }
+
+    /**
+     * Runs the loop through threaded code.
+     *
+     * @return The final value of R6
+     */
+    private static long runThreadedCode() {
+        MainMemory mem = loadLoop();
+        MachineState state = new MachineState();
+        state.setPc(START);
+        ThreadedCode code = new ThreadedCode(mem, START, 0x41);
+        for (int i = 0; i < CYCLES; i++) {
+            code.executeCycle(state);
+        }
+        return state.getRegister(6);
+    }
+
+    /**
+     * Runs the loop through threaded code in one batch, as quiet mode does,
+     * executing its LD+ADD and ADD+BRX pairs with one call each.
+     *
+     * @return The final value of R6
+     */
+    private static long runThreadedBatch() {
+        MainMemory mem = loadLoop();
+        MachineState state = new MachineState();
+        state.setPc(START);
+        ThreadedCode code = new ThreadedCode(mem, START, 0x41);
+        code.run(state, CYCLES, null);
+        return state.getRegister(6);
+    }
+
+    /**
+     * Runs the arithmetic loop through the flat state interpreter in one
+     * batch, as quiet mode does.
+     *
+     * @return The final value of R4
+     */
+    private static long runArithmetic() {
+        MainMemory mem = loadLoop(ARITHMETIC);
+        MachineState state = new MachineState();
+        state.setPc(START);
+        Interpreter.run(mem, state, CYCLES);
+        return state.getRegister(4);
+    }
+
+    /**
+     * Runs the arithmetic loop through threaded code.
+     *
+     * @return The final value of R4
+     */
+    private static long runThreadedArithmetic() {
+        MainMemory mem = loadLoop(ARITHMETIC);
+        MachineState state = new MachineState();
+        state.setPc(START);
+        ThreadedCode code = new ThreadedCode(mem, START, 0x41);
+        for (int i = 0; i < CYCLES; i++) {
+            code.executeCycle(state);
+        }
+        return state.getRegister(4);
+    }
+}
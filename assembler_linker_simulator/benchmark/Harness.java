@@ -0,0 +1,62 @@
+package benchmark;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Minimal timing harness shared by the benchmarks. Each benchmark is a
+ * LongSupplier that performs a fixed number of operations and returns a value
+ * derived from its work so the JIT cannot remove it.
+ */
+public final class Harness {
+
+    /**
+     * Number of untimed rounds run before measuring.
+     */
+    private static final int WARMUP_ROUNDS = 10;
+
+    /**
+     * Number of timed rounds.
+     */
+    private static final int MEASURED_ROUNDS = 10;
+
+    /**
+     * Consumes benchmark results so the work producing them stays live.
+     */
+    private static volatile long sink;
+
+    /**
+     * Not meant to be instantiated.
+     */
+    private Harness() {
+    }
+
+    /**
+     * Runs a benchmark and prints its average and best time per operation.
+     *
+     * @param name
+     *            The name printed next to the result
+     * @param operationsPerRound
+     *            How many operations a single call of round performs
+     * @param round
+     *            The work to time
+     */
+    public static void measure(String name, long operationsPerRound,
+            LongSupplier round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += round.getAsLong();
+        }
+        long total = 0;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long start = System.nanoTime();
+            sink += round.getAsLong();
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            best = Math.min(best, elapsed);
+        }
+        double average = (double) total / MEASURED_ROUNDS / operationsPerRound;
+        double fastest = (double) best / operationsPerRound;
+        System.out.printf("%-40s %10.3f ns/op (best %.3f)%n", name, average,
+                fastest);
+    }
+}
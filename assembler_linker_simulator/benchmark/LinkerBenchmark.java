@@ -0,0 +1,113 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+
+import linker.LinkerPassOne;
+import linker.LinkerPassTwo;
+
+/**
+ * Times both passes of the linker. The linker only links segments that fit on
+ * a single page together, so every case links one page of generated code split
+ * into a different number of segments, each calling the next through an
+ * external symbol. Linked files are written to the linker's temp folder in the
+ * working directory.
+ */
+public class LinkerBenchmark {
+
+    /**
+     * The numbers of segments the page is split into.
+     */
+    private static final int[] SEGMENT_COUNTS = { 2, 4, 16 };
+
+    /**
+     * The folder the linker writes linked files to.
+     */
+    private static final String LINKED_FOLDER = "./temp/linked/";
+
+    /**
+     * Runs the linker benchmarks.
+     *
+     * @param args
+     *            Unused arguments that can be passed into the command line.
+     * @throws IOException
+     *             If a generated segment cannot be assembled
+     */
+    public static void main(String[] args) throws IOException {
+        AssemblerBenchmark.createTempFolders();
+        new File(LINKED_FOLDER).mkdirs();
+        for (int segments : SEGMENT_COUNTS) {
+            String[] objects = assembleSegments(segments);
+            int words = ProgramGenerator.PAGE_SIZE;
+            HashMap<String, Integer> externalSymbolTable = new HashMap<>();
+            LinkerPassOne pass1 = new LinkerPassOne(externalSymbolTable,
+                    objects, 0);
+            if (!pass1.FirstPassLoad()) {
+                throw new IllegalStateException("Could not link " + segments
+                        + " segments");
+            }
+            int totalLength = pass1.getTotalLength();
+
+            Harness.measure("LinkerPassOne " + segments + " segments", words,
+                    () -> passOne(objects).size());
+            Harness.measure("LinkerPassTwo " + segments + " segments", words,
+                    () -> passTwo(externalSymbolTable, objects, totalLength));
+        }
+    }
+
+    /**
+     * Generates and assembles the segments of a page.
+     *
+     * @param segments
+     *            The number of segments to split the page into
+     * @return The paths of the object files, the main segment first
+     * @throws IOException
+     *             If a segment cannot be assembled
+     */
+    private static String[] assembleSegments(int segments)
+            throws IOException {
+        int words = ProgramGenerator.PAGE_SIZE / segments;
+        String[] objects = new String[segments];
+        for (int i = 0; i < segments; i++) {
+            String external = i + 1 < segments ? "E" + (i + 1) : null;
+            String source = ProgramGenerator.segmentSource("S" + i, words,
+                    "E" + i, external);
+            File input = ProgramGenerator.writeTemporaryFile("segment",
+                    ".txt", source);
+            objects[i] = AssemblerBenchmark.assemble(input).getPath();
+        }
+        return objects;
+    }
+
+    /**
+     * Runs the first pass of the linker.
+     *
+     * @param objects
+     *            The paths of the object files to link
+     * @return The external symbol table filled in by the pass
+     */
+    private static HashMap<String, Integer> passOne(String[] objects) {
+        HashMap<String, Integer> externalSymbolTable = new HashMap<>();
+        new LinkerPassOne(externalSymbolTable, objects, 0).FirstPassLoad();
+        return externalSymbolTable;
+    }
+
+    /**
+     * Runs the second pass of the linker and writes the linked file.
+     *
+     * @param externalSymbolTable
+     *            The external symbol table filled in by the first pass
+     * @param objects
+     *            The paths of the object files to link
+     * @param totalLength
+     *            The combined length of the segments found by the first pass
+     * @return 1 if the second pass succeeded, 0 if not
+     */
+    private static long passTwo(HashMap<String, Integer> externalSymbolTable,
+            String[] objects, int totalLength) {
+        LinkerPassTwo pass2 = new LinkerPassTwo(externalSymbolTable, objects,
+                0, totalLength);
+        return pass2.SecondPassLoad() ? 1 : 0;
+    }
+}
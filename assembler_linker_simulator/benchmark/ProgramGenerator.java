@@ -0,0 +1,333 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Generates guest programs for the benchmarks, both as assembly source for the
+ * assembler and as machine code or object files for the simulator. The same
+ * size always gives the same program in every form.
+ *
+ * Every 512-word page of a program starts with DATA_WORDS zeroed data words,
+ * labelled D, the page number and a letter. They are followed by random
+ * instructions, the first labelled C and the page number, and the page ends
+ * with a BRNZP labelled N and the page number that jumps to the first
+ * instruction of the next page, skipping its data. The last page ends with a
+ * zero word instead. Only ADD, AND, NOT, LD, LEA, ST and BRX are generated,
+ * address operands only refer to the data of their own page and branches only
+ * go forward to the end of their page, so the program assembles without
+ * errors and always runs through to its end.
+ */
+public final class ProgramGenerator {
+
+    /**
+     * The program sizes in words the benchmarks are run with. The largest is
+     * the biggest whole number of pages that fits in a single segment.
+     */
+    static final int[] SIZES = { 1024, 8192, 65024 };
+
+    /**
+     * The number of words in a page.
+     */
+    static final int PAGE_SIZE = 512;
+
+    /**
+     * The number of zeroed data words at the start of every page.
+     */
+    static final int DATA_WORDS = 8;
+
+    /**
+     * The seed every program is generated from.
+     */
+    private static final long SEED = 3903;
+
+    /**
+     * The number of kinds of random instructions generated.
+     */
+    private static final int KINDS = 8;
+
+    /**
+     * The assembly mnemonics of the branches, indexed by their n, z and p
+     * bits.
+     */
+    private static final String[] BRANCHES = { "", "BRP", "BRZ", "BRZP",
+            "BRN", "BRNP", "BRNZ", "BRNZP" };
+
+    /**
+     * Not meant to be instantiated.
+     */
+    private ProgramGenerator() {
+    }
+
+    /**
+     * Generates the machine code of a program loaded at a page aligned
+     * address.
+     *
+     * @param words
+     *            The number of words in the program, a multiple of PAGE_SIZE
+     * @return The words of the program
+     */
+    static short[] machineCode(int words) {
+        Random random = new Random(SEED);
+        short[] code = new short[words];
+        for (int i = 0; i < words; i++) {
+            int offset = i % PAGE_SIZE;
+            if (offset == PAGE_SIZE - 1) {
+                code[i] = (short) (i == words - 1 ? 0 : 0x0E00 | DATA_WORDS);
+            } else if (offset >= DATA_WORDS) {
+                code[i] = encode(random);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Generates the assembly source of an absolute program. Assembling it
+     * gives the same words as machineCode().
+     *
+     * @param name
+     *            The segment name of the program, at most 6 characters
+     * @param words
+     *            The number of words in the program, a multiple of PAGE_SIZE
+     * @param loadAddress
+     *            The page aligned address the program is loaded at
+     * @return The lines of the program separated by newlines
+     */
+    static String assemblySource(String name, int words, int loadAddress) {
+        StringBuilder source = new StringBuilder();
+        line(source, name, ".ORIG", String.format("x%04X", loadAddress));
+        appendBody(source, words, "C0", null);
+        return source.toString();
+    }
+
+    /**
+     * Generates the assembly source of a relocatable segment. The assembler
+     * only allows relocatable programs of a single page, and the linker only
+     * links segments that fit on a single page together.
+     *
+     * @param name
+     *            The segment name of the program, at most 6 characters
+     * @param words
+     *            The number of words in the segment, from 16 to PAGE_SIZE
+     * @param entry
+     *            A symbol to label the first instruction with and export with
+     *            .ENT
+     * @param external
+     *            A symbol imported with .EXT that the segment calls with JSR
+     *            before its last instruction, or null for none
+     * @return The lines of the segment separated by newlines
+     */
+    static String segmentSource(String name, int words, String entry,
+            String external) {
+        StringBuilder source = new StringBuilder();
+        line(source, name, ".ORIG", "");
+        line(source, "", ".ENT", entry);
+        if (external != null) {
+            line(source, "", ".EXT", external);
+        }
+        appendBody(source, words, entry, external);
+        return source.toString();
+    }
+
+    /**
+     * Generates the object file of a program, in the format read by the
+     * simulator's Loader. Execution starts at the first instruction.
+     *
+     * @param name
+     *            The segment name of the program, at most 6 characters
+     * @param words
+     *            The number of words in the program, a multiple of PAGE_SIZE
+     * @param loadAddress
+     *            The page aligned address the program is loaded at
+     * @return A temporary file deleted when the virtual machine exits
+     * @throws IOException
+     *             If the file cannot be written
+     */
+    static File objectFile(String name, int words, int loadAddress)
+            throws IOException {
+        short[] code = machineCode(words);
+        StringBuilder object = new StringBuilder();
+        object.append(String.format("H%-6s%04X%04X%n", name, loadAddress,
+                words));
+        for (int i = 0; i < words; i++) {
+            object.append(String.format("T%04X%04X%n", loadAddress + i,
+                    code[i]));
+        }
+        object.append(String.format("E%04X%n", loadAddress + DATA_WORDS));
+        return writeTemporaryFile(name, ".o", object.toString());
+    }
+
+    /**
+     * Writes text to a temporary file.
+     *
+     * @param prefix
+     *            The start of the file name
+     * @param suffix
+     *            The end of the file name
+     * @param contents
+     *            The text to write
+     * @return A temporary file deleted when the virtual machine exits
+     * @throws IOException
+     *             If the file cannot be written
+     */
+    static File writeTemporaryFile(String prefix, String suffix,
+            String contents) throws IOException {
+        File file = File.createTempFile(prefix, suffix);
+        file.deleteOnExit();
+        Files.write(file.toPath(), contents.getBytes());
+        return file;
+    }
+
+    /**
+     * Appends the data and instructions of a program followed by .END.
+     *
+     * @param source
+     *            The source to append to
+     * @param words
+     *            The number of words in the program, a multiple of PAGE_SIZE
+     *            or a single segment of less than a page
+     * @param start
+     *            The label of the first instruction of the program
+     * @param external
+     *            A symbol to call with JSR before the last instruction, or
+     *            null for none
+     */
+    private static void appendBody(StringBuilder source, int words,
+            String start, String external) {
+        Random random = new Random(SEED);
+        for (int i = 0; i < words; i++) {
+            int page = i / PAGE_SIZE;
+            int offset = i % PAGE_SIZE;
+            if (offset < DATA_WORDS) {
+                line(source, dataLabel(page, offset), ".FILL", "x0");
+            } else if (offset == DATA_WORDS) {
+                render(source, page == 0 ? start : "C" + page, random, page);
+            } else if (i == words - 1) {
+                line(source, "N" + page, ".FILL", "x0");
+            } else if (offset == PAGE_SIZE - 1) {
+                line(source, "N" + page, "BRNZP", "C" + (page + 1));
+            } else if (external != null && i == words - 2) {
+                line(source, "", "JSR", external);
+            } else {
+                render(source, "", random, page);
+            }
+        }
+        line(source, "", ".END", "");
+    }
+
+    /**
+     * Encodes the next random instruction.
+     *
+     * @param random
+     *            The generator of the program
+     * @return The instruction word
+     */
+    private static short encode(Random random) {
+        int kind = random.nextInt(KINDS);
+        int dr = random.nextInt(8);
+        int sr = random.nextInt(8);
+        int arg = random.nextInt(32);
+        int data = arg % DATA_WORDS;
+        switch (kind) {
+            case 0: //ADD
+                return (short) (0x1000 | dr << 9 | sr << 6 | arg & 7);
+            case 1: //ADD immediate
+                return (short) (0x1020 | dr << 9 | sr << 6 | arg);
+            case 2: //AND immediate
+                return (short) (0x5020 | dr << 9 | sr << 6 | arg);
+            case 3: //NOT
+                return (short) (0x9000 | dr << 9 | sr << 6);
+            case 4: //LD
+                return (short) (0x2000 | dr << 9 | data);
+            case 5: //LEA
+                return (short) (0xE000 | dr << 9 | data);
+            case 6: //ST
+                return (short) (0x3000 | dr << 9 | data);
+            default: //BRX to the end of the page, with p always set
+                return (short) ((dr | 1) << 9 | PAGE_SIZE - 1);
+        }
+    }
+
+    /**
+     * Renders the next random instruction as assembly. Draws the same values
+     * from random as encode() so both give the same program.
+     *
+     * @param source
+     *            The source to append the line to
+     * @param label
+     *            The label of the line, or an empty string for none
+     * @param random
+     *            The generator of the program
+     * @param page
+     *            The number of the page the instruction is on
+     */
+    private static void render(StringBuilder source, String label,
+            Random random, int page) {
+        int kind = random.nextInt(KINDS);
+        int dr = random.nextInt(8);
+        int sr = random.nextInt(8);
+        int arg = random.nextInt(32);
+        String data = dataLabel(page, arg % DATA_WORDS);
+        String registers = "R" + dr + ",R" + sr;
+        int imm5 = arg >= 16 ? arg - 32 : arg;
+        switch (kind) {
+            case 0:
+                line(source, label, "ADD", registers + ",R" + (arg & 7));
+                break;
+            case 1:
+                line(source, label, "ADD", registers + ",#" + imm5);
+                break;
+            case 2:
+                line(source, label, "AND", registers + ",#" + imm5);
+                break;
+            case 3:
+                line(source, label, "NOT", registers);
+                break;
+            case 4:
+                line(source, label, "LD", "R" + dr + "," + data);
+                break;
+            case 5:
+                line(source, label, "LEA", "R" + dr + "," + data);
+                break;
+            case 6:
+                line(source, label, "ST", "R" + dr + "," + data);
+                break;
+            default:
+                line(source, label, BRANCHES[dr | 1], "N" + page);
+                break;
+        }
+    }
+
+    /**
+     * Gets the label of a data word.
+     *
+     * @param page
+     *            The number of the page the word is on
+     * @param index
+     *            The index of the word in the data of the page
+     * @return D, the page number and a letter from A on
+     */
+    private static String dataLabel(int page, int index) {
+        return "D" + page + (char) ('A' + index);
+    }
+
+    /**
+     * Appends a line of assembly in the fixed columns read by the assembler.
+     *
+     * @param source
+     *            The source to append the line to
+     * @param label
+     *            The label of the line, or an empty string for none
+     * @param operation
+     *            The operation of the line
+     * @param operands
+     *            The operands of the line, or an empty string for none
+     */
+    private static void line(StringBuilder source, String label,
+            String operation, String operands) {
+        source.append(String.format("%-7s%-6s%s", label, operation, operands)
+                .stripTrailing()).append('\n');
+    }
+}
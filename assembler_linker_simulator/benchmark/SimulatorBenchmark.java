@@ -0,0 +1,319 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+
+import simulator.Breakpoints;
+import simulator.ConsoleTrapIO;
+import simulator.FlatMemory;
+import simulator.Interpreter;
+import simulator.Loader;
+import simulator.MachineState;
+import simulator.MainMemory;
+import simulator.ObjectImage;
+import simulator.PagedMemory;
+import simulator.Profiler;
+import simulator.UndoLog;
+
+/**
+ * Times loading, memory access and instruction execution in the simulator on
+ * generated programs of every size in ProgramGenerator.SIZES.
+ */
+public class SimulatorBenchmark {
+
+    /**
+     * The number of instructions executed per round.
+     */
+    private static final int CYCLES = 1_000_000;
+
+    /**
+     * The least number of memory accesses per round. Small programs are
+     * accessed several times to reach it.
+     */
+    private static final int MEMORY_ACCESSES = 1 << 20;
+
+    /**
+     * The number of child memories forked per round.
+     */
+    private static final int FORKS = 1 << 12;
+
+    /**
+     * Runs the simulator benchmarks.
+     *
+     * @param args
+     *            Unused arguments that can be passed into the command line.
+     * @throws IOException
+     *             If a generated object file cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        for (int words : ProgramGenerator.SIZES) {
+            File object = ProgramGenerator.objectFile("BENCH", words, 0);
+            File image = imageFile(object);
+            MainMemory mem = load(object, new MainMemory());
+            MainMemory watched = load(object, new MainMemory());
+            watched.setBreakpoints(unreachedBreakpoints());
+            MainMemory undone = load(object, new MainMemory());
+            undone.setUndoLog(new UndoLog());
+
+            //The generated arithmetic overflows, so drop the errors instead
+            //of queueing them for the whole run
+            mem.setErrorSink(error -> {
+            });
+            watched.setErrorSink(error -> {
+            });
+            undone.setErrorSink(error -> {
+            });
+            PagedMemory paged = (PagedMemory) load(object, new PagedMemory());
+            MainMemory flat = load(object, new FlatMemory());
+            MainMemory unprotected = load(object, new FlatMemory(false));
+            flat.setErrorSink(error -> {
+            });
+            unprotected.setErrorSink(error -> {
+            });
+            int passes = Math.max(1, MEMORY_ACCESSES / words);
+            long accesses = (long) passes * words;
+
+            Harness.measure("Loader.loadToMemory " + words, words,
+                    () -> load(object, new MainMemory())
+                            .readFromMemory((short) 0));
+            Harness.measure("Loader.loadToMemory image " + words, words,
+                    () -> load(image, new MainMemory())
+                            .readFromMemory((short) 0));
+            Harness.measure("Loader.loadOnDemand image " + words, words,
+                    () -> loadOnDemand(image, true).readFromMemory((short) 0));
+            Harness.measure("Loader.loadOnDemand unchecked " + words, words,
+                    () -> loadOnDemand(image, false)
+                            .readFromMemory((short) 0));
+            Harness.measure("Interpreter.executeCycle " + words, CYCLES,
+                    () -> executeCycles(mem, words));
+            Harness.measure("Interpreter.run " + words, CYCLES,
+                    () -> runBatches(mem, words, null));
+            Harness.measure("Interpreter.run breakpoints " + words, CYCLES,
+                    () -> runBatches(watched, words, null));
+            Harness.measure("Interpreter.run undo log " + words, CYCLES,
+                    () -> runBatches(undone, words, null));
+            Harness.measure("Interpreter.run profiled " + words, CYCLES,
+                    () -> runBatches(mem, words, new Profiler()));
+            Harness.measure("Interpreter.run flat " + words, CYCLES,
+                    () -> runBatches(flat, words, null));
+            Harness.measure("Interpreter.run flat unprotected " + words,
+                    CYCLES, () -> runBatches(unprotected, words, null));
+            Harness.measure("MainMemory.readFromMemory " + words, accesses,
+                    () -> readAll(mem, words, passes));
+            Harness.measure("MainMemory.getInfo " + words, accesses,
+                    () -> getInfoAll(mem, words, passes));
+            Harness.measure("MainMemory.getPage " + words, accesses,
+                    () -> getPageAll(mem, words, passes));
+            Harness.measure("PagedMemory.readFromMemory " + words, accesses,
+                    () -> readAll(paged, words, passes));
+            Harness.measure("PagedMemory.fork " + words, FORKS,
+                    () -> forkAll(paged, words));
+            Harness.measure("FlatMemory.readFromMemory " + words, accesses,
+                    () -> readAll(flat, words, passes));
+            Harness.measure("FlatMemory.readFromMemory unprotected " + words,
+                    accesses, () -> readAll(unprotected, words, passes));
+        }
+    }
+
+    /**
+     * Loads an object file into an empty memory.
+     *
+     * @param object
+     *            The object file to load
+     * @param mem
+     *            The memory to load into
+     * @return The loaded memory
+     */
+    private static MainMemory load(File object, MainMemory mem) {
+        Loader loader = new Loader(mem, object.getPath());
+        if (!loader.loadToMemory()) {
+            throw new IllegalStateException("Could not load " + object);
+        }
+        return mem;
+    }
+
+    /**
+     * Loads an object image into an empty paged memory that reads each page
+     * from the file when it is first accessed.
+     *
+     * @param image
+     *            The object image to load
+     * @param verifyChecksum
+     *            Whether to check the checksum of the image first
+     * @return The loaded memory
+     */
+    private static MainMemory loadOnDemand(File image,
+            boolean verifyChecksum) {
+        PagedMemory mem = new PagedMemory();
+        Loader loader = new Loader(mem, image.getPath());
+        if (!loader.loadOnDemand(verifyChecksum)) {
+            throw new IllegalStateException("Could not load " + image);
+        }
+        return mem;
+    }
+
+    /**
+     * Converts an object file to an object image.
+     *
+     * @param object
+     *            The object file to convert
+     * @return A temporary image file deleted when the virtual machine exits
+     * @throws IOException
+     *             If the image file cannot be created
+     */
+    private static File imageFile(File object) throws IOException {
+        File image = File.createTempFile("BENCH", ".img");
+        image.deleteOnExit();
+        if (!ObjectImage.convert(object.getPath(), image.getPath(),
+                new ConsoleTrapIO())) {
+            throw new IllegalStateException("Could not convert " + object);
+        }
+        return image;
+    }
+
+    /**
+     * Executes CYCLES instructions of a program loaded at address 0, starting
+     * it again from its first instruction whenever it runs off its end.
+     *
+     * @param mem
+     *            The memory holding the program
+     * @param words
+     *            The number of words in the program
+     * @return The final value of R0
+     */
+    private static long executeCycles(MainMemory mem, int words) {
+        MachineState state = new MachineState();
+        state.setPc(ProgramGenerator.DATA_WORDS);
+        for (int i = 0; i < CYCLES; i++) {
+            if (state.getPc() >= words) {
+                state.setPc(ProgramGenerator.DATA_WORDS);
+            }
+            Interpreter.executeCycle(mem, state);
+        }
+        return state.getRegister(0);
+    }
+
+    /**
+     * Executes CYCLES instructions of a program loaded at address 0 in
+     * batches that each run from its first instruction to its end.
+     *
+     * @param mem
+     *            The memory holding the program
+     * @param words
+     *            The number of words in the program
+     * @param profiler
+     *            The profiler to record instructions in, or null to not
+     *            profile
+     * @return The final value of R0
+     */
+    private static long runBatches(MainMemory mem, int words,
+            Profiler profiler) {
+        MachineState state = new MachineState();
+        long left = CYCLES;
+        while (left > 0) {
+            state.setPc(ProgramGenerator.DATA_WORDS);
+            left -= Interpreter.run(mem, state,
+                    Math.min(left, words - ProgramGenerator.DATA_WORDS),
+                    profiler).getInstructionCount();
+        }
+        return state.getRegister(0);
+    }
+
+    /**
+     * Creates breakpoints and watchpoints on addresses the generated programs
+     * never reach, so that only the cost of checking them is timed.
+     *
+     * @return The armed breakpoints
+     */
+    private static Breakpoints unreachedBreakpoints() {
+        Breakpoints breakpoints = new Breakpoints();
+        breakpoints.setBreakpoint(0xFFFF);
+        breakpoints.watchReads(0xFFFF);
+        breakpoints.watchWrites(0xFFFF);
+        return breakpoints;
+    }
+
+    /**
+     * Reads every word of a program.
+     *
+     * @param mem
+     *            The memory holding the program
+     * @param words
+     *            The number of words in the program
+     * @param passes
+     *            How many times to read the program
+     * @return The sum of the words read
+     */
+    private static long readAll(MainMemory mem, int words, int passes) {
+        long sum = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            for (int address = 0; address < words; address++) {
+                sum += mem.readFromMemory((short) address);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Splits every word of a program into its fields.
+     *
+     * @param mem
+     *            The memory holding the program
+     * @param words
+     *            The number of words in the program
+     * @param passes
+     *            How many times to split the program
+     * @return The sum of the opcodes
+     */
+    private static long getInfoAll(MainMemory mem, int words, int passes) {
+        long sum = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            for (int address = 0; address < words; address++) {
+                sum += mem.getInfo((short) address)[0];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Copies the page of every word of a program, the way the trace printing
+     * does after every instruction.
+     *
+     * @param mem
+     *            The memory holding the program
+     * @param words
+     *            The number of words in the program
+     * @param passes
+     *            How many times to copy the pages of the program
+     * @return The sum of the page lengths
+     */
+    private static long getPageAll(MainMemory mem, int words, int passes) {
+        long sum = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            for (int address = 0; address < words; address++) {
+                sum += mem.getPage((short) address).length;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Forks FORKS children from a program and writes one word in each, the
+     * way a machine that changes its data after being forked would.
+     *
+     * @param mem
+     *            The memory holding the program
+     * @param words
+     *            The number of words in the program
+     * @return The sum of the words written
+     */
+    private static long forkAll(PagedMemory mem, int words) {
+        long sum = 0;
+        for (int i = 0; i < FORKS; i++) {
+            PagedMemory child = mem.fork();
+            child.writeToMemory((short) (i % words), (short) i);
+            sum += child.readFromMemory((short) (i % words));
+        }
+        return sum;
+    }
+}
@@ -1,8 +1,5 @@
 package simulator;
 
-import java.util.Arrays;
-import java.util.HashSet;
-
 /**
  * Provides functionality for various "lower level" bitwise and arithmetic operations
  */
@@ -20,10 +17,6 @@ public class Bits {
 	 * Mask to get Bits 0-6 of the immediate
 	 */
 	private static int indexOffsetMask = 63;
-	/**
-	 * Mask to check if first bit is a 1.
-	 */
-	private static int bitValueMask = 0x8000;
 	
     /**
      * Concatenates page and offset to get a full-sized address
@@ -61,24 +54,11 @@ public class Bits {
      * @return The sign-extended value as a short
      */
     public static short signExtend(short undersizedValue) {
-        short iterateVal = undersizedValue;
-        int i = 0;
-        /* This should calculate how many bits are in iterateVal */
-        while (iterateVal != 0) {
-            iterateVal /= 2;
-            i++;
-        }
-        int diff = 16 - i;
-        short fifth = Bits.getBitRange(undersizedValue,4,5);
-        if(fifth == 1) {
-        	short tempVal = (short) (undersizedValue << diff);
-            /*
-             * Java does arithmetic right shift, so this will replace equal to the
-             * leading value
-             */
-            return (short) (tempVal >> diff);
-        }
-        return undersizedValue;
+        /*
+         * Moves the 5th bit into the sign position; Java does arithmetic right
+         * shift, so shifting back replaces the upper bits with the leading value
+         */
+        return (short) ((undersizedValue << 27) >> 27);
     }
 
     /**
@@ -98,19 +78,9 @@ public class Bits {
      *         guaranteed is that 0b[exact bits] - return value = 0
      */
     public static short getBitRange(short val, int startIndex, int endIndex) {
-        /* How many lower bits to throw out of val */
-        int tossAway = 16 - endIndex;
-        val = (short) (val << tossAway);
         int diff = endIndex - startIndex;
-        short fewerBits = 0;
-        for (int i = 0; i < diff; i++) {
-            fewerBits = (short) (fewerBits << 1);
-            if ((val & bitValueMask) != 0) {
-                fewerBits++;
-            }
-            val = (short) (val << 1);
-        }
-        return fewerBits;
+        int fieldMask = (1 << diff) - 1;
+        return (short) ((Short.toUnsignedInt(val) >>> startIndex) & fieldMask);
     }
 
     /**
@@ -174,14 +144,11 @@ public class Bits {
      */
     public static boolean isValidHexString(String hexStr) {
 
-        //Only accept upper-case hex characters
-        HashSet<Character> hexCharSet = new HashSet<Character>(
-                Arrays.asList('A', 'B', 'C', 'D', 'E', 'F'));
-
         for (int i = 0; i < hexStr.length(); i++) {
             char currentChar = hexStr.charAt(i);
 
-            if (!hexCharSet.contains(currentChar)
+            //Only accept upper-case hex characters
+            if ((currentChar < 'A' || currentChar > 'F')
                     && !Character.isDigit(currentChar)) {
                 return false;
             }
@@ -0,0 +1,884 @@
+package simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Translates a basic block of guest instructions into a hidden JVM class
+ * implementing CompiledBlock, so that HotSpot can optimize the guest code like
+ * any other Java method.
+ *
+ * A block is a run of ADD, AND, NOT, LD, LDI, LDR and LEA instructions that
+ * may end with a single store or jump. Stores end a block so that a block can
+ * never overwrite one of its own instructions before they have run. TRAP and
+ * DBUG instructions are never compiled. The generated method contains no
+ * bytecode branches; conditional work is done by the static helpers at the
+ * bottom of this class, so the class file needs no stack map frames.
+ *
+ * Instructions that can access an address outside of memory set the program
+ * counter past themselves first, so that errors are recorded at the same
+ * address as by the interpreter. When one of them is not the last of the
+ * block, an error asking the machine to halt stops the block right after it
+ * by throwing Halted, leaving the state exactly as the interpreter would.
+ */
+public class BlockCompiler {
+
+    /**
+     * The maximum number of instructions in a compiled block.
+     */
+    static final int MAX_BLOCK_LENGTH = 64;
+
+    /**
+     * Lookup used to define the hidden classes in this package.
+     */
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    /**
+     * Name the hidden classes are derived from.
+     */
+    private static final String CLASS_NAME = "simulator/CompiledBlockImpl";
+
+    /**
+     * Internal name of MainMemory, whose methods the generated code calls.
+     */
+    private static final String MEMORY = "simulator/MainMemory";
+
+    /**
+     * Descriptor of CompiledBlock.run().
+     */
+    private static final String RUN_DESCRIPTOR = "([ILsimulator/MainMemory;)V";
+
+    //JVM opcodes used by the generated code
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int ICONST_M1 = 0x02;
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int IALOAD = 0x2e;
+    private static final int IASTORE = 0x4f;
+    private static final int DUP2 = 0x5c;
+    private static final int IADD = 0x60;
+    private static final int IAND = 0x7e;
+    private static final int IOR = 0x80;
+    private static final int IXOR = 0x82;
+    private static final int I2S = 0x93;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    /**
+     * The memory the block is read from.
+     */
+    private final MainMemory mem;
+
+    /**
+     * The unsigned address of the first instruction of the block.
+     */
+    private final int start;
+
+    /**
+     * The number of instructions in the block.
+     */
+    private int length;
+
+    /**
+     * The instruction the block reports as executed last.
+     */
+    private Instructions lastInstruction;
+
+    /**
+     * Bytes of the constant pool, without its leading count.
+     */
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+
+    /**
+     * Indices of constant pool entries already written, keyed by their
+     * contents.
+     */
+    private final HashMap<String, Integer> poolIndices = new HashMap<>();
+
+    /**
+     * The number of constant pool slots used so far plus one.
+     */
+    private int poolCount = 1;
+
+    /**
+     * Bytecode of the run method.
+     */
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+
+    /**
+     * Thrown by a compiled block that stops partway through because an
+     * instruction raised an error asking the machine to halt.
+     */
+    static final class Halted extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The number of instructions of the block executed, up to and
+         * including the one raising the error.
+         */
+        final int executed;
+
+        /**
+         * The instruction raising the error.
+         */
+        final Instructions lastInstruction;
+
+        /**
+         * Creates the signal of a stopped block, without a stack trace.
+         *
+         * @param executed
+         *            The number of instructions of the block executed
+         * @param lastInstruction
+         *            The instruction raising the error
+         */
+        Halted(int executed, Instructions lastInstruction) {
+            super(null, null, false, false);
+            this.executed = executed;
+            this.lastInstruction = lastInstruction;
+        }
+    }
+
+    /**
+     * Creates a compiler for the block starting at the given address.
+     *
+     * @param mem
+     *            The memory holding the guest program
+     * @param start
+     *            The unsigned address of the first instruction of the block
+     */
+    BlockCompiler(MainMemory mem, int start) {
+        this.mem = mem;
+        this.start = start;
+    }
+
+    /**
+     * Gets the number of instructions covered by the compiled block.
+     *
+     * @return The length of the block, or 0 if nothing could be compiled
+     */
+    int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Gets the instruction the compiled block ends with.
+     *
+     * @return An enum telling the simulator what instruction is executed last
+     */
+    Instructions getLastInstruction() {
+        return this.lastInstruction;
+    }
+
+    /**
+     * Compiles the block.
+     *
+     * @return The compiled block, or null if the block is empty or the class
+     *         could not be defined
+     */
+    CompiledBlock compile() {
+        int lastFlagSetter = this.scan();
+        if (this.length == 0) {
+            return null;
+        }
+
+        int modifiedMask = 0;
+        int address = this.start;
+        for (int i = 0; i < this.length; i++, address++) {
+            int entry = Decoder.lookup(this.mem.inspectWord(address));
+            int opcode = Decoder.opcode(entry);
+            int dr = Decoder.dr(entry);
+            int sr = Decoder.sr(entry);
+            short operand = Decoder.operand(entry);
+            //The program counter has already been incremented when executing
+            short pc = (short) (address + 1);
+
+            //Errors are recorded with the program counter past the
+            //instruction raising them
+            boolean faults = this.canFault(entry, pc);
+            if (faults) {
+                this.code.write(ALOAD_1);
+                this.pushInt(MachineState.PC);
+                this.pushInt(address + 1);
+                this.code.write(IASTORE);
+            }
+
+            switch (opcode) {
+                case 0b0001: //ADD
+                case 0b0101: //AND
+                    this.beginRegisterWrite(dr);
+                    this.loadRegister(sr);
+                    if (Decoder.flag(entry) == 0) {
+                        this.loadRegister(operand);
+                    } else {
+                        this.pushInt(operand);
+                    }
+                    this.code.write(opcode == 0b0001 ? IADD : IAND);
+                    this.code.write(I2S);
+                    this.code.write(IASTORE);
+                    break;
+                case 0b1001: //NOT
+                    this.beginRegisterWrite(dr);
+                    this.loadRegister(sr);
+                    this.code.write(ICONST_M1);
+                    this.code.write(IXOR);
+                    this.code.write(I2S);
+                    this.code.write(IASTORE);
+                    break;
+                case 0b0010: //LD
+                case 0b1010: //LDI, evaluated the same way as ldi()
+                    this.beginRegisterWrite(dr);
+                    this.code.write(ALOAD_2);
+                    this.pushInt(Bits.fullAddress(pc, operand));
+                    this.invoke(INVOKEVIRTUAL, MEMORY, "readFromMemory",
+                            "(S)S");
+                    this.code.write(IASTORE);
+                    break;
+                case 0b0110: //LDR
+                    this.beginRegisterWrite(dr);
+                    this.code.write(ALOAD_2);
+                    this.pushIndexAddress(sr, operand);
+                    this.invoke(INVOKEVIRTUAL, MEMORY, "readFromMemory",
+                            "(S)S");
+                    this.code.write(IASTORE);
+                    break;
+                case 0b1110: //LEA
+                    this.beginRegisterWrite(dr);
+                    this.pushInt(Bits.fullAddress(pc, operand));
+                    this.code.write(IASTORE);
+                    break;
+                case 0b0011: //ST
+                    this.code.write(ALOAD_2);
+                    this.pushInt(Bits.fullAddress(pc, operand));
+                    this.loadRegister(dr);
+                    this.invoke(INVOKEVIRTUAL, MEMORY, "writeToMemory",
+                            "(SS)V");
+                    break;
+                case 0b0111: //STR
+                    this.code.write(ALOAD_2);
+                    this.pushIndexAddress(sr, operand);
+                    this.loadRegister(dr);
+                    this.invoke(INVOKEVIRTUAL, MEMORY, "writeToMemory",
+                            "(SS)V");
+                    break;
+                case 0b1011: //STI
+                    this.code.write(ALOAD_2);
+                    this.code.write(ALOAD_2);
+                    this.pushInt(Bits.fullAddress(pc, operand));
+                    this.invoke(INVOKEVIRTUAL, MEMORY, "readFromMemory",
+                            "(S)S");
+                    this.loadRegister(dr);
+                    this.invoke(INVOKEVIRTUAL, MEMORY, "writeToMemory",
+                            "(SS)V");
+                    break;
+                default:
+                    //Jumps end the block and are emitted after the PC update
+                    break;
+            }
+
+            if (isStraightLine(opcode)) {
+                modifiedMask |= 1 << dr;
+            }
+            //Only the last condition code update of a block can be observed
+            if (i == lastFlagSetter) {
+                this.code.write(ALOAD_1);
+                this.pushInt(MachineState.CC);
+                this.loadRegister(dr);
+                this.code.write(IASTORE);
+            }
+            //Only loads can fault before the end of a block
+            if (faults && i < this.length - 1) {
+                this.code.write(ALOAD_1);
+                this.code.write(ALOAD_2);
+                this.pushInt(dr);
+                this.pushInt(modifiedMask);
+                this.pushInt(i + 1);
+                this.pushInt(instructionFor(entry).ordinal());
+                this.invoke(INVOKESTATIC, "simulator/BlockCompiler",
+                        "stopIfHalted", "([ILsimulator/MainMemory;IIII)V");
+            }
+        }
+
+        //Mark every written register as modified
+        if (modifiedMask != 0) {
+            this.code.write(ALOAD_1);
+            this.pushInt(MachineState.MODIFIED);
+            this.code.write(DUP2);
+            this.code.write(IALOAD);
+            this.pushInt(modifiedMask);
+            this.code.write(IOR);
+            this.code.write(IASTORE);
+        }
+
+        //Fall through to the instruction after the block
+        int next = this.start + this.length;
+        this.code.write(ALOAD_1);
+        this.pushInt(MachineState.PC);
+        this.pushInt(next);
+        this.code.write(IASTORE);
+
+        this.emitJump(address - 1, (short) next);
+        this.code.write(RETURN);
+
+        return this.define();
+    }
+
+    /**
+     * Finds how many instructions make up the block and which of them is the
+     * last to update the condition codes.
+     *
+     * @return The position within the block of the last instruction that
+     *         updates the condition codes, or -1 if none does
+     */
+    private int scan() {
+        int lastFlagSetter = -1;
+        int address = this.start;
+        while (this.length < MAX_BLOCK_LENGTH && address < 0xFFFF
+                && this.mem.contains(address)) {
+            int entry = Decoder.lookup(this.mem.inspectWord(address));
+            int opcode = Decoder.opcode(entry);
+            if (opcode == 0b1111 || opcode == 0b1000) {
+                //TRAP and DBUG are left to the interpreter
+                break;
+            }
+            this.lastInstruction = instructionFor(entry);
+            if (isStraightLine(opcode)) {
+                lastFlagSetter = this.length;
+            }
+            this.length++;
+            address++;
+            if (!isStraightLine(opcode)) {
+                break;
+            }
+        }
+        return lastFlagSetter;
+    }
+
+    /**
+     * Checks whether an instruction can appear in the middle of a basic block.
+     * These are exactly the instructions that write their DR field and update
+     * the condition codes.
+     *
+     * @param opcode
+     *            The opcode of the instruction
+     * @return False for stores, jumps, traps and DBUG, which end a block
+     */
+    static boolean isStraightLine(int opcode) {
+        switch (opcode) {
+            case 0b0001:
+            case 0b0101:
+            case 0b1001:
+            case 0b0010:
+            case 0b1010:
+            case 0b0110:
+            case 0b1110:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks whether an instruction can raise an error, which it can only do
+     * by accessing an address outside of memory. Addresses that only depend
+     * on the program counter are checked now, any other address can fault.
+     *
+     * @param entry
+     *            The packed instruction returned by Decoder.lookup()
+     * @param pc
+     *            The value of the program counter when it executes
+     * @return True if executing the instruction can raise an error
+     */
+    private boolean canFault(int entry, short pc) {
+        switch (Decoder.opcode(entry)) {
+            case 0b0010: //LD
+            case 0b1010: //LDI
+            case 0b0011: //ST
+                return !this.mem.contains(Short.toUnsignedInt(
+                        Bits.fullAddress(pc, Decoder.operand(entry))));
+            case 0b0110: //LDR
+            case 0b0111: //STR
+            case 0b1011: //STI
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets the enum the interpreter would return for an instruction that is
+     * not a trap.
+     *
+     * @param entry
+     *            The packed instruction returned by Decoder.lookup()
+     * @return An enum for the instruction
+     */
+    private static Instructions instructionFor(int entry) {
+        boolean link = (Decoder.dr(entry) & 0b100) != 0;
+        switch (Decoder.opcode(entry)) {
+            case 0b0001:
+                return Instructions.ADD;
+            case 0b0101:
+                return Instructions.AND;
+            case 0b1001:
+                return Instructions.NOT;
+            case 0b0010:
+                return Instructions.LD;
+            case 0b1010:
+                return Instructions.LDI;
+            case 0b0110:
+                return Instructions.LDR;
+            case 0b1110:
+                return Instructions.LEA;
+            case 0b0011:
+                return Instructions.ST;
+            case 0b0111:
+                return Instructions.STR;
+            case 0b1011:
+                return Instructions.STI;
+            case 0b0000:
+                return Instructions.BRX;
+            case 0b0100:
+                return link ? Instructions.JSR : Instructions.JMP;
+            case 0b1100:
+                return link ? Instructions.JSRR : Instructions.JMPR;
+            case 0b1101:
+                return Instructions.RET;
+            default:
+                return Instructions.DBUG;
+        }
+    }
+
+    /**
+     * Emits the jump that ends a block, if its last instruction is one.
+     *
+     * @param address
+     *            The unsigned address of the last instruction of the block
+     * @param pc
+     *            The value of the program counter after the last instruction
+     */
+    private void emitJump(int address, short pc) {
+        int entry = Decoder.lookup(this.mem.inspectWord(address));
+        boolean link = (Decoder.dr(entry) & 0b100) != 0;
+        short operand = Decoder.operand(entry);
+        switch (Decoder.opcode(entry)) {
+            case 0b0000: //BRX
+                if (Decoder.dr(entry) != 0) {
+                    this.code.write(ALOAD_1);
+                    this.pushInt(Decoder.dr(entry));
+                    this.pushInt(Bits.fullAddress(pc, operand));
+                    this.invoke(INVOKESTATIC, "simulator/BlockCompiler",
+                            "branch", "([III)V");
+                }
+                break;
+            case 0b0100: //JSR
+                this.code.write(ALOAD_1);
+                this.pushInt(Bits.fullAddress(pc, operand));
+                this.emitJumpCall(link, pc);
+                break;
+            case 0b1100: //JSRR
+                this.code.write(ALOAD_1);
+                this.pushIndexAddress(Decoder.sr(entry), operand);
+                this.emitJumpCall(link, pc);
+                break;
+            case 0b1101: //RET
+                this.code.write(ALOAD_1);
+                this.loadRegister(7);
+                this.emitJumpCall(false, pc);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Emits the call to jump() or link() once the array and target are on the
+     * operand stack.
+     *
+     * @param link
+     *            Whether R7 should be set to the return address
+     * @param pc
+     *            The return address
+     */
+    private void emitJumpCall(boolean link, short pc) {
+        if (link) {
+            this.pushInt(pc);
+            this.invoke(INVOKESTATIC, "simulator/BlockCompiler", "link",
+                    "([III)V");
+        } else {
+            this.invoke(INVOKESTATIC, "simulator/BlockCompiler", "jump",
+                    "([II)V");
+        }
+    }
+
+    /**
+     * Pushes the array and index for a register store; the value has to be
+     * pushed next, followed by IASTORE.
+     *
+     * @param dr
+     *            The register to write
+     */
+    private void beginRegisterWrite(int dr) {
+        this.code.write(ALOAD_1);
+        this.pushInt(dr);
+    }
+
+    /**
+     * Pushes the value of a register.
+     *
+     * @param index
+     *            The number of the register
+     */
+    private void loadRegister(int index) {
+        this.code.write(ALOAD_1);
+        this.pushInt(index);
+        this.code.write(IALOAD);
+    }
+
+    /**
+     * Pushes a register indexed address.
+     *
+     * @param base
+     *            The base register
+     * @param offset
+     *            The index6 offset
+     */
+    private void pushIndexAddress(int base, short offset) {
+        this.loadRegister(base);
+        this.pushInt(offset);
+        this.invoke(INVOKESTATIC, "simulator/Bits", "indexAddress", "(SS)S");
+    }
+
+    /**
+     * Pushes an int constant using the shortest instruction for it.
+     *
+     * @param value
+     *            The constant to push
+     */
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            this.code.write(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            this.code.write(BIPUSH);
+            this.code.write(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            this.code.write(SIPUSH);
+            this.writeShort(this.code, value);
+        } else {
+            this.code.write(LDC_W);
+            this.writeShort(this.code, this.integerConstant(value));
+        }
+    }
+
+    /**
+     * Emits a method call.
+     *
+     * @param opcode
+     *            The invoke instruction to use
+     * @param owner
+     *            Internal name of the class declaring the method
+     * @param name
+     *            Name of the method
+     * @param descriptor
+     *            Descriptor of the method
+     */
+    private void invoke(int opcode, String owner, String name,
+            String descriptor) {
+        this.code.write(opcode);
+        this.writeShort(this.code,
+                this.methodConstant(owner, name, descriptor));
+    }
+
+    /**
+     * Writes the big-endian value of the lower 16 bits of an int.
+     *
+     * @param out
+     *            Where to write the value
+     * @param value
+     *            The value to write
+     */
+    private void writeShort(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Gets the constant pool index of a UTF8 entry, adding it if needed.
+     *
+     * @param text
+     *            The text of the entry
+     * @return The index of the entry
+     */
+    private int utf8Constant(String text) {
+        Integer index = this.poolIndices.get("U" + text);
+        if (index == null) {
+            index = this.poolCount++;
+            this.pool.write(1);
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            this.writeShort(this.pool, bytes.length);
+            this.pool.write(bytes, 0, bytes.length);
+            this.poolIndices.put("U" + text, index);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the constant pool index of a class entry, adding it if needed.
+     *
+     * @param internalName
+     *            The internal name of the class
+     * @return The index of the entry
+     */
+    private int classConstant(String internalName) {
+        Integer index = this.poolIndices.get("C" + internalName);
+        if (index == null) {
+            int name = this.utf8Constant(internalName);
+            index = this.poolCount++;
+            this.pool.write(7);
+            this.writeShort(this.pool, name);
+            this.poolIndices.put("C" + internalName, index);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the constant pool index of an integer entry, adding it if needed.
+     *
+     * @param value
+     *            The value of the entry
+     * @return The index of the entry
+     */
+    private int integerConstant(int value) {
+        Integer index = this.poolIndices.get("I" + value);
+        if (index == null) {
+            index = this.poolCount++;
+            this.pool.write(3);
+            this.pool.write(value >>> 24);
+            this.pool.write(value >>> 16);
+            this.writeShort(this.pool, value);
+            this.poolIndices.put("I" + value, index);
+        }
+        return index;
+    }
+
+    /**
+     * Gets the constant pool index of a method reference, adding it if
+     * needed.
+     *
+     * @param owner
+     *            Internal name of the class declaring the method
+     * @param name
+     *            Name of the method
+     * @param descriptor
+     *            Descriptor of the method
+     * @return The index of the entry
+     */
+    private int methodConstant(String owner, String name, String descriptor) {
+        String key = "M" + owner + "." + name + descriptor;
+        Integer index = this.poolIndices.get(key);
+        if (index == null) {
+            int ownerIndex = this.classConstant(owner);
+            int nameIndex = this.utf8Constant(name);
+            int descriptorIndex = this.utf8Constant(descriptor);
+            int nameAndType = this.poolCount++;
+            this.pool.write(12);
+            this.writeShort(this.pool, nameIndex);
+            this.writeShort(this.pool, descriptorIndex);
+            index = this.poolCount++;
+            this.pool.write(10);
+            this.writeShort(this.pool, ownerIndex);
+            this.writeShort(this.pool, nameAndType);
+            this.poolIndices.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Assembles the class file around the generated run method and defines
+     * it as a hidden class.
+     *
+     * @return An instance of the hidden class, or null if it could not be
+     *         defined
+     */
+    private CompiledBlock define() {
+        int thisClass = this.classConstant(CLASS_NAME);
+        int superClass = this.classConstant("java/lang/Object");
+        int blockInterface = this.classConstant("simulator/CompiledBlock");
+        int objectInit = this.methodConstant("java/lang/Object", "<init>",
+                "()V");
+        int initName = this.utf8Constant("<init>");
+        int initDescriptor = this.utf8Constant("()V");
+        int runName = this.utf8Constant("run");
+        int runDescriptor = this.utf8Constant(RUN_DESCRIPTOR);
+        int codeName = this.utf8Constant("Code");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            //Java 8 class files only need stack maps for branches
+            out.writeShort(52);
+            out.writeShort(this.poolCount);
+            this.pool.writeTo(out);
+            //ACC_FINAL | ACC_SUPER
+            out.writeShort(0x0030);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(blockInterface);
+            //No fields, two methods
+            out.writeShort(0);
+            out.writeShort(2);
+
+            //public <init>() { super(); }
+            byte[] init = { (byte) ALOAD_0, (byte) INVOKESPECIAL,
+                    (byte) (objectInit >>> 8), (byte) objectInit,
+                    (byte) RETURN };
+            this.writeMethod(out, codeName, initName, initDescriptor, 1, 1,
+                    init);
+
+            //public void run(int[] state, MainMemory mem)
+            this.writeMethod(out, codeName, runName, runDescriptor, 8, 3,
+                    this.code.toByteArray());
+
+            //No class attributes
+            out.writeShort(0);
+        } catch (IOException e) {
+            return null;
+        }
+
+        try {
+            MethodHandles.Lookup hidden = LOOKUP
+                    .defineHiddenClass(bytes.toByteArray(), true);
+            return (CompiledBlock) hidden.lookupClass().getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            //Leave the block to the interpreter
+            return null;
+        }
+    }
+
+    /**
+     * Writes a public method with a Code attribute.
+     *
+     * @param out
+     *            Where to write the method
+     * @param codeName
+     *            Constant pool index of the text "Code"
+     * @param name
+     *            Constant pool index of the method name
+     * @param descriptor
+     *            Constant pool index of the method descriptor
+     * @param maxStack
+     *            The maximum operand stack depth of the code
+     * @param maxLocals
+     *            The number of local variable slots of the code
+     * @param body
+     *            The bytecode of the method
+     * @throws IOException
+     *             If writing fails
+     */
+    private void writeMethod(DataOutputStream out, int codeName, int name,
+            int descriptor, int maxStack, int maxLocals, byte[] body)
+            throws IOException {
+        //ACC_PUBLIC
+        out.writeShort(0x0001);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + body.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(body.length);
+        out.write(body);
+        //No exception table and no attributes
+        out.writeShort(0);
+        out.writeShort(0);
+    }
+
+    //Below are the helpers called by compiled blocks
+
+    /**
+     * Sets the program counter the same way MachineState.setPc() does.
+     *
+     * @param state
+     *            The values array of the machine state
+     * @param target
+     *            The new address, as a sign-extended short
+     */
+    static void jump(int[] state, int target) {
+        if (target >= 0 && target <= 0xFFFF) {
+            state[MachineState.PC] = target;
+        }
+    }
+
+    /**
+     * Jumps when any of the given condition codes is set.
+     *
+     * @param state
+     *            The values array of the machine state
+     * @param nzp
+     *            The n, z and p bits of the BRX instruction
+     * @param target
+     *            The branch address, as a sign-extended short
+     */
+    static void branch(int[] state, int nzp, int target) {
+        if ((MachineState.conditionsFor(state[MachineState.CC]) & nzp) != 0) {
+            jump(state, target);
+        }
+    }
+
+    /**
+     * Stops a block after a load that raised an error asking the machine to
+     * halt, first updating the condition codes and modified registers that
+     * the block only writes at its end.
+     *
+     * @param state
+     *            The values array of the machine state
+     * @param mem
+     *            Object representing memory
+     * @param dr
+     *            The register the load wrote
+     * @param modifiedMask
+     *            The registers written by the block so far
+     * @param executed
+     *            The number of instructions of the block executed so far
+     * @param instruction
+     *            The ordinal of the Instructions enum of the load
+     */
+    static void stopIfHalted(int[] state, MainMemory mem, int dr,
+            int modifiedMask, int executed, int instruction) {
+        if (mem.getErrorSink().isHaltRequested()) {
+            state[MachineState.CC] = state[dr];
+            state[MachineState.MODIFIED] |= modifiedMask;
+            throw new Halted(executed, Instructions.values()[instruction]);
+        }
+    }
+
+    /**
+     * Saves the return address in R7 and jumps.
+     *
+     * @param state
+     *            The values array of the machine state
+     * @param target
+     *            The subroutine address, as a sign-extended short
+     * @param returnAddress
+     *            The address of the instruction after the call
+     */
+    static void link(int[] state, int target, int returnAddress) {
+        state[7] = (short) returnAddress;
+        state[MachineState.MODIFIED] |= 1 << 7;
+        jump(state, target);
+    }
+}
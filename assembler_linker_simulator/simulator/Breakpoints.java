@@ -0,0 +1,251 @@
+package simulator;
+
+/**
+ * Holds the breakpoints and watchpoints of a machine as bitmaps with one bit
+ * per address. Breakpoints are checked by Interpreter.run() before each
+ * instruction is fetched, and watchpoints by the memory the Breakpoints are
+ * given to on every read or write, so a batch stops as soon as one is hit.
+ * Memories and batches without Breakpoints do not check anything.
+ */
+public final class Breakpoints {
+
+    /**
+     * The number of longs needed for one bit per address.
+     */
+    private static final int BITMAP_LENGTH = 0x10000 / Long.SIZE;
+
+    /**
+     * The addresses execution stops before executing.
+     */
+    private final long[] breakpoints = new long[BITMAP_LENGTH];
+
+    /**
+     * The addresses execution stops after reading, including fetching them as
+     * instructions.
+     */
+    private final long[] readWatches = new long[BITMAP_LENGTH];
+
+    /**
+     * The addresses execution stops after writing.
+     */
+    private final long[] writeWatches = new long[BITMAP_LENGTH];
+
+    /**
+     * The address of the breakpoint execution last stopped at, which is
+     * passed over once so that the machine can be resumed, or -1 if there is
+     * none.
+     */
+    private int resumeAddress = -1;
+
+    /**
+     * The address of the last watched access not yet reported by
+     * pollWatchHit(), or -1 if there is none.
+     */
+    private int watchHit = -1;
+
+    /**
+     * Whether the last watched access was a write.
+     */
+    private boolean watchHitWrite;
+
+    /**
+     * Sets a breakpoint, so that execution stops before the instruction at
+     * the address is executed.
+     *
+     * @param address
+     *            The unsigned address of the instruction
+     */
+    public void setBreakpoint(int address) {
+        set(this.breakpoints, address, true);
+    }
+
+    /**
+     * Removes a breakpoint.
+     *
+     * @param address
+     *            The unsigned address of the instruction
+     */
+    public void clearBreakpoint(int address) {
+        set(this.breakpoints, address, false);
+    }
+
+    /**
+     * Sets a watchpoint on reads, so that execution stops after an
+     * instruction reads the address. Fetching the address as an instruction
+     * counts as reading it.
+     *
+     * @param address
+     *            The unsigned address of the watched word
+     */
+    public void watchReads(int address) {
+        set(this.readWatches, address, true);
+    }
+
+    /**
+     * Sets a watchpoint on writes, so that execution stops after an
+     * instruction writes to the address.
+     *
+     * @param address
+     *            The unsigned address of the watched word
+     */
+    public void watchWrites(int address) {
+        set(this.writeWatches, address, true);
+    }
+
+    /**
+     * Removes the read and write watchpoints of an address.
+     *
+     * @param address
+     *            The unsigned address of the watched word
+     */
+    public void clearWatch(int address) {
+        set(this.readWatches, address, false);
+        set(this.writeWatches, address, false);
+    }
+
+    /**
+     * Checks whether there is a breakpoint at an address.
+     *
+     * @param address
+     *            The unsigned address to check
+     * @return True if execution stops before executing the address
+     */
+    public boolean isBreakpoint(int address) {
+        return get(this.breakpoints, address);
+    }
+
+    /**
+     * Checks whether there is a watchpoint on writes at an address.
+     *
+     * @param address
+     *            The unsigned address to check
+     * @return True if execution stops after writing the address
+     */
+    public boolean isWriteWatched(int address) {
+        return get(this.writeWatches, address);
+    }
+
+    /**
+     * Checks whether a breakpoint stops execution at the instruction about to
+     * be fetched. After stopping, the same breakpoint is passed over the next
+     * time it is checked so the machine can carry on from it.
+     *
+     * @param pc
+     *            The unsigned address of the next instruction
+     * @return True if execution should stop before the instruction
+     */
+    boolean breakAt(int pc) {
+        if (!get(this.breakpoints, pc)) {
+            return false;
+        }
+        if (pc == this.resumeAddress) {
+            this.resumeAddress = -1;
+            return false;
+        }
+        this.resumeAddress = pc;
+        return true;
+    }
+
+    /**
+     * Records that the machine was moved to an address other than by
+     * executing up to it, such as by stepping backwards. A breakpoint there
+     * is passed over once like one execution stopped at.
+     *
+     * @param pc
+     *            The unsigned address of the next instruction
+     */
+    void movedTo(int pc) {
+        this.resumeAddress = pc;
+    }
+
+    /**
+     * Records a read of memory, remembering it if the address is watched.
+     *
+     * @param address
+     *            The unsigned address read
+     */
+    void read(int address) {
+        if (get(this.readWatches, address)) {
+            this.watchHit = address;
+            this.watchHitWrite = false;
+        }
+    }
+
+    /**
+     * Records a write to memory, remembering it if the address is watched.
+     *
+     * @param address
+     *            The unsigned address written
+     */
+    void written(int address) {
+        if (get(this.writeWatches, address)) {
+            this.watchHit = address;
+            this.watchHitWrite = true;
+        }
+    }
+
+    /**
+     * Checks whether a watched address has been accessed since the last call
+     * to pollWatchHit().
+     *
+     * @return True if there is a watched access to report
+     */
+    boolean hasWatchHit() {
+        return this.watchHit >= 0;
+    }
+
+    /**
+     * Gets the address of the last watched access since the previous call and
+     * forgets it.
+     *
+     * @return The unsigned address of the watched access, or -1 if no watched
+     *         address has been accessed
+     */
+    int pollWatchHit() {
+        int address = this.watchHit;
+        this.watchHit = -1;
+        return address;
+    }
+
+    /**
+     * Checks whether the last watched access was a write.
+     *
+     * @return True for a write, false for a read
+     */
+    boolean wasWatchHitWrite() {
+        return this.watchHitWrite;
+    }
+
+    /**
+     * Sets or clears the bit of an address.
+     *
+     * @param bitmap
+     *            The bitmap to change
+     * @param address
+     *            The unsigned address of the bit
+     * @param value
+     *            Whether to set the bit
+     */
+    private static void set(long[] bitmap, int address, boolean value) {
+        int word = (address & 0xFFFF) >>> 6;
+        long bit = 1L << address;
+        if (value) {
+            bitmap[word] |= bit;
+        } else {
+            bitmap[word] &= ~bit;
+        }
+    }
+
+    /**
+     * Gets the bit of an address.
+     *
+     * @param bitmap
+     *            The bitmap to read
+     * @param address
+     *            The unsigned address of the bit
+     * @return True if the bit is set
+     */
+    private static boolean get(long[] bitmap, int address) {
+        return (bitmap[(address & 0xFFFF) >>> 6] & (1L << address)) != 0;
+    }
+}
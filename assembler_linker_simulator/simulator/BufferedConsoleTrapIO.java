@@ -0,0 +1,128 @@
+package simulator;
+
+import java.io.PrintStream;
+import java.util.Scanner;
+
+/**
+ * A console that collects the output of trap routines in a buffer and writes
+ * it to its stream in large pieces, so that programs printing a character at
+ * a time are not bound by a call to the stream per trap. The buffer is written
+ * out whenever it fills, before input is read, and when flush() is called.
+ */
+public class BufferedConsoleTrapIO implements TrapIO {
+
+    /**
+     * The number of buffered characters at which the buffer is written out.
+     */
+    private static final int FLUSH_THRESHOLD = 1 << 13;
+
+    /**
+     * The line separator written by println().
+     */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /**
+     * Reads input lines, or null until the first read creates one over
+     * System.in.
+     */
+    private Scanner input;
+
+    /**
+     * The stream the buffer is written to.
+     */
+    private final PrintStream output;
+
+    /**
+     * The output not yet written to the stream.
+     */
+    private final StringBuilder buffer = new StringBuilder(
+            FLUSH_THRESHOLD + 256);
+
+    /**
+     * Creates a console reading from System.in and writing to System.out.
+     */
+    public BufferedConsoleTrapIO() {
+        this(null, System.out);
+    }
+
+    /**
+     * Creates a console reading through an existing scanner and writing to a
+     * stream, such as the simulator's buffered System.out or a file.
+     *
+     * @param input
+     *            The scanner to read input lines from, or null to read from
+     *            System.in
+     * @param output
+     *            The stream to write output to
+     */
+    public BufferedConsoleTrapIO(Scanner input, PrintStream output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    /**
+     * Writes text without ending the line.
+     *
+     * @param text
+     *            The text to write
+     */
+    @Override
+    public void print(String text) {
+        this.buffer.append(text);
+        if (this.buffer.length() >= FLUSH_THRESHOLD) {
+            this.writeBuffer();
+        }
+    }
+
+    /**
+     * Writes text followed by a line separator.
+     *
+     * @param text
+     *            The text to write
+     */
+    @Override
+    public void println(String text) {
+        this.buffer.append(text).append(LINE_SEPARATOR);
+        if (this.buffer.length() >= FLUSH_THRESHOLD) {
+            this.writeBuffer();
+        }
+    }
+
+    /**
+     * Reads the next line of input, after writing out any prompt still in
+     * the buffer.
+     *
+     * @return The line without its line separator, or null if there is no
+     *         more input
+     */
+    @Override
+    public String readLine() {
+        this.flush();
+        if (this.input == null) {
+            this.input = new Scanner(System.in);
+        }
+        if (!this.input.hasNextLine()) {
+            return null;
+        }
+        return this.input.nextLine();
+    }
+
+    /**
+     * Writes the buffer to the stream and flushes the stream.
+     */
+    @Override
+    public void flush() {
+        this.writeBuffer();
+        this.output.flush();
+    }
+
+    /**
+     * Writes the buffer to the stream and empties it.
+     */
+    private void writeBuffer() {
+        if (this.buffer.length() > 0) {
+            this.output.append(this.buffer);
+            this.buffer.setLength(0);
+        }
+    }
+}
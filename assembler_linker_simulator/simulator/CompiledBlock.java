@@ -0,0 +1,21 @@
+package simulator;
+
+/**
+ * A basic block of guest code that has been translated into JVM bytecode by
+ * BlockCompiler.
+ */
+public interface CompiledBlock {
+
+    /**
+     * Executes every instruction of the block, leaving the program counter at
+     * the address of the next instruction to execute. Stops after an
+     * instruction raising an error that asks the machine to halt by throwing
+     * BlockCompiler.Halted.
+     *
+     * @param state
+     *            The values array of the machine state to execute on
+     * @param mem
+     *            Object representing memory
+     */
+    void run(int[] state, MainMemory mem);
+}
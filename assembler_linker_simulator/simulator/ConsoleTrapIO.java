@@ -0,0 +1,76 @@
+package simulator;
+
+import java.util.Scanner;
+
+/**
+ * A TrapIO that prints to System.out and reads from System.in. All reads go
+ * through a single Scanner, which is shared with the rest of the simulator so
+ * that input typed ahead is not lost between scanners.
+ */
+public class ConsoleTrapIO implements TrapIO {
+
+    /**
+     * The scanner reading System.in, created on the first read if none was
+     * given.
+     */
+    private Scanner input;
+
+    /**
+     * Creates a console that opens its own scanner on System.in when it first
+     * reads.
+     */
+    public ConsoleTrapIO() {
+        this.input = null;
+    }
+
+    /**
+     * Creates a console reading through an existing scanner.
+     *
+     * @param input
+     *            Java Scanner object reading System.in
+     */
+    public ConsoleTrapIO(Scanner input) {
+        this.input = input;
+    }
+
+    /**
+     * Writes text without ending the line.
+     *
+     * @param text
+     *            The text to write
+     */
+    @Override
+    public void print(String text) {
+        System.out.print(text);
+    }
+
+    /**
+     * Writes text followed by a line separator.
+     *
+     * @param text
+     *            The text to write
+     */
+    @Override
+    public void println(String text) {
+        System.out.println(text);
+    }
+
+    /**
+     * Reads the next line of input.
+     *
+     * @return The line without its line separator, or null if there is no
+     *         more input
+     */
+    @Override
+    public String readLine() {
+        if (this.input == null) {
+            this.input = new Scanner(System.in);
+        }
+        //Show any prompt still waiting in a buffered System.out
+        System.out.flush();
+        if (!this.input.hasNextLine()) {
+            return null;
+        }
+        return this.input.nextLine();
+    }
+}
@@ -0,0 +1,571 @@
+package simulator;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * The basic blocks of a loaded program and the edges between them, recovered
+ * by following every BRX, JSR and JMP target from the execution address. The
+ * targets of JSRR, JMPR and RET are only known at run time, so their blocks
+ * end in a dynamic edge that is filled in as the program takes them: a
+ * profiler given the graph reports every jump it sees to recordJump(), which
+ * adds the target and explores the code it leads to.
+ *
+ * Blocks end after a branch, jump, subroutine call, return or trap, and
+ * before any address that something branches or jumps to, so they are the
+ * same straight-line runs that TieredExecutor compiles. The graph describes
+ * the code as it was when it was explored, and can be written out in the DOT
+ * language of Graphviz.
+ */
+public final class ControlFlowGraph {
+
+    /**
+     * The kinds of edges between blocks.
+     */
+    public static enum EdgeKind {
+
+        /**
+         * Execution carries on at the next address, after a branch that is
+         * not taken, a subroutine call or trap that returns, or at the start
+         * of the next block.
+         */
+        FALLTHROUGH,
+
+        /**
+         * A BRX instruction is taken.
+         */
+        BRANCH,
+
+        /**
+         * A JMP instruction.
+         */
+        JUMP,
+
+        /**
+         * A JSR instruction calls a subroutine.
+         */
+        CALL,
+
+        /**
+         * A JSRR, JMPR or RET instruction goes to a computed address. The
+         * target is one seen at run time, or unknown if none has been.
+         */
+        DYNAMIC;
+    }
+
+    /**
+     * An edge from the end of a block to the address execution carries on at.
+     */
+    public static final class Edge {
+
+        /**
+         * How execution gets to the target.
+         */
+        private final EdgeKind kind;
+
+        /**
+         * The unsigned target address, or -1 if it is unknown.
+         */
+        private final int target;
+
+        /**
+         * Creates an edge.
+         *
+         * @param kind
+         *            How execution gets to the target
+         * @param target
+         *            The unsigned target address, or -1 if it is unknown
+         */
+        Edge(EdgeKind kind, int target) {
+            this.kind = kind;
+            this.target = target;
+        }
+
+        /**
+         * Gets how execution gets to the target.
+         *
+         * @return The kind of the edge
+         */
+        public EdgeKind getKind() {
+            return this.kind;
+        }
+
+        /**
+         * Gets the address execution carries on at.
+         *
+         * @return The unsigned target address, or -1 for a dynamic edge whose
+         *         target has not been seen
+         */
+        public int getTarget() {
+            return this.target;
+        }
+    }
+
+    /**
+     * A run of instructions that is only entered at its first address and
+     * only left after its last.
+     */
+    public static final class Block {
+
+        /**
+         * The unsigned address of the first instruction.
+         */
+        private final int start;
+
+        /**
+         * The unsigned address of the last instruction.
+         */
+        private final int end;
+
+        /**
+         * The edges to the blocks that can execute next.
+         */
+        private final List<Edge> successors;
+
+        /**
+         * Creates a block.
+         *
+         * @param start
+         *            The unsigned address of the first instruction
+         * @param end
+         *            The unsigned address of the last instruction
+         * @param successors
+         *            The edges to the blocks that can execute next
+         */
+        Block(int start, int end, List<Edge> successors) {
+            this.start = start;
+            this.end = end;
+            this.successors = Collections.unmodifiableList(successors);
+        }
+
+        /**
+         * Gets the address of the first instruction.
+         *
+         * @return The unsigned address the block is entered at
+         */
+        public int getStart() {
+            return this.start;
+        }
+
+        /**
+         * Gets the address of the last instruction.
+         *
+         * @return The unsigned address the block is left after
+         */
+        public int getEnd() {
+            return this.end;
+        }
+
+        /**
+         * Gets the number of instructions in the block.
+         *
+         * @return The number of words from the start to the end
+         */
+        public int getLength() {
+            return this.end - this.start + 1;
+        }
+
+        /**
+         * Gets the edges to the blocks that can execute next.
+         *
+         * @return The edges, empty if the block ends with HALT or runs off
+         *         the end of the code
+         */
+        public List<Edge> getSuccessors() {
+            return this.successors;
+        }
+    }
+
+    /**
+     * The highest address plus one.
+     */
+    private static final int ADDRESS_COUNT = 0x10000;
+
+    /**
+     * The vector of the HALT trap.
+     */
+    private static final int HALT_VECTOR = 0x25;
+
+    /**
+     * The memory the program is loaded into.
+     */
+    private final MainMemory mem;
+
+    /**
+     * The addresses execution was started from.
+     */
+    private final TreeSet<Integer> entries = new TreeSet<>();
+
+    /**
+     * The addresses found to hold instructions.
+     */
+    private final BitSet code = new BitSet(ADDRESS_COUNT);
+
+    /**
+     * The addresses something branches, jumps or falls through to after the
+     * end of a block, where a block has to start.
+     */
+    private final BitSet leaders = new BitSet(ADDRESS_COUNT);
+
+    /**
+     * The words of the instructions found, indexed by address.
+     */
+    private final short[] words = new short[ADDRESS_COUNT];
+
+    /**
+     * The addresses of the JSRR, JMPR and RET instructions found.
+     */
+    private final BitSet dynamicSites = new BitSet(ADDRESS_COUNT);
+
+    /**
+     * The targets seen at run time for each dynamic site.
+     */
+    private final Map<Integer, TreeSet<Integer>> dynamicTargets =
+            new HashMap<>();
+
+    /**
+     * The blocks in address order, or null if they have to be worked out
+     * again because more code was found.
+     */
+    private List<Block> blocks;
+
+    /**
+     * Recovers the graph of a loaded program from its execution address.
+     *
+     * @param mem
+     *            The memory the program is loaded into
+     * @param entryAddress
+     *            The unsigned address execution starts at
+     */
+    public ControlFlowGraph(MainMemory mem, int entryAddress) {
+        this.mem = mem;
+        this.addEntry(entryAddress);
+    }
+
+    /**
+     * Adds another address execution starts at, such as the program counter
+     * of a restored snapshot, and explores the code it leads to.
+     *
+     * @param address
+     *            The unsigned address execution starts at
+     */
+    public void addEntry(int address) {
+        this.entries.add(address & 0xFFFF);
+        this.explore(address & 0xFFFF);
+    }
+
+    /**
+     * Records where an instruction went at run time. Targets of JSRR, JMPR
+     * and RET are added to the dynamic edges of their block and the code they
+     * lead to is explored, every other instruction is already in the graph and
+     * is ignored.
+     *
+     * @param from
+     *            The unsigned address of the instruction that jumped
+     * @param to
+     *            The unsigned address it jumped to
+     */
+    public void recordJump(int from, int to) {
+        if (!this.dynamicSites.get(from)) {
+            return;
+        }
+        TreeSet<Integer> targets = this.dynamicTargets.computeIfAbsent(from,
+                site -> new TreeSet<>());
+        if (targets.add(to)) {
+            this.explore(to);
+        }
+    }
+
+    /**
+     * Gets the basic blocks found so far.
+     *
+     * @return The blocks in address order
+     */
+    public List<Block> getBlocks() {
+        if (this.blocks == null) {
+            this.blocks = this.findBlocks();
+        }
+        return this.blocks;
+    }
+
+    /**
+     * Gets the basic block holding an address.
+     *
+     * @param address
+     *            The unsigned address of an instruction
+     * @return The block, or null if no instruction was found at the address
+     */
+    public Block getBlock(int address) {
+        List<Block> found = this.getBlocks();
+        int low = 0;
+        int high = found.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            Block block = found.get(middle);
+            if (address < block.start) {
+                high = middle - 1;
+            } else if (address > block.end) {
+                low = middle + 1;
+            } else {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Checks whether an address was found to hold an instruction.
+     *
+     * @param address
+     *            The unsigned address
+     * @return True if execution can reach the address
+     */
+    public boolean isCode(int address) {
+        return address >= 0 && address < ADDRESS_COUNT
+                && this.code.get(address);
+    }
+
+    /**
+     * Writes the graph in the DOT language, one node per block labelled with
+     * its addresses and one edge per successor labelled with its kind.
+     * Dynamic edges are dashed, and lead to a node marked "?" while no target
+     * has been seen.
+     *
+     * @param out
+     *            Where to write the graph
+     * @param name
+     *            The name of the graph, such as the segment name of the
+     *            program
+     */
+    public void writeDot(PrintWriter out, String name) {
+        out.println("digraph \"" + name.strip().replace("\"", "\\\"")
+                + "\" {");
+        out.println("    node [shape=box, fontname=\"monospace\"];");
+        for (int entry : this.entries) {
+            out.println(String.format(
+                    "    \"entry x%04X\" [shape=point];", entry));
+            out.println(String.format("    \"entry x%04X\" -> \"x%04X\";",
+                    entry, entry));
+        }
+        for (Block block : this.getBlocks()) {
+            out.println(String.format(
+                    "    \"x%04X\" [label=\"x%04X-x%04X\\n%d instruction%s\"];",
+                    block.start, block.start, block.end, block.getLength(),
+                    block.getLength() == 1 ? "" : "s"));
+            for (Edge edge : block.successors) {
+                String style = edge.kind == EdgeKind.DYNAMIC
+                        ? ", style=dashed"
+                        : "";
+                if (edge.target < 0) {
+                    out.println(String.format(
+                            "    \"? x%04X\" [shape=plaintext, label=\"?\"];",
+                            block.end));
+                    out.println(String.format(
+                            "    \"x%04X\" -> \"? x%04X\" [label=\"%s\"%s];",
+                            block.start, block.end, label(edge.kind), style));
+                } else {
+                    out.println(String.format(
+                            "    \"x%04X\" -> \"x%04X\" [label=\"%s\"%s];",
+                            block.start, edge.target, label(edge.kind),
+                            style));
+                }
+            }
+        }
+        out.println("}");
+        out.flush();
+    }
+
+    /**
+     * Names an edge kind as it is printed on DOT edges.
+     *
+     * @param kind
+     *            The kind of edge
+     * @return The name in lower case
+     */
+    private static String label(EdgeKind kind) {
+        return kind.name().toLowerCase();
+    }
+
+    /**
+     * Walks the code reachable from an address, following every target that
+     * is known without running the program, and marks where blocks start.
+     *
+     * @param start
+     *            The unsigned address to walk from
+     */
+    private void explore(int start) {
+        Deque<Integer> work = new ArrayDeque<>();
+        this.leaders.set(start);
+        work.push(start);
+        while (!work.isEmpty()) {
+            int address = work.pop();
+            while (this.mem.contains(address) && !this.code.get(address)) {
+                this.code.set(address);
+                short word = this.mem.inspectWord(address);
+                this.words[address] = word;
+                int entry = Decoder.lookup(word);
+                if (address == 0xFFFF) {
+                    //The program counter is not incremented past 0xFFFF
+                    break;
+                }
+                int next = address + 1;
+                int target = Short.toUnsignedInt(Bits.fullAddress(
+                        (short) next, Decoder.operand(entry)));
+                boolean fallsThrough = true;
+
+                switch (Decoder.opcode(entry)) {
+                    case 0b0000: //BRX
+                        if (Decoder.dr(entry) != 0) {
+                            this.leaders.set(target);
+                            work.push(target);
+                            fallsThrough = Decoder.dr(entry) != 0b111;
+                        }
+                        break;
+                    case 0b0100: //JSR and JMP
+                        this.leaders.set(target);
+                        work.push(target);
+                        fallsThrough = (Decoder.dr(entry) & 0b100) != 0;
+                        break;
+                    case 0b1100: //JSRR and JMPR
+                        this.dynamicSites.set(address);
+                        fallsThrough = (Decoder.dr(entry) & 0b100) != 0;
+                        break;
+                    case 0b1101: //RET
+                        this.dynamicSites.set(address);
+                        fallsThrough = false;
+                        break;
+                    case 0b1111: //TRAP
+                        fallsThrough = Decoder.operand(entry) != HALT_VECTOR;
+                        break;
+                    default:
+                        break;
+                }
+                if (!fallsThrough) {
+                    break;
+                }
+                address = next;
+            }
+        }
+        this.blocks = null;
+    }
+
+    /**
+     * Checks whether an instruction ends its block.
+     *
+     * @param entry
+     *            The packed instruction returned by Decoder.lookup()
+     * @return True for branches, jumps, subroutine calls, returns and traps
+     */
+    private static boolean endsBlock(int entry) {
+        switch (Decoder.opcode(entry)) {
+            case 0b0000: //BRX
+                return Decoder.dr(entry) != 0;
+            case 0b0100: //JSR and JMP
+            case 0b1100: //JSRR and JMPR
+            case 0b1101: //RET
+            case 0b1111: //TRAP
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Splits the code found into blocks.
+     *
+     * @return The blocks in address order
+     */
+    private List<Block> findBlocks() {
+        List<Block> found = new ArrayList<>();
+        int start = this.code.nextSetBit(0);
+        while (start >= 0) {
+            int end = start;
+            while (end < 0xFFFF
+                    && !endsBlock(Decoder.lookup(this.words[end]))
+                    && this.code.get(end + 1) && !this.leaders.get(end + 1)) {
+                end++;
+            }
+            found.add(new Block(start, end, this.successors(end)));
+            start = end < 0xFFFF ? this.code.nextSetBit(end + 1) : -1;
+        }
+        return Collections.unmodifiableList(found);
+    }
+
+    /**
+     * Works out the edges leaving a block from its last instruction.
+     *
+     * @param end
+     *            The unsigned address of the last instruction of the block
+     * @return The edges to the blocks that can execute next
+     */
+    private List<Edge> successors(int end) {
+        List<Edge> edges = new ArrayList<>();
+        int entry = Decoder.lookup(this.words[end]);
+        int next = end + 1;
+        int target = Short.toUnsignedInt(
+                Bits.fullAddress((short) next, Decoder.operand(entry)));
+        boolean fallsThrough = true;
+
+        switch (Decoder.opcode(entry)) {
+            case 0b0000: //BRX
+                if (Decoder.dr(entry) != 0) {
+                    edges.add(new Edge(EdgeKind.BRANCH, target));
+                    fallsThrough = Decoder.dr(entry) != 0b111;
+                }
+                break;
+            case 0b0100: //JSR and JMP
+                if ((Decoder.dr(entry) & 0b100) != 0) {
+                    edges.add(new Edge(EdgeKind.CALL, target));
+                } else {
+                    edges.add(new Edge(EdgeKind.JUMP, target));
+                    fallsThrough = false;
+                }
+                break;
+            case 0b1100: //JSRR and JMPR
+                this.addDynamicEdges(end, edges);
+                fallsThrough = (Decoder.dr(entry) & 0b100) != 0;
+                break;
+            case 0b1101: //RET
+                this.addDynamicEdges(end, edges);
+                fallsThrough = false;
+                break;
+            case 0b1111: //TRAP
+                fallsThrough = Decoder.operand(entry) != HALT_VECTOR;
+                break;
+            default:
+                break;
+        }
+        if (fallsThrough && end < 0xFFFF && this.code.get(next)) {
+            edges.add(new Edge(EdgeKind.FALLTHROUGH, next));
+        }
+        return edges;
+    }
+
+    /**
+     * Adds an edge for every target seen for a dynamic site, or one edge to
+     * an unknown target if none has been seen.
+     *
+     * @param site
+     *            The unsigned address of the JSRR, JMPR or RET instruction
+     * @param edges
+     *            The edges of its block
+     */
+    private void addDynamicEdges(int site, List<Edge> edges) {
+        TreeSet<Integer> targets = this.dynamicTargets.get(site);
+        if (targets == null) {
+            edges.add(new Edge(EdgeKind.DYNAMIC, -1));
+            return;
+        }
+        for (int target : targets) {
+            edges.add(new Edge(EdgeKind.DYNAMIC, target));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package simulator;
+
+/**
+ * Decodes instruction words using a table built once for all 65,536 possible
+ * 16-bit words. Each table entry packs the fields of its word so that decoding
+ * an instruction is a single array load followed by shifts and masks.
+ */
+public final class Decoder {
+
+    /**
+     * The number of distinct 16-bit instruction words.
+     */
+    private static final int WORD_COUNT = 65536;
+
+    /**
+     * Position of the opcode inside a packed entry.
+     */
+    private static final int OPCODE_SHIFT = 28;
+
+    /**
+     * Position of bits 9-11 of the word inside a packed entry.
+     */
+    private static final int DR_SHIFT = 24;
+
+    /**
+     * Position of bits 6-8 of the word inside a packed entry.
+     */
+    private static final int SR_SHIFT = 20;
+
+    /**
+     * Position of bit 5 of the word inside a packed entry.
+     */
+    private static final int FLAG_SHIFT = 16;
+
+    /**
+     * Mask for the 3 bit register fields.
+     */
+    private static final int REGISTER_MASK = 0b111;
+
+    /**
+     * Mask for the low 16 bits of an entry holding the operand.
+     */
+    private static final int OPERAND_MASK = 0xFFFF;
+
+    /**
+     * Packed entry for every instruction word, indexed by the unsigned value of
+     * the word. Bits 28-31 hold the opcode, bits 24-26 hold bits 9-11 of the
+     * word, bits 20-22 hold bits 6-8 of the word, bit 16 holds bit 5 of the
+     * word, and bits 0-15 hold the operand described by operand().
+     */
+    private static final int[] TABLE = new int[WORD_COUNT];
+
+    //Build the table once when the class is first used
+    static {
+        for (int word = 0; word < WORD_COUNT; word++) {
+            TABLE[word] = pack(word);
+        }
+    }
+
+    /**
+     * Not meant to be instantiated.
+     */
+    private Decoder() {
+    }
+
+    /**
+     * Builds the packed entry for a single instruction word.
+     *
+     * @param word
+     *            The instruction word as an unsigned value
+     * @return The packed entry for the word
+     */
+    private static int pack(int word) {
+        int opcode = word >>> 12;
+        int dr = (word >>> 9) & REGISTER_MASK;
+        int sr = (word >>> 6) & REGISTER_MASK;
+        int flag = (word >>> 5) & 1;
+        int operand;
+        switch (opcode) {
+            case 0b0001:
+            case 0b0101:
+                if (flag == 1) {
+                    //imm5, sign extended to 16 bits
+                    operand = ((word << 27) >> 27) & OPERAND_MASK;
+                } else {
+                    //Second source register
+                    operand = word & REGISTER_MASK;
+                }
+                break;
+            case 0b0110:
+            case 0b0111:
+            case 0b1100:
+                //index6
+                operand = word & 0b111111;
+                break;
+            case 0b1111:
+                //Trap vector
+                operand = word & 0xFF;
+                break;
+            default:
+                //pgoffset9
+                operand = word & 0x1FF;
+                break;
+        }
+        return (opcode << OPCODE_SHIFT) | (dr << DR_SHIFT) | (sr << SR_SHIFT)
+                | (flag << FLAG_SHIFT) | operand;
+    }
+
+    /**
+     * Looks up the packed entry for an instruction word.
+     *
+     * @param word
+     *            The instruction word to decode
+     * @return The packed entry whose fields are read with the other methods of
+     *         this class
+     */
+    public static int lookup(short word) {
+        return TABLE[word & OPERAND_MASK];
+    }
+
+    /**
+     * Gets the opcode of a decoded instruction.
+     *
+     * @param entry
+     *            A packed entry returned by lookup()
+     * @return Bits 12-15 of the instruction
+     */
+    public static int opcode(int entry) {
+        return entry >>> OPCODE_SHIFT;
+    }
+
+    /**
+     * Gets bits 9-11 of a decoded instruction. This is the DR or SR for most
+     * instructions, the N/Z/P bits for BRX, and holds the link bit of JSR and
+     * JSRR in its highest bit.
+     *
+     * @param entry
+     *            A packed entry returned by lookup()
+     * @return Bits 9-11 of the instruction
+     */
+    public static int dr(int entry) {
+        return (entry >>> DR_SHIFT) & REGISTER_MASK;
+    }
+
+    /**
+     * Gets bits 6-8 of a decoded instruction. This is the first source or base
+     * register for the instructions that have one.
+     *
+     * @param entry
+     *            A packed entry returned by lookup()
+     * @return Bits 6-8 of the instruction
+     */
+    public static int sr(int entry) {
+        return (entry >>> SR_SHIFT) & REGISTER_MASK;
+    }
+
+    /**
+     * Gets bit 5 of a decoded instruction, which selects immediate mode for
+     * ADD and AND.
+     *
+     * @param entry
+     *            A packed entry returned by lookup()
+     * @return Bit 5 of the instruction
+     */
+    public static int flag(int entry) {
+        return (entry >>> FLAG_SHIFT) & 1;
+    }
+
+    /**
+     * Gets the operand of a decoded instruction. For ADD and AND this is the
+     * sign-extended imm5 in immediate mode and the second source register
+     * otherwise. For LDR, STR and JSRR it is index6, for TRAP it is the trap
+     * vector, and for every other instruction it is pgoffset9.
+     *
+     * @param entry
+     *            A packed entry returned by lookup()
+     * @return The operand of the instruction
+     */
+    public static short operand(int entry) {
+        return (short) entry;
+    }
+}
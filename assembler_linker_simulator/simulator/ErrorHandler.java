@@ -88,7 +88,7 @@ public class ErrorHandler {
      * @param err_type
      *            The error type
      */
-    private static void printError(PrintWriter outputStream,
+    static void printError(PrintWriter outputStream,
             ERROR_TYPE err_type) {
 
         switch (err_type) {
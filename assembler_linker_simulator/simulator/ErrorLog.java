@@ -0,0 +1,350 @@
+package simulator;
+
+import java.io.PrintWriter;
+
+import simulator.ErrorHandler.ERROR_TYPE;
+
+/**
+ * Keeps account of the errors raised by one machine in constant memory. Every
+ * error is counted by type, and the first and the last few occurrences are
+ * kept along with the program counter and memory address they were raised at.
+ * Occurrences in between are only counted. The log can also ask the machine to
+ * stop once an error type has been raised a given number of times.
+ */
+public class ErrorLog implements ErrorSink {
+
+    /**
+     * The address recorded for errors that are not about a memory access.
+     */
+    public static final int NO_ADDRESS = -1;
+
+    /**
+     * The default number of first and of last occurrences kept.
+     */
+    public static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Every error type, indexed by ordinal.
+     */
+    private static final ERROR_TYPE[] TYPES = ERROR_TYPE.values();
+
+    /**
+     * The machine the errors are raised on.
+     */
+    private final MachineState state;
+
+    /**
+     * The number of first and of last occurrences kept.
+     */
+    private final int capacity;
+
+    /**
+     * The number of errors of each type, indexed by ordinal.
+     */
+    private final long[] counts = new long[TYPES.length];
+
+    /**
+     * The number of errors of each type that stops the machine, or 0 if the
+     * type never stops it.
+     */
+    private final long[] haltThresholds = new long[TYPES.length];
+
+    /**
+     * The ordinal, program counter and address of the first occurrences,
+     * indexed by occurrence number.
+     */
+    private final int[] firstTypes, firstPcs, firstAddresses;
+
+    /**
+     * The ordinal, program counter and address of the last occurrences,
+     * indexed by occurrence number modulo capacity.
+     */
+    private final int[] lastTypes, lastPcs, lastAddresses;
+
+    /**
+     * The number of errors raised.
+     */
+    private long total = 0;
+
+    /**
+     * The number of errors already printed by invokeNewErrors().
+     */
+    private long reported = 0;
+
+    /**
+     * Whether a halt threshold has been reached.
+     */
+    private boolean haltRequested = false;
+
+    /**
+     * Creates a log keeping the first and last DEFAULT_CAPACITY occurrences.
+     *
+     * @param state
+     *            The machine the errors are raised on
+     */
+    public ErrorLog(MachineState state) {
+        this(state, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a log keeping a given number of first and last occurrences.
+     *
+     * @param state
+     *            The machine the errors are raised on
+     * @param capacity
+     *            The number of first and of last occurrences to keep, at
+     *            least 1
+     */
+    public ErrorLog(MachineState state, int capacity) {
+        this.state = state;
+        this.capacity = capacity;
+        this.firstTypes = new int[capacity];
+        this.firstPcs = new int[capacity];
+        this.firstAddresses = new int[capacity];
+        this.lastTypes = new int[capacity];
+        this.lastPcs = new int[capacity];
+        this.lastAddresses = new int[capacity];
+    }
+
+    /**
+     * Records an error that is not about a memory access.
+     *
+     * @param err_type
+     *            The type of the error
+     */
+    @Override
+    public void queueError(ERROR_TYPE err_type) {
+        this.queueError(err_type, NO_ADDRESS);
+    }
+
+    /**
+     * Records an error, counting it and keeping it if it is one of the first
+     * or last occurrences. The program counter recorded is the one of the
+     * machine when the error is raised, which is already past the instruction
+     * raising it.
+     *
+     * @param err_type
+     *            The type of the error
+     * @param address
+     *            The unsigned address accessed, or NO_ADDRESS
+     */
+    @Override
+    public void queueError(ERROR_TYPE err_type, int address) {
+        int type = err_type.ordinal();
+        int pc = this.state.values[MachineState.PC];
+        if (this.total < this.capacity) {
+            int i = (int) this.total;
+            this.firstTypes[i] = type;
+            this.firstPcs[i] = pc;
+            this.firstAddresses[i] = address;
+        }
+        int i = (int) (this.total % this.capacity);
+        this.lastTypes[i] = type;
+        this.lastPcs[i] = pc;
+        this.lastAddresses[i] = address;
+        this.total++;
+
+        long count = ++this.counts[type];
+        if (count == this.haltThresholds[type]) {
+            this.haltRequested = true;
+        }
+    }
+
+    /**
+     * Checks whether an error has reached its halt threshold.
+     *
+     * @return True if the machine should stop
+     */
+    @Override
+    public boolean isHaltRequested() {
+        return this.haltRequested;
+    }
+
+    /**
+     * Lets the machine continue after a halt threshold has been reached. The
+     * threshold is not reached again unless it is set again.
+     */
+    public void clearHaltRequest() {
+        this.haltRequested = false;
+    }
+
+    /**
+     * Sets how many errors of a type stop the machine. Errors already raised
+     * count towards the threshold.
+     *
+     * @param err_type
+     *            The type of the error
+     * @param threshold
+     *            The number of errors that stops the machine, or 0 to never
+     *            stop it
+     */
+    public void setHaltThreshold(ERROR_TYPE err_type, long threshold) {
+        int type = err_type.ordinal();
+        this.haltThresholds[type] = threshold;
+        if (threshold > 0 && this.counts[type] >= threshold) {
+            this.haltRequested = true;
+        }
+    }
+
+    /**
+     * Stops the machine on the first error of any type.
+     */
+    public void haltOnAnyError() {
+        for (ERROR_TYPE type : TYPES) {
+            this.setHaltThreshold(type, 1);
+        }
+    }
+
+    /**
+     * Gets the number of first and of last occurrences kept.
+     *
+     * @return The capacity of the log
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Gets the number of errors raised of a type.
+     *
+     * @param err_type
+     *            The type of the error
+     * @return The number of errors of that type
+     */
+    public long getCount(ERROR_TYPE err_type) {
+        return this.counts[err_type.ordinal()];
+    }
+
+    /**
+     * Gets the number of errors raised of every type.
+     *
+     * @return The total number of errors
+     */
+    public long getTotal() {
+        return this.total;
+    }
+
+    /**
+     * Checks whether an occurrence is still kept.
+     *
+     * @param occurrence
+     *            The number of the occurrence, counting from 0
+     * @return True if it is one of the first or last occurrences
+     */
+    public boolean isKept(long occurrence) {
+        return occurrence >= 0 && occurrence < this.total
+                && (occurrence < this.capacity
+                        || occurrence >= this.total - this.capacity);
+    }
+
+    /**
+     * Gets the type of a kept occurrence.
+     *
+     * @param occurrence
+     *            The number of the occurrence, for which isKept() is true
+     * @return The type of the error
+     */
+    public ERROR_TYPE getType(long occurrence) {
+        return TYPES[occurrence < this.capacity
+                ? this.firstTypes[(int) occurrence]
+                : this.lastTypes[(int) (occurrence % this.capacity)]];
+    }
+
+    /**
+     * Gets the program counter of a kept occurrence.
+     *
+     * @param occurrence
+     *            The number of the occurrence, for which isKept() is true
+     * @return The unsigned program counter when the error was raised
+     */
+    public int getPc(long occurrence) {
+        return occurrence < this.capacity ? this.firstPcs[(int) occurrence]
+                : this.lastPcs[(int) (occurrence % this.capacity)];
+    }
+
+    /**
+     * Gets the memory address of a kept occurrence.
+     *
+     * @param occurrence
+     *            The number of the occurrence, for which isKept() is true
+     * @return The unsigned address accessed, or NO_ADDRESS
+     */
+    public int getAddress(long occurrence) {
+        return occurrence < this.capacity
+                ? this.firstAddresses[(int) occurrence]
+                : this.lastAddresses[(int) (occurrence % this.capacity)];
+    }
+
+    /**
+     * Checks whether errors have been raised since the last call to
+     * invokeNewErrors().
+     *
+     * @return True if there are errors left to print
+     */
+    public boolean hasNewErrors() {
+        return this.reported < this.total;
+    }
+
+    /**
+     * Prints an error message for every kept error raised since the last
+     * call, followed by a count of the errors that were no longer kept.
+     *
+     * @param outputStream
+     *            The output stream the error messages are printed to
+     */
+    public void invokeNewErrors(PrintWriter outputStream) {
+        long skipped = 0;
+        for (long i = this.reported; i < this.total; i++) {
+            if (this.isKept(i)) {
+                if (skipped > 0) {
+                    outputStream.println("Error: " + skipped
+                            + " more errors were counted but not kept");
+                    skipped = 0;
+                }
+                ErrorHandler.printError(outputStream, this.getType(i));
+            } else {
+                //Jump to the first of the last occurrences
+                skipped = this.total - this.capacity - i;
+                i = this.total - this.capacity - 1;
+            }
+        }
+        this.reported = this.total;
+    }
+
+    /**
+     * Prints the number of errors of each type raised, and where the first
+     * and last kept occurrence of the log was raised.
+     *
+     * @param outputStream
+     *            The output stream the summary is printed to
+     */
+    public void printSummary(PrintWriter outputStream) {
+        for (ERROR_TYPE type : TYPES) {
+            if (this.counts[type.ordinal()] > 0) {
+                outputStream.println(
+                        type + ": " + this.counts[type.ordinal()]);
+            }
+        }
+        if (this.total > 0) {
+            outputStream.println("First: " + this.describe(0));
+            outputStream.println("Last: " + this.describe(this.total - 1));
+        }
+    }
+
+    /**
+     * Describes a kept occurrence.
+     *
+     * @param occurrence
+     *            The number of the occurrence, for which isKept() is true
+     * @return The type, program counter and address of the occurrence
+     */
+    private String describe(long occurrence) {
+        String description = String.format("%s at PC x%04X",
+                this.getType(occurrence), this.getPc(occurrence));
+        int address = this.getAddress(occurrence);
+        if (address != NO_ADDRESS) {
+            description += String.format(", address x%04X", address);
+        }
+        return description;
+    }
+}
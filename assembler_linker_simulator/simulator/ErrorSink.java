@@ -0,0 +1,43 @@
+package simulator;
+
+import simulator.ErrorHandler.ERROR_TYPE;
+
+/**
+ * Receives the errors raised while a machine executes. The default sink of a
+ * MainMemory is the static ErrorHandler queue, but each machine can be given
+ * its own sink so that several machines can run in the same virtual machine
+ * without mixing their errors.
+ */
+@FunctionalInterface
+public interface ErrorSink {
+
+    /**
+     * Records an error.
+     *
+     * @param err_type
+     *            The type of the error
+     */
+    void queueError(ERROR_TYPE err_type);
+
+    /**
+     * Records an error raised by accessing memory. Sinks that do not keep
+     * addresses record it like any other error.
+     *
+     * @param err_type
+     *            The type of the error
+     * @param address
+     *            The unsigned address that was accessed
+     */
+    default void queueError(ERROR_TYPE err_type, int address) {
+        this.queueError(err_type);
+    }
+
+    /**
+     * Checks whether the errors recorded so far should stop the machine.
+     *
+     * @return True if the machine should stop, false by default
+     */
+    default boolean isHaltRequested() {
+        return false;
+    }
+}
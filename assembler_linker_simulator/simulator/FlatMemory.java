@@ -0,0 +1,280 @@
+package simulator;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * A MainMemory backed by one array covering the whole 64K address space, so
+ * that an address is its own index and reads and writes need no translation
+ * from the initial load address. The loaded segment is kept in a protection
+ * bitmap with one bit per address: while it is on, accessing an address
+ * outside of the segment is an invalid memory access exactly as in
+ * MainMemory, and turning it off lets programs use the whole address space
+ * without any check at all.
+ */
+public class FlatMemory extends MainMemory {
+
+    /**
+     * The highest address plus one.
+     */
+    private static final int ADDRESS_COUNT = 0x10000;
+
+    /**
+     * The number of longs needed for one bit per address.
+     */
+    private static final int BITMAP_LENGTH = ADDRESS_COUNT / Long.SIZE;
+
+    /**
+     * The number of words in a page returned by getPage().
+     */
+    private static final int PAGE_SIZE = 512;
+
+    /**
+     * The words of the address space, indexed by address.
+     */
+    private final short[] space = new short[ADDRESS_COUNT];
+
+    /**
+     * One bit per address of the segment, or null if every address can be
+     * accessed.
+     */
+    private long[] segment;
+
+    /**
+     * The number of words in the segment.
+     */
+    private int length;
+
+    /**
+     * Constructs a protected FlatMemory object with initial load address of 0
+     * and a segment length of 10, like MainMemory().
+     */
+    public FlatMemory() {
+        this(true);
+    }
+
+    /**
+     * Constructs a FlatMemory object with initial load address of 0 and a
+     * segment length of 10.
+     *
+     * @param protect
+     *            True to report accesses outside of the segment as invalid
+     *            memory accesses, false to allow the whole address space
+     */
+    public FlatMemory(boolean protect) {
+        super(null, (short) 0);
+        this.length = 10;
+        this.segment = protect ? new long[BITMAP_LENGTH] : null;
+        this.clearSegment();
+    }
+
+    /**
+     * Checks whether accesses outside of the segment are reported.
+     *
+     * @return True if only the segment can be accessed
+     */
+    public boolean isProtected() {
+        return this.segment != null;
+    }
+
+    /**
+     * Sets whether accesses outside of the segment are reported. Without
+     * protection every address can be read and written.
+     *
+     * @param protect
+     *            True to report accesses outside of the segment as invalid
+     *            memory accesses, false to allow the whole address space
+     */
+    public void setProtected(boolean protect) {
+        if (protect && this.segment == null) {
+            this.segment = new long[BITMAP_LENGTH];
+            this.mapSegment();
+        } else if (!protect) {
+            this.segment = null;
+        }
+    }
+
+    /**
+     * Sets the initial address for loading from memory and clears the
+     * address space.
+     *
+     * @param initialAddress
+     *            The initial address of the main memory. Note that any valid
+     *            short, including a "negative" number is appropriate here
+     */
+    @Override
+    public void setInitialLoadAddress(short initialAddress) {
+        this.initialAddress = initialAddress;
+        this.clearSegment();
+    }
+
+    /**
+     * Sets the segment length of main memory and clears the address space.
+     *
+     * @param segmentLength
+     *            The segment length of the main memory. Note that any valid
+     *            short, including a "negative" number is appropriate here
+     */
+    @Override
+    public void setSegmentLength(short segmentLength) {
+        this.length = Short.toUnsignedInt(segmentLength) + 1;
+        this.clearSegment();
+    }
+
+    /**
+     * Fills the segment from a buffer of words with one bulk copy.
+     *
+     * @param words
+     *            The words of the program in address order, at least as many
+     *            as the segment holds
+     */
+    @Override
+    void loadWords(ShortBuffer words) {
+        int first = Short.toUnsignedInt(this.initialAddress);
+        int end = Math.min(first + this.length, ADDRESS_COUNT);
+        words.get(this.space, first, end - first);
+    }
+
+    /**
+     * Gets the words of the segment in address order.
+     *
+     * @return A new array holding the segment
+     */
+    @Override
+    short[] words() {
+        short[] words = new short[this.length];
+        int first = Short.toUnsignedInt(this.initialAddress);
+        int end = Math.min(first + this.length, ADDRESS_COUNT);
+        System.arraycopy(this.space, first, words, 0, end - first);
+        return words;
+    }
+
+    /**
+     * Writes a given value to the desired spot in memory.
+     *
+     * @param address
+     *            The address to write to
+     * @param data
+     *            The value to be written into memory
+     */
+    @Override
+    public void writeToMemory(short address, short data) {
+        int trueAddress = address & (ADDRESS_COUNT - 1);
+        if (this.segment != null && !this.isMapped(trueAddress)) {
+            this.getErrorSink().queueError(
+                    ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS, trueAddress);
+            return;
+        }
+        if (this.undoLog != null) {
+            this.undoLog.written(trueAddress, this.space[trueAddress]);
+        }
+        this.space[trueAddress] = data;
+        this.writes++;
+        this.lastWrite = trueAddress;
+        if (this.codeWords != null && this.codeWords[trueAddress]) {
+            this.codeWriteListener.codeWritten(trueAddress);
+        }
+        if (this.breakpoints != null) {
+            this.breakpoints.written(trueAddress);
+        }
+    }
+
+    /**
+     * Returns the information at the given location in memory.
+     *
+     * @param address
+     *            The address to read from
+     * @return The value in the desired spot in memory, as a short
+     */
+    @Override
+    public short readFromMemory(short address) {
+        int trueAddress = address & (ADDRESS_COUNT - 1);
+        if (this.segment != null && !this.isMapped(trueAddress)) {
+            this.getErrorSink().queueError(
+                    ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS, trueAddress);
+            return 0;
+        }
+        this.reads++;
+        if (this.breakpoints != null) {
+            this.breakpoints.read(trueAddress);
+        }
+        return this.space[trueAddress];
+    }
+
+    /**
+     * Checks whether an address can be accessed: any address inside of the
+     * segment, or any address at all without protection.
+     *
+     * @param address
+     *            The address to check as an unsigned value
+     * @return True if the address can be read without an invalid memory
+     *         access
+     */
+    @Override
+    public boolean contains(int address) {
+        if (address < 0 || address >= ADDRESS_COUNT) {
+            return false;
+        }
+        return this.segment == null || this.isMapped(address);
+    }
+
+    /**
+     * Gets the part of the segment in the page of the specified address, with
+     * the same bounds and errors as MainMemory.getPage().
+     *
+     * @param address
+     *            A valid address that the program has access to
+     * @return A copy of the words of the page that are in the segment
+     */
+    @Override
+    public short[] getPage(short address) {
+        int trueAddress = Short.toUnsignedInt(address);
+        int trueInitialAddress = Short.toUnsignedInt(this.initialAddress);
+        int pageBottom = trueAddress & ~(PAGE_SIZE - 1);
+        int low = Math.max(pageBottom, trueInitialAddress);
+        int high = Math.min(pageBottom + PAGE_SIZE,
+                trueInitialAddress + this.length);
+        if (high < low || trueAddress < trueInitialAddress) {
+            this.getErrorSink().queueError(
+                    ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS, trueAddress);
+            return new short[] { (short) -1 };
+        }
+        return Arrays.copyOfRange(this.space, low, high);
+    }
+
+    /**
+     * Checks the protection bitmap for an address.
+     *
+     * @param address
+     *            The address as an unsigned value
+     * @return True if the address is in the segment
+     */
+    private boolean isMapped(int address) {
+        return (this.segment[address >>> 6] & (1L << address)) != 0;
+    }
+
+    /**
+     * Clears the whole address space, maps the segment and forgets any
+     * marked code.
+     */
+    private void clearSegment() {
+        Arrays.fill(this.space, (short) 0);
+        if (this.segment != null) {
+            this.mapSegment();
+        }
+        this.forgetCode();
+    }
+
+    /**
+     * Sets the bits of the protection bitmap for exactly the addresses of the
+     * segment.
+     */
+    private void mapSegment() {
+        Arrays.fill(this.segment, 0);
+        int first = Short.toUnsignedInt(this.initialAddress);
+        int end = Math.min(first + this.length, ADDRESS_COUNT);
+        for (int address = first; address < end; address++) {
+            this.segment[address >>> 6] |= 1L << address;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package simulator;
+
+/**
+ * Executes one instruction whose fields were decoded ahead of time. Used by
+ * ThreadedCode, which keeps one handler for every address of the loaded
+ * program.
+ */
+public interface InstructionHandler {
+
+    /**
+     * Executes the instruction. The program counter has already been
+     * incremented past it.
+     *
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @param mem
+     *            Object representing memory
+     * @return An enum telling the simulator what instruction was executed
+     */
+    Instructions execute(MachineState state, MainMemory mem);
+}
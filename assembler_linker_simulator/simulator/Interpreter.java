@@ -1,6 +1,5 @@
 package simulator;
 
-import java.util.Scanner;
 import simulator.ErrorHandler.ERROR_TYPE;
 
 /**
@@ -19,6 +18,17 @@ public class Interpreter {
      */
     private final static int LowerEightBitsMask = 255;
 
+    /**
+     * Exclusive upper bound of the values produced by the RND trap.
+     */
+    private final static int RandomBound = 32768;
+
+    /**
+     * The console the register object version of trap() reads input from,
+     * shared so that input buffered for one trap is not lost to the next.
+     */
+    private final static TrapIO LegacyConsole = new ConsoleTrapIO();
+
     /**
      * Simulates the instruction process cycle. Uses the program counter to
      * fetch the current instruction from memory. From that instruction, we can
@@ -56,6 +66,445 @@ public class Interpreter {
         return execute(info, reg, mem, pc, cond);
     }
 
+    /**
+     * Simulates the instruction process cycle on a flat machine state. Behaves
+     * the same as the register object version of executeCycle(), but decodes
+     * through the Decoder table and works directly on the state array so that
+     * no objects are allocated per instruction. When the memory has an undo
+     * log the instruction is recorded in it.
+     *
+     * @param mem
+     *            Created object to represent the memory of the machine
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @return An enum telling the simulator what instruction was executed
+     */
+    public static Instructions executeCycle(MainMemory mem,
+            MachineState state) {
+        int[] s = state.values;
+
+        //Fetch the instruction from memory and increment
+        int instr = s[MachineState.PC];
+        if (instr != 0xFFFF) {
+            s[MachineState.PC] = instr + 1;
+        }
+
+        //Decode the instruction and execute it
+        int entry = Decoder.lookup(mem.readFromMemory((short) instr));
+        UndoLog undo = mem.getUndoLog();
+        if (undo != null) {
+            undo.record(s, instr, entry);
+        }
+        return execute(entry, state, mem);
+    }
+
+    /**
+     * Runs up to maxInstructions instructions on a flat machine state in a
+     * single loop. Stops early after a HALT trap, a DBUG instruction, an
+     * instruction that could not be executed, or an error the error sink of
+     * the memory asks to stop on, so the caller only has to act when the
+     * batch ends. When the memory has breakpoints the batch also stops at
+     * them, and when it has an undo log every instruction is recorded in it,
+     * otherwise they cost nothing.
+     *
+     * @param mem
+     *            Created object to represent the memory of the machine
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @param maxInstructions
+     *            The maximum number of instructions to execute
+     * @return Why the batch stopped and how many instructions it executed
+     */
+    public static RunResult run(MainMemory mem, MachineState state,
+            long maxInstructions) {
+        return run(mem, state, maxInstructions, null);
+    }
+
+    /**
+     * Runs a batch like run(mem, state, maxInstructions), recording every
+     * executed instruction in a profiler.
+     *
+     * @param mem
+     *            Created object to represent the memory of the machine
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @param maxInstructions
+     *            The maximum number of instructions to execute
+     * @param profiler
+     *            The profiler to record instructions in, or null to not
+     *            profile
+     * @return Why the batch stopped and how many instructions it executed
+     */
+    public static RunResult run(MainMemory mem, MachineState state,
+            long maxInstructions, Profiler profiler) {
+        return run(mem, state, maxInstructions, profiler, null);
+    }
+
+    /**
+     * Runs a batch like run(mem, state, maxInstructions), recording every
+     * executed instruction in a profiler and adding the instruction mix and
+     * memory accesses of the batch to metrics once it ends.
+     *
+     * @param mem
+     *            Created object to represent the memory of the machine
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @param maxInstructions
+     *            The maximum number of instructions to execute
+     * @param profiler
+     *            The profiler to record instructions in, or null to not
+     *            profile
+     * @param metrics
+     *            The metrics to add the counts of the batch to, or null to
+     *            not count
+     * @return Why the batch stopped and how many instructions it executed
+     */
+    public static RunResult run(MainMemory mem, MachineState state,
+            long maxInstructions, Profiler profiler,
+            SimulationMetrics metrics) {
+        Breakpoints breakpoints = mem.getBreakpoints();
+        UndoLog undo = mem.getUndoLog();
+        if (breakpoints != null || metrics != null || undo != null
+                || (profiler != null && profiler.refinesGraph())) {
+            return runInstrumented(mem, state, maxInstructions, breakpoints,
+                    profiler, metrics, undo);
+        }
+        if (profiler != null) {
+            return runProfiled(mem, state, maxInstructions, profiler);
+        }
+        int[] s = state.values;
+        ErrorSink errors = mem.getErrorSink();
+        Instructions last = Instructions.NOEXE;
+        long executed = 0;
+        while (executed < maxInstructions) {
+            //Fetch the instruction from memory and increment
+            int instr = s[MachineState.PC];
+            if (instr != 0xFFFF) {
+                s[MachineState.PC] = instr + 1;
+            }
+
+            //Decode the instruction and execute it
+            int entry = Decoder.lookup(mem.readFromMemory((short) instr));
+            last = execute(entry, state, mem);
+            executed++;
+
+            if (last == Instructions.HALT) {
+                return new RunResult(RunResult.ExitReason.HALT, executed,
+                        last);
+            }
+            if (last == Instructions.DBUG) {
+                //Only a DBUG opcode is a real debug point
+                RunResult.ExitReason reason = Decoder.opcode(entry) == 0b1000
+                        ? RunResult.ExitReason.DBUG
+                        : RunResult.ExitReason.ERROR;
+                return new RunResult(reason, executed, last);
+            }
+            if (errors.isHaltRequested()) {
+                return new RunResult(RunResult.ExitReason.ERROR, executed,
+                        last);
+            }
+        }
+        return new RunResult(RunResult.ExitReason.LIMIT, executed, last);
+    }
+
+    /**
+     * Runs a batch like run(), recording every executed instruction in a
+     * profiler. Kept apart from runInstrumented() so that profiling does not
+     * also pay for checking breakpoints and counting metrics. The profiler is
+     * only called for instructions that do not follow the one executed
+     * before them, so straight-line code costs one comparison per
+     * instruction.
+     *
+     * @param mem
+     *            Created object to represent the memory of the machine
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @param maxInstructions
+     *            The maximum number of instructions to execute
+     * @param profiler
+     *            The profiler to record instructions in
+     * @return Why the batch stopped and how many instructions it executed
+     */
+    private static RunResult runProfiled(MainMemory mem, MachineState state,
+            long maxInstructions, Profiler profiler) {
+        int[] s = state.values;
+        ErrorSink errors = mem.getErrorSink();
+        Instructions last = Instructions.NOEXE;
+        RunResult.ExitReason reason = RunResult.ExitReason.LIMIT;
+        int previous = profiler.resume(s[MachineState.PC]);
+        long executed = 0;
+        while (executed < maxInstructions) {
+            //Fetch the instruction from memory and increment
+            int instr = s[MachineState.PC];
+            if (instr != 0xFFFF) {
+                s[MachineState.PC] = instr + 1;
+            }
+
+            //Decode the instruction, execute it and record it if it did not
+            //follow the previous instruction
+            int entry = Decoder.lookup(mem.readFromMemory((short) instr));
+            last = execute(entry, state, mem);
+            executed++;
+            if (instr != previous + 1) {
+                profiler.jumped(previous, instr);
+            }
+            previous = instr;
+
+            if (last == Instructions.HALT) {
+                reason = RunResult.ExitReason.HALT;
+                break;
+            }
+            if (last == Instructions.DBUG) {
+                reason = Decoder.opcode(entry) == 0b1000
+                        ? RunResult.ExitReason.DBUG
+                        : RunResult.ExitReason.ERROR;
+                break;
+            }
+            if (errors.isHaltRequested()) {
+                reason = RunResult.ExitReason.ERROR;
+                break;
+            }
+        }
+        if (executed > 0) {
+            profiler.stopped(previous, s[MachineState.PC]);
+        }
+        return new RunResult(reason, executed, last);
+    }
+
+    /**
+     * Runs a batch like run(), also stopping before an instruction at a
+     * breakpoint and after an instruction that reads or writes a watched
+     * address, recording every executed instruction in a profiler,
+     * counting the instruction mix and memory accesses of the batch into
+     * metrics, and recording what every instruction overwrites in an undo
+     * log. Kept apart from run() so that plain batches do not check for any
+     * of them.
+     *
+     * @param mem
+     *            Created object to represent the memory of the machine
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @param maxInstructions
+     *            The maximum number of instructions to execute
+     * @param breakpoints
+     *            The breakpoints and watchpoints of the machine, or null if
+     *            there are none
+     * @param profiler
+     *            The profiler to record instructions in, or null to not
+     *            profile
+     * @param metrics
+     *            The metrics to add the counts of the batch to, or null to
+     *            not count
+     * @param undo
+     *            The undo log to record instructions in, or null to not
+     *            record them
+     * @return Why the batch stopped and how many instructions it executed
+     */
+    private static RunResult runInstrumented(MainMemory mem,
+            MachineState state, long maxInstructions,
+            Breakpoints breakpoints, Profiler profiler,
+            SimulationMetrics metrics, UndoLog undo) {
+        int[] s = state.values;
+        ErrorSink errors = mem.getErrorSink();
+        long[] mix = metrics == null ? null : SimulationMetrics.newBatchMix();
+        long reads = mem.getReadCount();
+        long writes = mem.getWriteCount();
+        RunResult.ExitReason reason = RunResult.ExitReason.LIMIT;
+        Instructions last = Instructions.NOEXE;
+        long executed = 0;
+        while (executed < maxInstructions) {
+            //Stop before fetching from a breakpoint
+            int instr = s[MachineState.PC];
+            if (breakpoints != null && breakpoints.breakAt(instr)) {
+                reason = RunResult.ExitReason.BREAKPOINT;
+                break;
+            }
+            if (instr != 0xFFFF) {
+                s[MachineState.PC] = instr + 1;
+            }
+
+            //Decode the instruction and execute it
+            int entry = Decoder.lookup(mem.readFromMemory((short) instr));
+            if (undo != null) {
+                undo.record(s, instr, entry);
+            }
+            last = execute(entry, state, mem);
+            executed++;
+            if (profiler != null) {
+                profiler.record(instr, s[MachineState.PC]);
+            }
+            if (mix != null) {
+                mix[last.ordinal()]++;
+            }
+
+            if (last == Instructions.HALT) {
+                reason = RunResult.ExitReason.HALT;
+                break;
+            }
+            if (last == Instructions.DBUG) {
+                reason = Decoder.opcode(entry) == 0b1000
+                        ? RunResult.ExitReason.DBUG
+                        : RunResult.ExitReason.ERROR;
+                break;
+            }
+            if (errors.isHaltRequested()) {
+                reason = RunResult.ExitReason.ERROR;
+                break;
+            }
+            if (breakpoints != null && breakpoints.hasWatchHit()) {
+                reason = RunResult.ExitReason.WATCHPOINT;
+                break;
+            }
+        }
+        if (metrics != null) {
+            metrics.add(mix, executed, mem.getReadCount() - reads,
+                    mem.getWriteCount() - writes);
+        }
+        return new RunResult(reason, executed, last);
+    }
+
+    /**
+     * Executes a single decoded instruction on a flat machine state.
+     *
+     * @param entry
+     *            The packed instruction returned by Decoder.lookup()
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @param mem
+     *            Object representing memory
+     * @return An enum telling the simulator what instruction was executed
+     */
+    static Instructions execute(int entry, MachineState state,
+            MainMemory mem) {
+        int[] s = state.values;
+        int dr = Decoder.dr(entry);
+        short operand = Decoder.operand(entry);
+        short pc = (short) s[MachineState.PC];
+        int result;
+        short address;
+
+        switch (Decoder.opcode(entry)) {
+            case 0b0001: //ADD
+                result = s[Decoder.sr(entry)]
+                        + (Decoder.flag(entry) == 0 ? s[operand] : operand);
+                if (result > MEM_MAX) {
+                    mem.getErrorSink()
+                            .queueError(ERROR_TYPE.INTERPRETER_ADDITION_OVERFLOW);
+                }
+                setRegister(s, dr, (short) result);
+                s[MachineState.CC] = (short) result;
+                return Instructions.ADD;
+            case 0b0101: //AND
+                result = s[Decoder.sr(entry)]
+                        & (Decoder.flag(entry) == 0 ? s[operand] : operand);
+                setRegister(s, dr, (short) result);
+                s[MachineState.CC] = result;
+                return Instructions.AND;
+            case 0b1001: //NOT
+                result = ~s[Decoder.sr(entry)];
+                setRegister(s, dr, (short) result);
+                s[MachineState.CC] = result;
+                return Instructions.NOT;
+            case 0b0010: //LD
+                result = mem.readFromMemory(Bits.fullAddress(pc, operand));
+                setRegister(s, dr, (short) result);
+                s[MachineState.CC] = result;
+                return Instructions.LD;
+            case 0b1010: //LDI
+                //Evaluated the same way as ldi()
+                result = mem.readFromMemory(Bits.fullAddress(pc, operand));
+                setRegister(s, dr, (short) result);
+                s[MachineState.CC] = result;
+                return Instructions.LDI;
+            case 0b0110: //LDR
+                address = Bits.indexAddress((short) s[Decoder.sr(entry)],
+                        operand);
+                result = mem.readFromMemory(address);
+                setRegister(s, dr, (short) result);
+                s[MachineState.CC] = result;
+                return Instructions.LDR;
+            case 0b1110: //LEA
+                result = Bits.fullAddress(pc, operand);
+                setRegister(s, dr, (short) result);
+                s[MachineState.CC] = result;
+                return Instructions.LEA;
+            case 0b0011: //ST
+                mem.writeToMemory(Bits.fullAddress(pc, operand), (short) s[dr]);
+                return Instructions.ST;
+            case 0b0111: //STR
+                address = Bits.indexAddress((short) s[Decoder.sr(entry)],
+                        operand);
+                mem.writeToMemory(address, (short) s[dr]);
+                return Instructions.STR;
+            case 0b1011: //STI
+                address = mem.readFromMemory(Bits.fullAddress(pc, operand));
+                mem.writeToMemory(address, (short) s[dr]);
+                return Instructions.STI;
+            case 0b0000: //BRX
+                //The n, z and p bits line up with the packed condition codes
+                if ((MachineState.conditionsFor(s[MachineState.CC])
+                        & dr) != 0) {
+                    state.setPc(Bits.fullAddress(pc, operand));
+                }
+                return Instructions.BRX;
+            case 0b0100: //JSR
+                address = Bits.fullAddress(pc, operand);
+                //The link bit is the highest bit of the DR field
+                if ((dr & 0b100) != 0) {
+                    setRegister(s, 7, pc);
+                    state.setPc(address);
+                    return Instructions.JSR;
+                }
+                state.setPc(address);
+                return Instructions.JMP;
+            case 0b1100: //JSRR
+                address = Bits.indexAddress((short) s[Decoder.sr(entry)],
+                        operand);
+                if ((dr & 0b100) != 0) {
+                    setRegister(s, 7, pc);
+                    state.setPc(address);
+                    return Instructions.JSRR;
+                }
+                state.setPc(address);
+                return Instructions.JMPR;
+            case 0b1101: //RET
+                state.setPc((short) s[7]);
+                return Instructions.RET;
+            case 0b1000:
+                //Debug instruction will be in Simulator since it needs that for tracing mode
+                return Instructions.DBUG;
+            case 0b1111: //TRAP
+                return trap(operand, state, mem);
+            default:
+                //Should never reach here as all possible 4 bit values are covered
+                mem.getErrorSink().queueError(ERROR_TYPE.INSTRUCTION_PARSE_ERROR);
+                return Instructions.DBUG;
+        }
+    }
+
+    /**
+     * Writes a general register of a flat machine state and marks it as
+     * modified.
+     *
+     * @param s
+     *            The values array of the machine state
+     * @param index
+     *            The number of the register, 0-7
+     * @param newVal
+     *            The value to set the register to
+     */
+    private static void setRegister(int[] s, int index, short newVal) {
+        s[index] = newVal;
+        s[MachineState.MODIFIED] |= 1 << index;
+    }
+
     /**
      * Starts execution of an individual instruction by looking in the info
      * array. The first element of this array is a 4 bit code that allows us to
@@ -121,7 +570,7 @@ public class Interpreter {
                 return trap(info, cond, reg, mem, pc);
             default:
                 //Should never reach here as all possible 4 bit values are covered
-                ErrorHandler.queueError(ERROR_TYPE.INSTRUCTION_PARSE_ERROR);
+                mem.getErrorSink().queueError(ERROR_TYPE.INSTRUCTION_PARSE_ERROR);
                 return Instructions.DBUG;
         }
     }
@@ -182,7 +631,8 @@ public class Interpreter {
         if (info[3] == 0) {
             op2 = reg[info[4]].getVal();
         } else {
-            op2 = Bits.signExtend(info[4]);
+            //imm5 is sign extended by the decoder
+            op2 = info[4];
         }
 
         int result = op1 + op2;
@@ -219,7 +669,8 @@ public class Interpreter {
         if (info[3] == 0) {
             op2 = reg[info[4]].getVal();
         } else {
-        	op2 = Bits.signExtend(info[4]);
+            //imm5 is sign extended by the decoder
+            op2 = info[4];
         }
         int result = op1 & op2;
 
@@ -609,6 +1060,7 @@ public class Interpreter {
                 reg[7].setVal((short) pc.getAddress());
                 return Instructions.OUT;
             case (0x22):
+                StringBuilder text = new StringBuilder();
                 short address = reg[0].getVal();
                 int next = mem.readFromMemory(reg[0].getVal());
                 //Only want the first 8 bits for the char
@@ -616,7 +1068,7 @@ public class Interpreter {
                 char nextChar = (char) next;
                 //0 is the ASCII character for null
                 while (nextChar != 0) {
-                    System.out.print(nextChar);
+                    text.append(nextChar);
                     address++;
                     next = mem.readFromMemory(address);
 
@@ -625,17 +1077,21 @@ public class Interpreter {
                     nextChar = (char) next;
                 }
 
-                //Moves to a new line
-                System.out.println("");
+                //Prints the string and moves to a new line
+                System.out.println(text);
                 reg[7].setVal((short) pc.getAddress());
                 return Instructions.PUTS;
             case (0x23):
                 System.out.print("Please enter an ASCII character: ");
-                Scanner input1 = new Scanner(System.in);
-                char letter = input1.next().charAt(0);
-
-                //Disregard the rest of the input
-                input1.nextLine();
+                String token = readToken(LegacyConsole);
+                if (token == null) {
+                    //No input is left to read a character from
+                    mem.getErrorSink()
+                            .queueError(ERROR_TYPE.INTERPRETER_INVALID_CHAR);
+                    reg[7].setVal((short) pc.getAddress());
+                    return Instructions.IN;
+                }
+                char letter = token.charAt(0);
                 System.out.println("Entered:" + letter);
 
                 //ASCII characters are only 8 bits
@@ -646,7 +1102,7 @@ public class Interpreter {
                     reg[0].setVal((short) letter);
                     updateConds(letter, cond);
                 } else {
-                    ErrorHandler
+                    mem.getErrorSink()
                             .queueError(ERROR_TYPE.INTERPRETER_INVALID_CHAR);
                 }
                 reg[7].setVal((short) pc.getAddress());
@@ -660,15 +1116,14 @@ public class Interpreter {
                 reg[7].setVal((short) pc.getAddress());
                 return Instructions.OUTN;
             case (0x33):
-                Scanner input2 = new Scanner(System.in);
                 System.out.print(
                         "Please enter a base 10 number to input. Max is 32767 and min is -32768 inclusive: ");
-                String numStr = input2.nextLine();
+                String numStr = LegacyConsole.readLine();
                 short num = 0;
                 try {
                     num = Short.parseShort(numStr);
                 } catch (Exception e) {
-                    ErrorHandler.queueError(ERROR_TYPE.INTERPRETER_INVALID_INT);
+                    mem.getErrorSink().queueError(ERROR_TYPE.INTERPRETER_INVALID_INT);
                     reg[7].setVal((short) pc.getAddress());
                     return Instructions.INN;
                 }
@@ -683,9 +1138,137 @@ public class Interpreter {
                 reg[7].setVal((short) pc.getAddress());
                 return Instructions.RND;
             default:
-                ErrorHandler
+                mem.getErrorSink()
+                        .queueError(ERROR_TYPE.INTERPRETER_INVALID_TRAP_VECTOR);
+                return Instructions.DBUG;
+        }
+    }
+
+    /**
+     * Executes various system calls on a flat machine state depending on a
+     * trap vector. Behaves the same as the register object version of trap().
+     *
+     * @param vector
+     *            The trap vector of the instruction
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @param mem
+     *            Object representing memory
+     * @return An enum telling the simulator what instruction was executed
+     */
+    private static Instructions trap(short vector, MachineState state,
+            MainMemory mem) {
+        int[] s = state.values;
+        short pc = (short) s[MachineState.PC];
+        TrapIO io = state.getTrapIO();
+
+        switch (vector) {
+            case (0x21):
+                io.println("Character in register 0: " + ((char) s[0] & 255));
+                setRegister(s, 7, pc);
+                return Instructions.OUT;
+            case (0x22):
+                StringBuilder text = new StringBuilder();
+                short address = (short) s[0];
+                int next = mem.readFromMemory(address);
+                //Only want the first 8 bits for the char
+                next = next & LowerEightBitsMask;
+                char nextChar = (char) next;
+                //0 is the ASCII character for null
+                while (nextChar != 0) {
+                    text.append(nextChar);
+                    address++;
+                    next = mem.readFromMemory(address);
+
+                    //Only want the first 8 bits for the char
+                    next = next & LowerEightBitsMask;
+                    nextChar = (char) next;
+                }
+
+                //Prints the string and moves to a new line
+                io.println(text.toString());
+                setRegister(s, 7, pc);
+                return Instructions.PUTS;
+            case (0x23):
+                io.print("Please enter an ASCII character: ");
+                String token = readToken(io);
+                if (token == null) {
+                    //No input is left to read a character from
+                    mem.getErrorSink()
+                            .queueError(ERROR_TYPE.INTERPRETER_INVALID_CHAR);
+                    setRegister(s, 7, pc);
+                    return Instructions.IN;
+                }
+                char letter = token.charAt(0);
+                io.println("Entered:" + letter);
+
+                //ASCII characters are only 8 bits
+                if (letter <= LowerEightBitsMask) {
+                    setRegister(s, 0, (short) letter);
+                    s[MachineState.CC] = letter;
+                } else {
+                    mem.getErrorSink()
+                            .queueError(ERROR_TYPE.INTERPRETER_INVALID_CHAR);
+                }
+                setRegister(s, 7, pc);
+                return Instructions.IN;
+            case (0x25):
+                setRegister(s, 7, pc);
+                return Instructions.HALT;
+            case (0x31):
+                io.println("Decimal value in register 0: " + (short) s[0]);
+                setRegister(s, 7, pc);
+                return Instructions.OUTN;
+            case (0x33):
+                io.print(
+                        "Please enter a base 10 number to input. Max is 32767 and min is -32768 inclusive: ");
+                String numStr = io.readLine();
+                short num = 0;
+                try {
+                    num = Short.parseShort(numStr);
+                } catch (Exception e) {
+                    //Also reached when no input is left
+                    mem.getErrorSink().queueError(ERROR_TYPE.INTERPRETER_INVALID_INT);
+                    setRegister(s, 7, pc);
+                    return Instructions.INN;
+                }
+                io.println("Entered:" + num);
+                setRegister(s, 0, num);
+                s[MachineState.CC] = num;
+                setRegister(s, 7, pc);
+                return Instructions.INN;
+            case (0x43):
+                setRegister(s, 0,
+                        (short) state.getRandom().nextInt(RandomBound));
+                s[MachineState.CC] = s[0];
+                setRegister(s, 7, pc);
+                return Instructions.RND;
+            default:
+                mem.getErrorSink()
                         .queueError(ERROR_TYPE.INTERPRETER_INVALID_TRAP_VECTOR);
                 return Instructions.DBUG;
         }
     }
+
+    /**
+     * Reads the next whitespace separated token from a console and discards
+     * the rest of its line, the same way Scanner.next() followed by
+     * Scanner.nextLine() does.
+     *
+     * @param io
+     *            The console to read from
+     * @return The token, or null if the input ended before one was found
+     */
+    private static String readToken(TrapIO io) {
+        String line = io.readLine();
+        while (line != null) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty()) {
+                return trimmed.split("\\s+", 2)[0];
+            }
+            line = io.readLine();
+        }
+        return null;
+    }
 }
@@ -1,8 +1,12 @@
 package simulator;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.util.Scanner;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Provides functionality for loading data from input files into memory and private fields of the loader class
@@ -35,6 +39,10 @@ public class Loader {
      * The address at which execution starts.
      */
     private short executionAddress;
+    /**
+     * The console loading errors are printed to.
+     */
+    private TrapIO console;
 
     /**
      * The minimum length a header record can be.
@@ -61,9 +69,24 @@ public class Loader {
      *            The file path to access directing to a file to load from
      */
     public Loader(MainMemory memory, String inputFilePath) {
+        this(memory, inputFilePath, new ConsoleTrapIO());
+    }
+
+    /**
+     * Constructor for a Loader Object that prints loading errors to the
+     * console of the machine being loaded instead of System.out.
+     *
+     * @param memory
+     *            The memory that the loader will load into
+     * @param inputFilePath
+     *            The file path to access directing to a file to load from
+     * @param console
+     *            The console loading errors are printed to
+     */
+    public Loader(MainMemory memory, String inputFilePath, TrapIO console) {
         this.memory = memory;
         this.inputFile = new File(inputFilePath);
-
+        this.console = console;
     }
 
     /**
@@ -72,38 +95,116 @@ public class Loader {
      * Loader constructor. This method will set multiple fields which can be
      * accessed by other methods including the beginning executing address and
      * the character segment name. This method also deals with a variety of file
-     * reading errors.
+     * reading errors. Object images written by ObjectImage are recognised by
+     * their magic number and copied into memory without being parsed. Text
+     * object files are read a record at a time straight from the mapped file.
      *
      * @return Returns true if file loading was successful and false otherwise
      */
     public boolean loadToMemory() {
 
+        ByteBuffer contents = this.mapInputFile();
+        if (contents == null) {
+            return false;
+        }
+
+        //Object images skip parsing altogether
+        if (ObjectImage.isImage(contents)) {
+            return this.loadImage(contents, null, true);
+        }
+        return this.loadRecords(contents);
+    }
+
+    /**
+     * This method loads an input file like loadToMemory(), except that into a
+     * PagedMemory each page of the segment of an object image is only read
+     * from the file the first time the program accesses it, so that the
+     * program can start before the rest of it is loaded. The header and
+     * checksum of the image are checked first. Text object files are loaded
+     * by loadToMemory(), since their records can be in any order and all of
+     * them have to be read to fill any one page, and so are other memories.
+     *
+     * @return Returns true if file loading was successful and false otherwise
+     */
+    public boolean loadOnDemand() {
+
+        return this.loadOnDemand(true);
+    }
+
+    /**
+     * This method loads an input file like loadOnDemand(), optionally without
+     * checking the checksum of an object image. Checking it reads the whole
+     * payload, so skipping it makes the time to the first instruction the
+     * same for any size of program, at the cost of running a corrupted image
+     * without noticing.
+     *
+     * @param verifyChecksum
+     *            Whether to check the checksum of an object image before
+     *            loading it
+     * @return Returns true if file loading was successful and false otherwise
+     */
+    public boolean loadOnDemand(boolean verifyChecksum) {
+
+        if (!(this.memory instanceof PagedMemory)) {
+            return this.loadToMemory();
+        }
+
+        ByteBuffer contents = this.mapInputFile();
+        if (contents == null) {
+            return false;
+        }
+
+        if (ObjectImage.isImage(contents)) {
+            return this.loadImage(contents, (PagedMemory) this.memory,
+                    verifyChecksum);
+        }
+        return this.loadRecords(contents);
+    }
+
+    /**
+     * This method maps the whole input file into memory.
+     *
+     * @return Returns the contents of the file, or null if it cannot be read
+     */
+    private ByteBuffer mapInputFile() {
+
+        try (FileChannel channel = FileChannel.open(this.inputFile.toPath(),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException e) {
+        	this.console.println("Error: Input File Not Found");
+            return null;
+        }
+    }
+
+    /**
+     * This method loads a text object file a record at a time straight from
+     * the mapped file.
+     *
+     * @param contents
+     *            The contents of the object file
+     * @return Returns true if file loading was successful and false otherwise
+     */
+    private boolean loadRecords(ByteBuffer contents) {
+
         //Booleans for checking correct parsing (assume correct at beginning)
         boolean headerParsedCorrectly = true;
         boolean textParsedCorrectly = true;
         boolean endParsedCorrectly = true;
 
-        //Open scanner
-        Scanner inputFileScanner;
-        try {
-            inputFileScanner = new Scanner(this.inputFile);
-        } catch (FileNotFoundException e) {
-        	System.out.println("Error: Input File Not Found");
-            return false;
-        }
+        ObjectRecordReader records = new ObjectRecordReader(contents);
 
         //First Process the header record
-        if (inputFileScanner.hasNextLine()) {
-            headerParsedCorrectly = this
-                    .parseHeaderRecord(inputFileScanner.nextLine());
+        if (records.nextLine()) {
+            headerParsedCorrectly = this.parseHeaderRecord(records);
         } else {
-            System.out.println("Error: Header Record Parsed Incorrectly");
-            inputFileScanner.close();
+            this.console.println("Error: Header Record Parsed Incorrectly");
             return false;
         }
         
         if (!headerParsedCorrectly) {
-        	System.out.println("Error: Header Record Parsed Incorrectly");
+        	this.console.println("Error: Header Record Parsed Incorrectly");
         }
 
         //Call mutable memory methods to set initial address + segment length
@@ -116,32 +217,31 @@ public class Loader {
         
         //Now try to process the text and end records
         
-        while (inputFileScanner.hasNextLine() && !endRecordRead) {
+        while (!endRecordRead && records.nextLine()) {
 
-            String currentLine = inputFileScanner.nextLine(); //Get the line
             //Now check if the line is a text record or end record
-            if (currentLine.length() > 0 && currentLine.charAt(0) == 'T') {
+            if (records.length() > 0 && records.charAt(0) == 'T') {
             	
                 //Current line is a text record
-                if (!this.parseTextRecord(currentLine)) {
+                if (!this.parseTextRecord(records)) {
                     textParsedCorrectly = false;
-                    System.out.println("Error: Text Record Parsed Incorrectly");
+                    this.console.println("Error: Text Record Parsed Incorrectly");
                 }
                 
-            } else if (currentLine.length() > 0 && currentLine.charAt(0) == 'E'){
+            } else if (records.length() > 0 && records.charAt(0) == 'E'){
             	
                 //Current line is an end record
-                endParsedCorrectly = this.parseEndRecord(currentLine);
+                endParsedCorrectly = this.parseEndRecord(records);
                 endRecordRead = true;
                 
                 if (!endParsedCorrectly) {
-                    System.out.println("Error: End Record Parsed Incorrectly");
+                    this.console.println("Error: End Record Parsed Incorrectly");
                 }
                 
             }
             
             else {
-            	System.out.println("Error: Missing End Record or Text Record");
+            	this.console.println("Error: Missing End Record or Text Record");
             	endParsedCorrectly = false;
             	textParsedCorrectly = false;
             }
@@ -149,12 +249,10 @@ public class Loader {
         
         //Final safety check for if end record is parsed correctly (This is necessary)
         if (!endRecordRead) {
-        	System.out.println("Error: Missing End Record");
+        	this.console.println("Error: Missing End Record");
         	endParsedCorrectly = false;
         }
 
-        //Finally, close the scanner and return
-        inputFileScanner.close();
         return headerParsedCorrectly && textParsedCorrectly
                 && endParsedCorrectly;
     }
@@ -206,17 +304,100 @@ public class Loader {
         return this.segmentLength;
     }
 
+    /**
+     * This method REQUIRES a successful call to loadToMemory() first. This
+     * translates the loaded program into threaded code, binding a handler to
+     * every word of the segment so it can be executed without decoding.
+     *
+     * @return Returns the threaded code for the loaded program
+     */
+    public ThreadedCode translateToThreadedCode() {
+
+        return new ThreadedCode(this.memory,
+                Short.toUnsignedInt(this.initialLoadAddress),
+                Short.toUnsignedInt(this.segmentLength) + 1);
+    }
+
+    /**
+     * This method loads an object image by copying its payload into memory in
+     * one go, or by leaving a paged memory to read in its pages when they are
+     * first accessed, after checking its header and checksum.
+     *
+     * @param image
+     *            The contents of the image file
+     * @param pagedMemory
+     *            The memory to read the payload in on demand, or null to copy
+     *            it into memory now
+     * @param verifyChecksum
+     *            Whether to check the checksum, which has to be true when
+     *            copying the payload now
+     * @return Returns true if the image is successfully loaded and false
+     *         otherwise.
+     */
+    private boolean loadImage(ByteBuffer image, PagedMemory pagedMemory,
+            boolean verifyChecksum) {
+
+        int size = image.limit();
+        if (size < ObjectImage.HEADER_LENGTH + ObjectImage.TRAILER_LENGTH) {
+            this.console.println("Error: Object Image Is Too Short");
+            return false;
+        }
+
+        if (image.getShort(4) != ObjectImage.VERSION) {
+            this.console.println("Error: Unsupported Object Image Version");
+            return false;
+        }
+
+        //Read the header
+        byte[] name = new byte[ObjectImage.NAME_LENGTH];
+        image.get(6, name);
+        this.characterSegmentName = new String(name,
+                StandardCharsets.US_ASCII);
+        this.initialLoadAddress = image.getShort(12);
+        this.segmentLength = image.getShort(14);
+        this.executionAddress = image.getShort(16);
+        int words = image.getInt(18);
+
+        //The payload must fill the whole segment and the rest of the file
+        if (words != Short.toUnsignedInt(this.segmentLength) + 1
+                || size != ObjectImage.HEADER_LENGTH + 2L * words
+                        + ObjectImage.TRAILER_LENGTH) {
+            this.console.println("Error: Object Image Size Does Not Match Header");
+            return false;
+        }
+        ByteBuffer payload = image.slice(ObjectImage.HEADER_LENGTH, 2 * words);
+        if (verifyChecksum && ObjectImage.checksum(payload) != image
+                .getInt(ObjectImage.HEADER_LENGTH + 2 * words)) {
+            this.console.println("Error: Object Image Checksum Does Not Match");
+            return false;
+        }
+        if (pagedMemory != null) {
+            pagedMemory.setInitialLoadAddress(this.initialLoadAddress);
+            pagedMemory.setSegmentLength(this.segmentLength);
+            pagedMemory.setPageSource(new ImagePages(payload.asShortBuffer(),
+                    Short.toUnsignedInt(this.initialLoadAddress)));
+            return true;
+        }
+
+        //Copy the payload into memory
+        this.memory.setInitialLoadAddress(this.initialLoadAddress);
+        this.memory.setSegmentLength(this.segmentLength);
+        this.memory.loadWords(payload.asShortBuffer());
+        return true;
+    }
+
     /**
      * This method parses the information for a header record. This will obtain
      * the info for the initial program load address and the character segment
      * name.
      *
      * @param headerRecord
-     *            The Header record string at the start of the input file
+     *            The reader positioned on the header record at the start of
+     *            the input file
      * @return Returns true if the header record is successfully parsed and
      *         false otherwise.
      */
-    private boolean parseHeaderRecord(String headerRecord) {
+    private boolean parseHeaderRecord(ObjectRecordReader headerRecord) {
 
     	final int endSegmentNamePos = 7;
     	final int endLoadAddressStrPos = 11;
@@ -232,19 +413,16 @@ public class Loader {
         this.characterSegmentName = headerRecord.substring(1, endSegmentNamePos);
 
         //Read in hex values for load addresses and segment lengths
-        String initialLoadAddressStr = headerRecord.substring(endSegmentNamePos, endLoadAddressStrPos);
-        String segmentLengthStr = headerRecord.substring(endLoadAddressStrPos, endSegmentLengthStrPos);
-
-        if (Bits.isValidHexString(initialLoadAddressStr)
-                && Bits.isValidHexString(segmentLengthStr)) {
-            this.initialLoadAddress = Bits
-                    .hexStringToShort(headerRecord.substring(endSegmentNamePos, endLoadAddressStrPos));
-            this.segmentLength = Bits
-                    .hexStringToShort(headerRecord.substring(endLoadAddressStrPos, endSegmentLengthStrPos));
+        int initialLoadAddress = headerRecord.hexValue(endSegmentNamePos, endLoadAddressStrPos);
+        int segmentLength = headerRecord.hexValue(endLoadAddressStrPos, endSegmentLengthStrPos);
+
+        if (initialLoadAddress >= 0 && segmentLength >= 0) {
+            this.initialLoadAddress = (short) initialLoadAddress;
+            this.segmentLength = (short) segmentLength;
             return true;
 
         } else {
-            System.out.println("Error: Invalid Hex String in Header Record");
+            this.console.println("Error: Invalid Hex String in Header Record");
             return false;
         }
     }
@@ -254,11 +432,11 @@ public class Loader {
      * information into memory at various places depending on the input string.
      *
      * @param textRecord
-     *            A Text record string contained in the input file
+     *            The reader positioned on a text record of the input file
      * @return Returns true if the text record is successfully parsed and false
      *         otherwise.
      */
-    private boolean parseTextRecord(String textRecord) {
+    private boolean parseTextRecord(ObjectRecordReader textRecord) {
 
     	final int endStoreAddressPos = 5;
     	final int endStoreContentPos = 9;
@@ -270,22 +448,19 @@ public class Loader {
         }
 
         //Get the address and content to write
-        String storeAddressStr = textRecord.substring(1, endStoreAddressPos);
-        String addressContentStr = textRecord.substring(5, endStoreContentPos);
+        int storeAddress = textRecord.hexValue(1, endStoreAddressPos);
+        int addressContent = textRecord.hexValue(5, endStoreContentPos);
 
-        if (Bits.isValidHexString(storeAddressStr)
-                && Bits.isValidHexString(addressContentStr)) {
-            short storeAddress = Bits
-                    .hexStringToShort(storeAddressStr);
-            short addressContent = Bits
-                    .hexStringToShort(addressContentStr);
+        if (storeAddress >= 0 && addressContent >= 0) {
 
             //Write to memory!
-            this.memory.writeToMemory(storeAddress, addressContent);
+            this.memory.writeToMemory((short) storeAddress,
+                    (short) addressContent);
             return true;
 
         } else {
-            System.out.println("Error: Invalid Hex String in Text Record"+ storeAddressStr);
+            this.console.println("Error: Invalid Hex String in Text Record"
+                    + textRecord.substring(1, endStoreAddressPos));
             return false;
         }
 
@@ -296,33 +471,81 @@ public class Loader {
      * the starting execution address.
      *
      * @param endRecord
-     *            The end record string contained at the end of the input file
+     *            The reader positioned on the end record at the end of the
+     *            input file
      * @return Returns true if the end record is successfully parsed and false
      *         otherwise.
      */
-    private boolean parseEndRecord(String endRecord) {
+    private boolean parseEndRecord(ObjectRecordReader endRecord) {
 
     	final int endRecordSubstring = 5;
     	
         if (endRecord.length() < this.END_RECORD_MIN_LENGTH
                 || endRecord.charAt(0) != 'E') {
             //Invalid End Record Error
-        	System.out.println("Error: Invalid End Record");
+        	this.console.println("Error: Invalid End Record");
             return false;
         }
 
         //Get the initial execution address
-        String executionAddressStr = endRecord.substring(1, endRecordSubstring);
-        if (Bits.isValidHexString(executionAddressStr)) {
-            this.executionAddress = Bits
-                    .hexStringToShort(endRecord.substring(1, endRecordSubstring));
+        int executionAddress = endRecord.hexValue(1, endRecordSubstring);
+        if (executionAddress >= 0) {
+            this.executionAddress = (short) executionAddress;
         } else {
             //The hex read in is invalid
-            System.out.println("Error: Invalid Hex String in End Record");
+            this.console.println("Error: Invalid Hex String in End Record");
             return false;
         }
 
         return true;
     }
 
+    /**
+     * Reads the pages of an object image from its payload.
+     */
+    private static final class ImagePages implements PagedMemory.PageSource {
+
+        /**
+         * The words of the segment in address order.
+         */
+        private final ShortBuffer payload;
+
+        /**
+         * The unsigned initial load address of the segment.
+         */
+        private final int firstAddress;
+
+        /**
+         * Creates a page source for the payload of an object image.
+         *
+         * @param payload
+         *            The words of the segment in address order
+         * @param firstAddress
+         *            The unsigned initial load address of the segment
+         */
+        ImagePages(ShortBuffer payload, int firstAddress) {
+            this.payload = payload;
+            this.firstAddress = firstAddress;
+        }
+
+        /**
+         * Copies the words of the payload that fall in a page.
+         *
+         * @param pageAddress
+         *            The unsigned address of the first word of the page
+         * @param page
+         *            The zeroed page to fill
+         */
+        @Override
+        public void readPage(int pageAddress, short[] page) {
+            int low = Math.max(pageAddress, this.firstAddress);
+            int high = Math.min(pageAddress + page.length,
+                    this.firstAddress + this.payload.limit());
+            if (high > low) {
+                this.payload.get(low - this.firstAddress, page,
+                        low - pageAddress, high - low);
+            }
+        }
+    }
+
 }
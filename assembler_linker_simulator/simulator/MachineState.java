@@ -0,0 +1,282 @@
+package simulator;
+
+import java.util.SplittableRandom;
+
+/**
+ * Holds the registers, program counter and condition codes of the simulated
+ * machine in a single primitive array so that the interpreter can execute
+ * instructions without going through register objects.
+ */
+public class MachineState {
+
+    /**
+     * Index of the program counter in values.
+     */
+    static final int PC = 8;
+
+    /**
+     * Index of the last result that set the condition codes in values.
+     */
+    static final int CC = 9;
+
+    /**
+     * Index of the bit set of general registers written since they were last
+     * copied by copyTo() or printed by a TraceRenderer.
+     */
+    static final int MODIFIED = 10;
+
+    /**
+     * Condition code bit for a negative result. The N, Z and P bits are laid
+     * out in the same order as the n, z and p bits of a BRX instruction.
+     */
+    static final int N = 0b100;
+
+    /**
+     * Condition code bit for a zero result.
+     */
+    static final int Z = 0b010;
+
+    /**
+     * Condition code bit for a positive result.
+     */
+    static final int P = 0b001;
+
+    /**
+     * The highest address the program counter can hold.
+     */
+    private static final int MAX_ADDRESS = 0xFFFF;
+
+    /**
+     * The machine state. values[0] through values[7] hold R0-R7 as
+     * sign-extended shorts, values[PC] holds the program counter as an
+     * unsigned address, values[CC] holds the last value that set the
+     * condition codes as a sign-extended short and values[MODIFIED] holds one
+     * bit per written general register. The N/Z/P bits are only worked out
+     * from the sign of values[CC] when a branch or a trace needs them, since
+     * most results are never tested.
+     */
+    final int[] values;
+
+    /**
+     * The console the trap routines of the machine read from and write to.
+     */
+    private TrapIO trapIO;
+
+    /**
+     * The generator the RND trap of the machine draws from.
+     */
+    private SplittableRandom random;
+
+    /**
+     * Creates a new machine state with all registers and the program counter
+     * cleared and the Z condition code set. Traps use System.in and
+     * System.out, and the RND trap draws from an unseeded generator.
+     */
+    public MachineState() {
+        this.values = new int[MODIFIED + 1];
+        this.values[CC] = resultFor(Z);
+        this.trapIO = new ConsoleTrapIO();
+        this.random = new SplittableRandom();
+    }
+
+    /**
+     * Creates a copy of this state, for a child machine forked from this one.
+     * The copy shares the console of this state, and its RND trap draws from
+     * a generator split off the one of this state, so the two machines see
+     * different numbers that are still reproducible from the same seed.
+     *
+     * @return A new machine state with the same registers, program counter
+     *         and condition codes
+     */
+    public MachineState copy() {
+        MachineState copy = new MachineState();
+        System.arraycopy(this.values, 0, copy.values, 0, this.values.length);
+        copy.trapIO = this.trapIO;
+        copy.random = this.random.split();
+        return copy;
+    }
+
+    /**
+     * Gets the generator the RND trap of the machine draws from.
+     *
+     * @return The random number generator of the machine
+     */
+    public SplittableRandom getRandom() {
+        return this.random;
+    }
+
+    /**
+     * Sets the generator the RND trap of the machine draws from. Generators
+     * split off a common one give machines run side by side independent
+     * streams.
+     *
+     * @param random
+     *            The random number generator to draw from
+     */
+    public void setRandom(SplittableRandom random) {
+        this.random = random;
+    }
+
+    /**
+     * Seeds the RND trap of the machine, so runs from the same seed draw
+     * exactly the same numbers.
+     *
+     * @param seed
+     *            The seed of the generator
+     */
+    public void setSeed(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Gets the console the trap routines of the machine use.
+     *
+     * @return The console of the machine
+     */
+    public TrapIO getTrapIO() {
+        return this.trapIO;
+    }
+
+    /**
+     * Sets the console the trap routines of the machine use.
+     *
+     * @param trapIO
+     *            The console to read input from and write output to
+     */
+    public void setTrapIO(TrapIO trapIO) {
+        this.trapIO = trapIO;
+    }
+
+    /**
+     * Gets the value of a general register.
+     *
+     * @param index
+     *            The number of the register, 0-7
+     * @return The current value of the register
+     */
+    public short getRegister(int index) {
+        return (short) this.values[index];
+    }
+
+    /**
+     * Sets the value of a general register and marks it as modified.
+     *
+     * @param index
+     *            The number of the register, 0-7
+     * @param newVal
+     *            The value to set the register to
+     */
+    public void setRegister(int index, short newVal) {
+        this.values[index] = newVal;
+        this.values[MODIFIED] |= 1 << index;
+    }
+
+    /**
+     * Gets the address held by the program counter.
+     *
+     * @return The current address of the program counter
+     */
+    public int getPc() {
+        return this.values[PC];
+    }
+
+    /**
+     * Sets the address held by the program counter. Like
+     * ProgramCounter.setAddress(), addresses outside of 0x0000-0xFFFF are
+     * ignored.
+     *
+     * @param newAddress
+     *            New address to set the program counter to
+     */
+    public void setPc(int newAddress) {
+        if (newAddress >= 0 && newAddress <= MAX_ADDRESS) {
+            this.values[PC] = newAddress;
+        }
+    }
+
+    /**
+     * Gets the packed condition codes.
+     *
+     * @return The N, Z and P bits of the machine
+     */
+    public int getConditions() {
+        return conditionsFor(this.values[CC]);
+    }
+
+    /**
+     * Sets the packed condition codes.
+     *
+     * @param conditions
+     *            The N, Z and P bits, of which only the first set one counts
+     */
+    public void setConditions(int conditions) {
+        this.values[CC] = resultFor(conditions);
+    }
+
+    /**
+     * Sets the condition codes based on the sign of a result.
+     *
+     * @param result
+     *            Value that was stored to a register or loaded from memory
+     */
+    public void updateConds(int result) {
+        this.values[CC] = (short) result;
+    }
+
+    /**
+     * Gets the packed condition codes for a result, without branching.
+     *
+     * @param result
+     *            Value that was stored to a register or loaded from memory
+     * @return N if result is negative, Z if it is zero and P if it is positive
+     */
+    static int conditionsFor(int result) {
+        //signum() gives -1, 0 or 1, which shifts 1 to N, Z or P
+        return 1 << (1 - Integer.signum(result));
+    }
+
+    /**
+     * Gets a result that sets the given condition codes.
+     *
+     * @param conditions
+     *            The N, Z and P bits, of which only the first set one counts
+     * @return -1 for N, 0 for Z and 1 for P
+     */
+    static int resultFor(int conditions) {
+        if ((conditions & N) != 0) {
+            return -1;
+        }
+        if ((conditions & Z) != 0) {
+            return 0;
+        }
+        return 1;
+    }
+
+    /**
+     * Copies this state into register objects so they can be printed. General
+     * registers written since the last copy are set through setVal() so that
+     * they report themselves as modified.
+     *
+     * @param registers
+     *            The general registers R0-R7
+     * @param conditions
+     *            The condition code registers N, Z, P
+     * @param programCounter
+     *            The program counter
+     */
+    public void copyTo(GeneralRegister[] registers,
+            ConditionRegister[] conditions, ProgramCounter programCounter) {
+        int modified = this.values[MODIFIED];
+        for (int i = 0; i < registers.length; i++) {
+            if ((modified & (1 << i)) != 0) {
+                registers[i].setVal((short) this.values[i]);
+            }
+        }
+        this.values[MODIFIED] = 0;
+        int cc = conditionsFor(this.values[CC]);
+        conditions[0].setVal((short) ((cc & N) != 0 ? 1 : 0));
+        conditions[1].setVal((short) ((cc & Z) != 0 ? 1 : 0));
+        conditions[2].setVal((short) ((cc & P) != 0 ? 1 : 0));
+        programCounter.setAddress(this.values[PC]);
+    }
+}
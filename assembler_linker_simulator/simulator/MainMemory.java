@@ -1,5 +1,6 @@
 package simulator;
 
+import java.nio.ShortBuffer;
 import java.util.Arrays;
 
 /**
@@ -8,6 +9,26 @@ import java.util.Arrays;
  */
 
 public class MainMemory {
+
+    /**
+     * Receives a notification whenever a word marked with markCode() is
+     * written to, so that anything derived from that word can be discarded.
+     */
+    public interface CodeWriteListener {
+
+        /**
+         * Called after a marked word has been written.
+         *
+         * @param address
+         *            The address of the written word as an unsigned value
+         */
+        void codeWritten(int address);
+    }
+
+    /**
+     * The highest address plus one.
+     */
+    private static final int ADDRESS_COUNT = 0x10000;
 	
 	/**
 	 * The memory of the currently loaded program.
@@ -18,6 +39,53 @@ public class MainMemory {
      * The initial address of the program.
      */
     short initialAddress;
+
+    /**
+     * Which addresses have been marked as code by markCode(), or null if
+     * nothing is listening.
+     */
+    boolean[] codeWords;
+
+    /**
+     * Notified of writes to words marked as code, or null if nothing is
+     * listening.
+     */
+    CodeWriteListener codeWriteListener;
+
+    /**
+     * Receives the errors raised by this memory and the instructions executed
+     * on it. Defaults to the static ErrorHandler queue.
+     */
+    private ErrorSink errorSink = ErrorHandler::queueError;
+
+    /**
+     * The unsigned address of the last word written since the last call to
+     * pollLastWrite(), or -1 if none has been.
+     */
+    int lastWrite = -1;
+
+    /**
+     * The breakpoints and watchpoints of the machine, or null if nothing is
+     * watched. Reads and writes only check watchpoints when this is set.
+     */
+    Breakpoints breakpoints;
+
+    /**
+     * The undo log the old value of every written word is recorded in, or
+     * null if writes are not recorded.
+     */
+    UndoLog undoLog;
+
+    /**
+     * The number of words read from the segment.
+     */
+    long reads;
+
+    /**
+     * The number of words written to the segment.
+     */
+    long writes;
+
     /**
      * This is the valued returned whenever a program tries to access a value out of memory
      */
@@ -31,8 +99,7 @@ public class MainMemory {
          * These values should always be overridden so their value will remain
          * arbitrary for now
          */
-        this.memory = new short[10];
-        this.initialAddress = 0;
+        this(new short[10], (short) 0);
     }
 
 
@@ -45,7 +112,21 @@ public class MainMemory {
      * 		The initial address in memory the program starts at
      */
     public MainMemory(int memorySize, short startingAddress) {
-        this.memory = new short[(0x0000FFFF & memorySize) + 1];
+        this(new short[(0x0000FFFF & memorySize) + 1], startingAddress);
+    }
+
+    /**
+     * Constructs a MainMemory object backed by an array, or by none for a
+     * subclass that stores the words of the program itself and overrides
+     * every method using the array.
+     *
+     * @param memory
+     *            The words of the program, or null
+     * @param startingAddress
+     *            The initial address in memory the program starts at
+     */
+    MainMemory(short[] memory, short startingAddress) {
+        this.memory = memory;
         this.initialAddress = startingAddress;
     }
 
@@ -58,6 +139,7 @@ public class MainMemory {
      */
     public void setInitialLoadAddress(short initialAddress) {
         this.initialAddress = initialAddress;
+        this.forgetCode();
     }
 
     /**
@@ -69,6 +151,30 @@ public class MainMemory {
      */
     public void setSegmentLength(short segmentLength) {
         this.memory = new short[Short.toUnsignedInt(segmentLength) + 1];
+        this.forgetCode();
+    }
+
+    /**
+     * Fills the memory of the loaded program with one bulk copy, without the
+     * checks and notifications of writeToMemory(). Meant to be called right
+     * after setSegmentLength(), before anything has been decoded or marked.
+     *
+     * @param words
+     *            The words of the program in address order, at least as many
+     *            as the segment holds
+     */
+    void loadWords(ShortBuffer words) {
+        words.get(this.memory, 0, this.memory.length);
+    }
+
+    /**
+     * Gets the words of the loaded program in address order. The array may be
+     * the one backing this memory, so it must not be modified.
+     *
+     * @return The words of the program
+     */
+    short[] words() {
+        return this.memory;
     }
 
     /**
@@ -98,10 +204,208 @@ public class MainMemory {
          * the array
          */
         if (index < this.memory.length && index >= 0) {
+            if (this.undoLog != null) {
+                this.undoLog.written(trueAddress, this.memory[index]);
+            }
             this.memory[index] = data;
+            this.writes++;
+            this.lastWrite = trueAddress;
+            if (this.codeWords != null && this.codeWords[trueAddress]) {
+                this.codeWriteListener.codeWritten(trueAddress);
+            }
+            if (this.breakpoints != null) {
+                this.breakpoints.written(trueAddress);
+            }
         } else {
-            ErrorHandler
-                    .queueError(ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS);
+            this.errorSink
+                    .queueError(ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS,
+                            trueAddress);
+        }
+    }
+
+    /**
+     * Gets the last word written since the previous call and forgets it.
+     * Instructions write at most one word, so calling this after every
+     * instruction finds every write.
+     *
+     * @return The unsigned address of the last word written, or -1 if no
+     *         word has been written
+     */
+    int pollLastWrite() {
+        int address = this.lastWrite;
+        this.lastWrite = -1;
+        return address;
+    }
+
+    /**
+     * Gets the sink receiving the errors of the machine this memory belongs
+     * to.
+     *
+     * @return The error sink of the machine
+     */
+    public ErrorSink getErrorSink() {
+        return this.errorSink;
+    }
+
+    /**
+     * Sets the sink receiving the errors of the machine this memory belongs
+     * to.
+     *
+     * @param errorSink
+     *            The sink to send errors to
+     */
+    public void setErrorSink(ErrorSink errorSink) {
+        this.errorSink = errorSink;
+    }
+
+    /**
+     * Gets the number of words read from the segment, including instruction
+     * fetches. Reads outside of the segment are not counted.
+     *
+     * @return The number of words read since this memory was created
+     */
+    public long getReadCount() {
+        return this.reads;
+    }
+
+    /**
+     * Gets the number of words written to the segment, including those
+     * written by the loader from a text object file. Writes outside of the
+     * segment and words copied in by loadWords() are not counted.
+     *
+     * @return The number of words written since this memory was created
+     */
+    public long getWriteCount() {
+        return this.writes;
+    }
+
+    /**
+     * Gets the breakpoints and watchpoints of the machine this memory belongs
+     * to.
+     *
+     * @return The breakpoints of the machine, or null if there are none
+     */
+    public Breakpoints getBreakpoints() {
+        return this.breakpoints;
+    }
+
+    /**
+     * Sets the breakpoints and watchpoints of the machine this memory belongs
+     * to. Interpreter.run() stops at them, while the other ways of executing
+     * instructions ignore them.
+     *
+     * @param breakpoints
+     *            The breakpoints to check, or null to check none
+     */
+    public void setBreakpoints(Breakpoints breakpoints) {
+        this.breakpoints = breakpoints;
+    }
+
+    /**
+     * Gets the undo log of the machine this memory belongs to.
+     *
+     * @return The undo log of the machine, or null if there is none
+     */
+    public UndoLog getUndoLog() {
+        return this.undoLog;
+    }
+
+    /**
+     * Sets the undo log of the machine this memory belongs to. Every write
+     * then records the word it overwrites, and Interpreter.run() and
+     * executeCycle() record the registers each instruction changes, while
+     * the other ways of executing instructions must not be used.
+     *
+     * @param undoLog
+     *            The undo log to record in, or null to record nothing
+     */
+    public void setUndoLog(UndoLog undoLog) {
+        this.undoLog = undoLog;
+    }
+
+    /**
+     * Puts back a word recorded in the undo log. The write is not recorded
+     * again, counted or checked against watchpoints, but still tells the code
+     * write listener that the word changed.
+     *
+     * @param address
+     *            The unsigned address of the word
+     * @param data
+     *            The value the word had
+     */
+    void restoreWord(int address, short data) {
+        UndoLog log = this.undoLog;
+        Breakpoints watched = this.breakpoints;
+        this.undoLog = null;
+        this.breakpoints = null;
+        this.writeToMemory((short) address, data);
+        this.undoLog = log;
+        this.breakpoints = watched;
+        this.writes--;
+    }
+
+    /**
+     * Reads a word for analysis rather than for the program. The read is not
+     * counted or checked against watchpoints.
+     *
+     * @param address
+     *            The unsigned address of a word that contains() accepts
+     * @return The value of the word
+     */
+    short inspectWord(int address) {
+        Breakpoints watched = this.breakpoints;
+        this.breakpoints = null;
+        short word = this.readFromMemory((short) address);
+        this.breakpoints = watched;
+        this.reads--;
+        return word;
+    }
+
+    /**
+     * Sets the listener that is notified of writes to words marked as code.
+     *
+     * @param listener
+     *            The listener to notify, or null to stop notifying
+     */
+    public void setCodeWriteListener(CodeWriteListener listener) {
+        this.codeWriteListener = listener;
+        this.codeWords = listener == null ? null : new boolean[ADDRESS_COUNT];
+    }
+
+    /**
+     * Unmarks every word marked as code, keeping the listener. Called when
+     * the segment is moved or resized.
+     */
+    void forgetCode() {
+        if (this.codeWords != null) {
+            this.codeWords = new boolean[ADDRESS_COUNT];
+        }
+    }
+
+    /**
+     * Checks whether an address falls inside of the memory of the loaded
+     * program.
+     *
+     * @param address
+     *            The address to check as an unsigned value
+     * @return True if the address can be read without an invalid memory
+     *         access
+     */
+    public boolean contains(int address) {
+        int index = address - Short.toUnsignedInt(this.initialAddress);
+        return index < this.memory.length && index >= 0;
+    }
+
+    /**
+     * Marks a word as code so that writing to it notifies the code write
+     * listener. Addresses that contains() rejects are ignored.
+     *
+     * @param address
+     *            The address of the word as an unsigned value
+     */
+    public void markCode(int address) {
+        if (this.contains(address) && this.codeWords != null) {
+            this.codeWords[address] = true;
         }
     }
 
@@ -134,10 +438,15 @@ public class MainMemory {
          */
         if (index >= this.memory.length || index < 0) {
             returnVal = this.outOfMem;
-            ErrorHandler
-                    .queueError(ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS);
+            this.errorSink
+                    .queueError(ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS,
+                            trueAddress);
         } else {
             returnVal = this.memory[index];
+            this.reads++;
+            if (this.breakpoints != null) {
+                this.breakpoints.read(trueAddress);
+            }
         }
         return returnVal;
     }
@@ -195,8 +504,9 @@ public class MainMemory {
          * violation) return with a default value)
          */
         if (highIndex < lowIndex || trueAddress < trueInitialAddress) {
-            ErrorHandler
-                    .queueError(ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS);
+            this.errorSink
+                    .queueError(ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS,
+                            trueAddress);
             return new short[] { (short) -1 };
         }
         /* Returns the correct portion of the array */
@@ -217,91 +527,91 @@ public class MainMemory {
      *         0b1011, arr[1] = SR and arr[2] = pgoffset9
      */
     public short[] getInfo(short instructionLocation) {
-        Instructions currentInstruction = null;
-        short address = this.readFromMemory(instructionLocation);
-        short opcode = Bits.getBitRange(address, 12, 16);
-        for (Instructions I : Instructions.values()) {
-            if (opcode == I.value) {
-                currentInstruction = I;
-            }
-        }
-        if (currentInstruction == null) {
-            currentInstruction = Instructions.DBUG;
-            ErrorHandler
-                    .queueError(ErrorHandler.ERROR_TYPE.INVALID_INSTRUCTION);
-        }
+        return decode(this.readFromMemory(instructionLocation));
+    }
+
+    /**
+     * Splits a single instruction word into its relevant fields using the
+     * precomputed decode table. For ADD and AND in immediate mode arr[4] holds
+     * the already sign-extended imm5. Every opcode is covered, so the parse
+     * error only guards against the table changing, and is reported to the
+     * error sink of this memory like any other error of the machine.
+     *
+     * @param word
+     *            The instruction word to decode
+     * @return The fields of the instruction in the layout described by
+     *         getInfo()
+     */
+    short[] decode(short word) {
+        int entry = Decoder.lookup(word);
+        short opcode = (short) Decoder.opcode(entry);
+        int dr = Decoder.dr(entry);
         short[] importantBits;
-        switch (currentInstruction) {
-            case AND:
-            case ADD:
+        switch (opcode) {
+            case 0b0101: //AND
+            case 0b0001: //ADD
                 importantBits = new short[5];
                 importantBits[0] = opcode;
-                importantBits[1] = Bits.getBitRange(address, 9, 12);
-                importantBits[2] = Bits.getBitRange(address, 6, 9);
+                importantBits[1] = (short) dr;
+                importantBits[2] = (short) Decoder.sr(entry);
                 /* A switch between imm and SR mode */
-                short fifthBit = Bits.getBitRange(address, 5, 6);
-                if (fifthBit == 1) {
-                    importantBits[4] = Bits.getBitRange(address, 0, 5);
-
-                } else {
-                    importantBits[4] = Bits.getBitRange(address, 0, 3);
-                }
-                importantBits[3] = fifthBit;
+                importantBits[3] = (short) Decoder.flag(entry);
+                importantBits[4] = Decoder.operand(entry);
                 break;
-            case BRX:
+            case 0b0000: //BRX
                 importantBits = new short[5];
                 importantBits[0] = opcode;
-                importantBits[1] = Bits.getBitRange(address, 11, 12);
-                importantBits[2] = Bits.getBitRange(address, 10, 11);
-                importantBits[3] = Bits.getBitRange(address, 9, 10);
-                importantBits[4] = Bits.getBitRange(address, 0, 9);
+                importantBits[1] = (short) (dr >>> 2);
+                importantBits[2] = (short) ((dr >>> 1) & 1);
+                importantBits[3] = (short) (dr & 1);
+                importantBits[4] = Decoder.operand(entry);
                 break;
-            case DBUG:
-            case RET:
+            case 0b1000: //DBUG
+            case 0b1101: //RET
                 importantBits = new short[1];
                 importantBits[0] = opcode;
                 break;
-            case JSR:
+            case 0b0100: //JSR
                 importantBits = new short[3];
                 importantBits[0] = opcode;
-                importantBits[1] = Bits.getBitRange(address, 11, 12);
-                importantBits[2] = Bits.getBitRange(address, 0, 9);
+                importantBits[1] = (short) (dr >>> 2);
+                importantBits[2] = Decoder.operand(entry);
                 break;
-            case JSRR:
+            case 0b1100: //JSRR
                 importantBits = new short[4];
                 importantBits[0] = opcode;
-                importantBits[1] = Bits.getBitRange(address, 11, 12);
-                importantBits[2] = Bits.getBitRange(address, 6, 9);
-                importantBits[3] = Bits.getBitRange(address, 0, 6);
+                importantBits[1] = (short) (dr >>> 2);
+                importantBits[2] = (short) Decoder.sr(entry);
+                importantBits[3] = Decoder.operand(entry);
                 break;
-            case LD:
-            case LDI:
-            case LEA:
-            case ST:
-            case STI:
+            case 0b0010: //LD
+            case 0b1010: //LDI
+            case 0b1110: //LEA
+            case 0b0011: //ST
+            case 0b1011: //STI
                 importantBits = new short[3];
                 importantBits[0] = opcode;
-                importantBits[1] = Bits.getBitRange(address, 9, 12);
-                importantBits[2] = Bits.getBitRange(address, 0, 9);
+                importantBits[1] = (short) dr;
+                importantBits[2] = Decoder.operand(entry);
                 break;
-            case LDR:
-            case STR:
+            case 0b0110: //LDR
+            case 0b0111: //STR
                 importantBits = new short[4];
                 importantBits[0] = opcode;
-                importantBits[1] = Bits.getBitRange(address, 9, 12);
-                importantBits[2] = Bits.getBitRange(address, 6, 9);
-                importantBits[3] = Bits.getBitRange(address, 0, 6);
+                importantBits[1] = (short) dr;
+                importantBits[2] = (short) Decoder.sr(entry);
+                importantBits[3] = Decoder.operand(entry);
                 break;
-            case NOT:
+            case 0b1001: //NOT
                 importantBits = new short[3];
                 importantBits[0] = opcode;
-                importantBits[1] = Bits.getBitRange(address, 9, 12);
-                importantBits[2] = Bits.getBitRange(address, 6, 9);
+                importantBits[1] = (short) dr;
+                importantBits[2] = (short) Decoder.sr(entry);
                 break;
-            case TRAP:
+            case 0b1111: //TRAP
                 importantBits = new short[2];
                 importantBits[0] = opcode;
-                importantBits[1] = Bits.getBitRange(address, 0, 8);
+                importantBits[1] = Decoder.operand(entry);
                 break;
             default:
                 importantBits = new short[5];
@@ -311,7 +621,7 @@ public class MainMemory {
                 importantBits[2] = 0b0;
                 importantBits[3] = 0b0;
                 importantBits[4] = 0b000000000;
-                ErrorHandler.queueError(
+                this.getErrorSink().queueError(
                         ErrorHandler.ERROR_TYPE.INSTRUCTION_PARSE_ERROR);
         }
         return importantBits;
@@ -0,0 +1,105 @@
+package simulator;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+
+/**
+ * A console kept entirely in memory: input is a queue of lines given up
+ * front or added while the machine runs, and output is collected in a
+ * buffer. Used to run machines without any files or streams, such as the
+ * jobs of a SimulationFarm.
+ */
+public class MemoryTrapIO implements TrapIO {
+
+    /**
+     * The input lines not yet read.
+     */
+    private final Deque<String> input = new ArrayDeque<>();
+
+    /**
+     * Everything written so far.
+     */
+    private final StringBuilder output = new StringBuilder();
+
+    /**
+     * Creates a console with some input lines.
+     *
+     * @param lines
+     *            The lines to read, in order
+     */
+    public MemoryTrapIO(String... lines) {
+        Collections.addAll(this.input, lines);
+    }
+
+    /**
+     * Creates a console reading the lines of a text.
+     *
+     * @param text
+     *            The input, with lines separated by \n, \r\n or \r
+     * @return The console
+     */
+    public static MemoryTrapIO ofText(String text) {
+        MemoryTrapIO console = new MemoryTrapIO();
+        text.lines().forEach(console.input::add);
+        return console;
+    }
+
+    /**
+     * Adds a line to the end of the input.
+     *
+     * @param line
+     *            The line to read after the lines already queued
+     */
+    public void addInput(String line) {
+        this.input.add(line);
+    }
+
+    /**
+     * Writes text without ending the line.
+     *
+     * @param text
+     *            The text to write
+     */
+    @Override
+    public void print(String text) {
+        this.output.append(text);
+    }
+
+    /**
+     * Writes text followed by a line separator.
+     *
+     * @param text
+     *            The text to write
+     */
+    @Override
+    public void println(String text) {
+        this.output.append(text).append(System.lineSeparator());
+    }
+
+    /**
+     * Reads the next queued line.
+     *
+     * @return The line, or null if no lines are left
+     */
+    @Override
+    public String readLine() {
+        return this.input.poll();
+    }
+
+    /**
+     * Gets everything written so far.
+     *
+     * @return The output
+     */
+    public String getOutput() {
+        return this.output.toString();
+    }
+
+    /**
+     * Forgets everything written so far.
+     */
+    public void clearOutput() {
+        this.output.setLength(0);
+    }
+}
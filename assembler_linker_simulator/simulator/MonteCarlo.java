@@ -0,0 +1,235 @@
+package simulator;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.LongSummaryStatistics;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Runs the same program many times on a SimulationFarm, each run with its RND
+ * trap seeded differently, and summarizes how the runs ended: how many
+ * stopped for each reason, how many instructions they took, the spread of
+ * their final registers and the outputs they printed most often. The seed of
+ * every run is drawn from one master seed, so a whole experiment can be
+ * repeated exactly.
+ */
+public final class MonteCarlo {
+
+    /**
+     * The number of distinct outputs listed by print().
+     */
+    private static final int OUTPUTS_SHOWN = 5;
+
+    /**
+     * The number of runs summarized, for each way a run can stop.
+     */
+    private final Map<SimulationResult.Status, Integer> statuses =
+            new EnumMap<>(SimulationResult.Status.class);
+
+    /**
+     * The instruction counts of the runs summarized.
+     */
+    private final LongSummaryStatistics instructions =
+            new LongSummaryStatistics();
+
+    /**
+     * The sum of the final value of each general register over all runs.
+     */
+    private final double[] registerSums = new double[8];
+
+    /**
+     * The sum of the squared final value of each general register over all
+     * runs.
+     */
+    private final double[] registerSquares = new double[8];
+
+    /**
+     * The number of runs that printed each distinct output.
+     */
+    private final Map<String, Integer> outputs = new HashMap<>();
+
+    /**
+     * Creates one job per seed for a program, with the seeds drawn from a
+     * master seed.
+     *
+     * @param objectFilePath
+     *            The path of the object file or snapshot to run
+     * @param maxInstructions
+     *            The maximum number of instructions each run may execute
+     * @param input
+     *            The input every run reads, lines separated by newlines
+     * @param seed
+     *            The master seed the seed of each run is drawn from
+     * @param runs
+     *            The number of runs
+     * @return The jobs, in the order their seeds were drawn
+     */
+    public static List<SimulationJob> jobs(String objectFilePath,
+            long maxInstructions, String input, long seed, int runs) {
+        SplittableRandom master = new SplittableRandom(seed);
+        List<SimulationJob> jobs = new ArrayList<>();
+        for (int i = 0; i < runs; i++) {
+            SimulationJob job = new SimulationJob(objectFilePath,
+                    maxInstructions);
+            job.setInput(input);
+            job.setSeed(master.nextLong());
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    /**
+     * Adds the result of a run to the summary.
+     *
+     * @param result
+     *            The result of a finished run
+     */
+    public void add(SimulationResult result) {
+        this.statuses.merge(result.getStatus(), 1, Integer::sum);
+        this.instructions.accept(result.getInstructionCount());
+        for (int i = 0; i < this.registerSums.length; i++) {
+            double value = result.getRegister(i);
+            this.registerSums[i] += value;
+            this.registerSquares[i] += value * value;
+        }
+        this.outputs.merge(result.getOutput(), 1, Integer::sum);
+    }
+
+    /**
+     * Gets the number of runs summarized.
+     *
+     * @return The number of results added
+     */
+    public long getRuns() {
+        return this.instructions.getCount();
+    }
+
+    /**
+     * Gets the number of runs that stopped for a reason.
+     *
+     * @param status
+     *            The reason the runs stopped
+     * @return The number of runs that stopped for it
+     */
+    public int getCount(SimulationResult.Status status) {
+        return this.statuses.getOrDefault(status, 0);
+    }
+
+    /**
+     * Gets the mean final value of a general register over all runs.
+     *
+     * @param index
+     *            The number of the register, 0-7
+     * @return The mean signed value of the register, 0 if there are no runs
+     */
+    public double getMean(int index) {
+        long runs = this.getRuns();
+        return runs == 0 ? 0 : this.registerSums[index] / runs;
+    }
+
+    /**
+     * Gets the standard deviation of the final value of a general register
+     * over all runs.
+     *
+     * @param index
+     *            The number of the register, 0-7
+     * @return The population standard deviation of the register, 0 if there
+     *         are no runs
+     */
+    public double getStandardDeviation(int index) {
+        long runs = this.getRuns();
+        if (runs == 0) {
+            return 0;
+        }
+        double mean = this.getMean(index);
+        return Math.sqrt(Math.max(0,
+                this.registerSquares[index] / runs - mean * mean));
+    }
+
+    /**
+     * Prints the summary of the runs.
+     *
+     * @param out
+     *            The stream to print to
+     */
+    public void print(PrintStream out) {
+        out.println(this.getRuns() + " runs");
+        for (Map.Entry<SimulationResult.Status, Integer> entry : this.statuses
+                .entrySet()) {
+            out.printf("  %-17s %d%n", entry.getKey(), entry.getValue());
+        }
+        if (this.getRuns() > 0) {
+            out.printf("Instructions: min %d, mean %.1f, max %d%n",
+                    this.instructions.getMin(), this.instructions.getAverage(),
+                    this.instructions.getMax());
+        }
+        out.println("Register      Mean   Std dev");
+        for (int i = 0; i < this.registerSums.length; i++) {
+            out.printf("R%d      %10.2f %9.2f%n", i, this.getMean(i),
+                    this.getStandardDeviation(i));
+        }
+
+        //Most common outputs first
+        List<Map.Entry<String, Integer>> common =
+                new ArrayList<>(this.outputs.entrySet());
+        common.sort(Map.Entry.<String, Integer>comparingByValue().reversed()
+                .thenComparing(Map.Entry.comparingByKey()));
+        out.println(this.outputs.size() + " distinct outputs");
+        for (int i = 0; i < Math.min(OUTPUTS_SHOWN, common.size()); i++) {
+            String text = common.get(i).getKey().strip().replace("\n", " | ");
+            out.printf("  %6d  %s%n", common.get(i).getValue(), text);
+        }
+    }
+
+    /**
+     * Runs a program once per seed on a farm using every processor and
+     * prints the summary of the runs.
+     *
+     * @param args
+     *            The number of runs, the master seed, the instruction limit
+     *            of every run and the path of the object file to run,
+     *            optionally followed by the path of a file every run reads
+     *            its input from
+     * @throws InterruptedException
+     *             If interrupted while waiting for the runs
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 4) {
+            System.out.println("Usage: MonteCarlo <runs> <seed> "
+                    + "<instruction limit> <object file> [input file]");
+            return;
+        }
+        int runs = Integer.parseInt(args[0]);
+        long seed = Long.parseLong(args[1]);
+        long limit = Long.parseLong(args[2]);
+        String input = "";
+        if (args.length > 4) {
+            try {
+                input = new String(Files.readAllBytes(Paths.get(args[4])),
+                        StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                System.out.println("Error: Could not read input file "
+                        + args[4] + ".");
+                return;
+            }
+        }
+
+        //Summarize each run as it finishes, so that the outputs of the runs
+        //are not all held at once
+        MonteCarlo summary = new MonteCarlo();
+        try (SimulationFarm farm = new SimulationFarm()) {
+            farm.runEach(jobs(args[3], limit, input, seed, runs), summary::add);
+            summary.print(System.out);
+            System.out.printf("%.0f instructions/s%n",
+                    farm.getInstructionsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Describes and writes object images, a binary form of an object file that the
+ * Loader copies straight into memory. An image is laid out big-endian as:
+ *
+ * <pre>
+ * offset  size  contents
+ *      0     4  MAGIC
+ *      4     2  VERSION
+ *      6     6  segment name in ASCII, padded with spaces
+ *     12     2  initial load address
+ *     14     2  segment length
+ *     16     2  execution address
+ *     18     4  number of words in the payload, segment length + 1
+ *     22   2*n  payload, every word of the segment in address order
+ *   22+2n    4  CRC-32 of the payload
+ * </pre>
+ *
+ * Words of the segment that no text record of the object file wrote are
+ * stored as 0, which is what the Loader leaves them as.
+ */
+public final class ObjectImage {
+
+    /**
+     * The first four bytes of every image, "SIMG" in ASCII. Text object files
+     * always start with H, so the two formats cannot be mistaken.
+     */
+    public static final int MAGIC = 0x53494D47;
+
+    /**
+     * The version of the layout written by this class.
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * The number of bytes before the payload.
+     */
+    static final int HEADER_LENGTH = 22;
+
+    /**
+     * The number of bytes after the payload.
+     */
+    static final int TRAILER_LENGTH = 4;
+
+    /**
+     * The number of characters in a segment name.
+     */
+    static final int NAME_LENGTH = 6;
+
+    /**
+     * Not meant to be instantiated.
+     */
+    private ObjectImage() {
+    }
+
+    /**
+     * Checks whether the contents of a file start with the image magic
+     * number.
+     *
+     * @param contents
+     *            The contents of the file
+     * @return True if the file is an object image
+     */
+    static boolean isImage(ByteBuffer contents) {
+        return contents.limit() >= 4 && contents.getInt(0) == MAGIC;
+    }
+
+    /**
+     * Computes the checksum of a payload.
+     *
+     * @param payload
+     *            The payload bytes, from its position to its limit. The
+     *            position is left unchanged.
+     * @return The CRC-32 of the payload
+     */
+    static int checksum(ByteBuffer payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Writes an object image.
+     *
+     * @param imagePath
+     *            The path of the image to write
+     * @param segmentName
+     *            The segment name, truncated or padded to 6 characters
+     * @param initialLoadAddress
+     *            The initial load address of the segment
+     * @param segmentLength
+     *            The segment length
+     * @param executionAddress
+     *            The address execution starts at
+     * @param words
+     *            The segment length + 1 words of the segment in address order
+     * @throws IOException
+     *             If the image cannot be written
+     */
+    public static void write(String imagePath, String segmentName,
+            short initialLoadAddress, short segmentLength,
+            short executionAddress, short[] words) throws IOException {
+        String name = String.format("%-" + NAME_LENGTH + "s", segmentName)
+                .substring(0, NAME_LENGTH);
+        ByteBuffer image = ByteBuffer
+                .allocate(HEADER_LENGTH + 2 * words.length + TRAILER_LENGTH)
+                .order(ByteOrder.BIG_ENDIAN);
+        image.putInt(MAGIC).putShort(VERSION)
+                .put(name.getBytes(StandardCharsets.US_ASCII))
+                .putShort(initialLoadAddress).putShort(segmentLength)
+                .putShort(executionAddress).putInt(words.length);
+        image.asShortBuffer().put(words);
+        ByteBuffer payload = image.duplicate();
+        payload.position(HEADER_LENGTH).limit(HEADER_LENGTH + 2 * words.length);
+        image.position(payload.limit());
+        image.putInt(checksum(payload));
+        image.flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(imagePath),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (image.hasRemaining()) {
+                channel.write(image);
+            }
+        }
+    }
+
+    /**
+     * Loads an object file and writes it back out as an object image.
+     *
+     * @param objectFilePath
+     *            The path of the object file, text or image
+     * @param imagePath
+     *            The path of the image to write
+     * @param console
+     *            The console loading errors are printed to
+     * @return True if the object file loaded and the image was written
+     */
+    public static boolean convert(String objectFilePath, String imagePath,
+            TrapIO console) {
+        MainMemory memory = new MainMemory();
+        Loader loader = new Loader(memory, objectFilePath, console);
+        if (!loader.loadToMemory()) {
+            return false;
+        }
+        try {
+            write(imagePath, loader.getCharacterSegmentName(),
+                    loader.getInitialLoadAddress(), loader.getSegmentLength(),
+                    loader.getStartingExecutionAddress(),
+                    memory.memory.clone());
+        } catch (IOException e) {
+            console.println("Error: Could Not Write Object Image");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Converts an object file to an object image.
+     *
+     * @param args
+     *            The path of the object file followed by the path of the
+     *            image to write
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.out.println("Usage: ObjectImage <object file> <image>");
+            return;
+        }
+        if (convert(args[0], args[1], new ConsoleTrapIO())) {
+            System.out.println("Wrote " + args[1]);
+        }
+    }
+}
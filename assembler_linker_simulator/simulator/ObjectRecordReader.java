@@ -0,0 +1,149 @@
+package simulator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the records of a text object file one line at a time straight out of
+ * a byte buffer. Hexadecimal fields are validated and decoded in one pass
+ * through a lookup table, so reading a record creates no objects. Lines end at
+ * \n, \r\n or \r, the same as with Scanner.nextLine(), and every byte is one
+ * character, so object files are expected to be ASCII.
+ */
+final class ObjectRecordReader {
+
+    /**
+     * The value of each byte as a hexadecimal digit, or -1 if it is not one.
+     * Like Bits.isValidHexString(), only digits and upper-case letters are
+     * accepted.
+     */
+    private static final byte[] HEX_VALUES = new byte[256];
+
+    //Fill in the digits of the lookup table
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int c = '0'; c <= '9'; c++) {
+            HEX_VALUES[c] = (byte) (c - '0');
+        }
+        for (int c = 'A'; c <= 'F'; c++) {
+            HEX_VALUES[c] = (byte) (c - 'A' + 10);
+        }
+    }
+
+    /**
+     * The contents of the object file.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The index of the first byte after the current line and its separator.
+     */
+    private int next;
+
+    /**
+     * The index of the first byte of the current line.
+     */
+    private int start;
+
+    /**
+     * The index of the line separator ending the current line.
+     */
+    private int end;
+
+    /**
+     * Creates a reader positioned before the first line of a file.
+     *
+     * @param buffer
+     *            The contents of the object file, from its position to its
+     *            limit
+     */
+    ObjectRecordReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.next = buffer.position();
+    }
+
+    /**
+     * Moves to the next line.
+     *
+     * @return True if there was another line, false at the end of the file
+     */
+    boolean nextLine() {
+        int limit = this.buffer.limit();
+        if (this.next >= limit) {
+            return false;
+        }
+        int i = this.next;
+        while (i < limit && this.buffer.get(i) != '\n'
+                && this.buffer.get(i) != '\r') {
+            i++;
+        }
+        this.start = this.next;
+        this.end = i;
+        if (i + 1 < limit && this.buffer.get(i) == '\r'
+                && this.buffer.get(i + 1) == '\n') {
+            i++;
+        }
+        this.next = i + 1;
+        return true;
+    }
+
+    /**
+     * Gets the length of the current line.
+     *
+     * @return The number of characters in the line, without its separator
+     */
+    int length() {
+        return this.end - this.start;
+    }
+
+    /**
+     * Gets a character of the current line.
+     *
+     * @param index
+     *            The index of the character, less than length()
+     * @return The character
+     */
+    char charAt(int index) {
+        return (char) (this.buffer.get(this.start + index) & 0xFF);
+    }
+
+    /**
+     * Decodes a hexadecimal field of the current line.
+     *
+     * @param from
+     *            The index of the first digit
+     * @param to
+     *            The index after the last digit, at most 4 digits after from
+     *            and at most length()
+     * @return The value of the field, or -1 if a character is not a digit or
+     *         an upper-case hexadecimal letter
+     */
+    int hexValue(int from, int to) {
+        int value = 0;
+        for (int i = this.start + from; i < this.start + to; i++) {
+            int digit = HEX_VALUES[this.buffer.get(i) & 0xFF];
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Copies part of the current line into a string, for segment names and
+     * error messages.
+     *
+     * @param from
+     *            The index of the first character
+     * @param to
+     *            The index after the last character, at most length()
+     * @return The characters as a string
+     */
+    String substring(int from, int to) {
+        byte[] characters = new byte[to - from];
+        this.buffer.get(this.start + from, characters);
+        return new String(characters, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,399 @@
+package simulator;
+
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * A MainMemory stored as 512-word pages of the address space, the same pages
+ * getPage() returns, instead of one array sized to the segment. Pages of the
+ * segment that have never been written share a single zeroed page, and fork()
+ * creates a copy of the memory that shares every page with this one until
+ * either of them writes to it, so many child machines can be created from one
+ * loaded program at the cost of the pages they actually change.
+ *
+ * Reads, writes and errors behave exactly as in MainMemory: only addresses
+ * from the initial load address to the end of the segment can be accessed.
+ *
+ * The pages of the segment can also be left empty and read in from a page
+ * source the first time they are accessed, so that a program starts running
+ * before all of it has been loaded.
+ */
+public class PagedMemory extends MainMemory {
+
+    /**
+     * Supplies the initial words of a page of the segment the first time the
+     * page is accessed.
+     */
+    public interface PageSource {
+
+        /**
+         * Fills a page with the words the program loads into it. Called at
+         * most once per page and memory, possibly from several threads for
+         * memories forked from one another.
+         *
+         * @param firstAddress
+         *            The unsigned address of the first word of the page
+         * @param page
+         *            The zeroed page to fill, PAGE_SIZE words long
+         */
+        void readPage(int firstAddress, short[] page);
+    }
+
+    /**
+     * The number of words in a page.
+     */
+    static final int PAGE_SIZE = 512;
+
+    /**
+     * The number of bits of an address that select the word in its page.
+     */
+    private static final int PAGE_SHIFT = 9;
+
+    /**
+     * The number of pages in the address space.
+     */
+    private static final int PAGE_COUNT = 0x10000 / PAGE_SIZE;
+
+    /**
+     * The highest address plus one.
+     */
+    private static final int ADDRESS_COUNT = 0x10000;
+
+    /**
+     * The page shared by every page of a segment that has not been written.
+     * It is never written to.
+     */
+    private static final short[] ZERO_PAGE = new short[PAGE_SIZE];
+
+    /**
+     * The pages of the address space, indexed by page number. Pages outside
+     * of the segment are null.
+     */
+    private short[][] pages;
+
+    /**
+     * Whether each page belongs to this memory alone and can be written in
+     * place. Pages that are not owned are copied before they are written.
+     */
+    private boolean[] ownedPages;
+
+    /**
+     * The number of words in the segment.
+     */
+    private int length;
+
+    /**
+     * Reads in the pages of the segment that have not been accessed yet, or
+     * null if every page of the segment is present.
+     */
+    private PageSource source;
+
+    /**
+     * Constructs a PagedMemory object with initial load address of 0 and a
+     * segment length of 10, like MainMemory().
+     */
+    public PagedMemory() {
+        super(null, (short) 0);
+        this.length = 10;
+        this.clearPages();
+    }
+
+    /**
+     * Constructs a copy of another paged memory that shares all of its pages.
+     *
+     * @param parent
+     *            The memory to copy
+     */
+    private PagedMemory(PagedMemory parent) {
+        super(null, parent.initialAddress);
+        this.length = parent.length;
+        this.pages = parent.pages.clone();
+        this.ownedPages = new boolean[PAGE_COUNT];
+        this.source = parent.source;
+        this.setErrorSink(parent.getErrorSink());
+    }
+
+    /**
+     * Creates a copy of this memory that shares every page with it. Whichever
+     * of the two writes to a shared page first gets its own copy of it, so
+     * neither sees the other's writes. The copy reports errors to the same
+     * sink as this memory until it is given its own, and has no code write
+     * listener or breakpoints.
+     *
+     * @return The copy of this memory
+     */
+    public PagedMemory fork() {
+        PagedMemory child = new PagedMemory(this);
+        Arrays.fill(this.ownedPages, false);
+        return child;
+    }
+
+    /**
+     * Empties every page of the segment and reads each one in from a page
+     * source the first time it is accessed. Setting the initial load address
+     * or the segment length afterwards clears the segment and forgets the
+     * source.
+     *
+     * @param source
+     *            The source of the words of the segment
+     */
+    public void setPageSource(PageSource source) {
+        this.clearPages();
+        this.source = source;
+        int first = Short.toUnsignedInt(this.initialAddress);
+        int end = Math.min(first + this.length, ADDRESS_COUNT);
+        if (end > first) {
+            Arrays.fill(this.pages, first >>> PAGE_SHIFT,
+                    ((end - 1) >>> PAGE_SHIFT) + 1, null);
+        }
+    }
+
+    /**
+     * Counts the pages of the segment that have not been read in from the
+     * page source yet.
+     *
+     * @return The number of pages still to be read in, 0 without a source
+     */
+    public int getMissingPages() {
+        if (this.source == null) {
+            return 0;
+        }
+        int missing = 0;
+        int first = Short.toUnsignedInt(this.initialAddress);
+        int end = Math.min(first + this.length, ADDRESS_COUNT);
+        for (int page = first >>> PAGE_SHIFT; end > first
+                && page <= (end - 1) >>> PAGE_SHIFT; page++) {
+            if (this.pages[page] == null) {
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Sets the initial address for loading from memory and clears the
+     * segment.
+     *
+     * @param initialAddress
+     *            The initial address of the main memory. Note that any valid
+     *            short, including a "negative" number is appropriate here
+     */
+    @Override
+    public void setInitialLoadAddress(short initialAddress) {
+        this.initialAddress = initialAddress;
+        this.clearPages();
+    }
+
+    /**
+     * Sets the segment length of main memory and clears the segment.
+     *
+     * @param segmentLength
+     *            The segment length of the main memory. Note that any valid
+     *            short, including a "negative" number is appropriate here
+     */
+    @Override
+    public void setSegmentLength(short segmentLength) {
+        this.length = Short.toUnsignedInt(segmentLength) + 1;
+        this.clearPages();
+    }
+
+    /**
+     * Fills the segment from a buffer of words, one bulk copy per page.
+     *
+     * @param words
+     *            The words of the program in address order, at least as many
+     *            as the segment holds
+     */
+    @Override
+    void loadWords(ShortBuffer words) {
+        int first = Short.toUnsignedInt(this.initialAddress);
+        int end = Math.min(first + this.length, ADDRESS_COUNT);
+        for (int address = first; address < end;) {
+            int page = address >>> PAGE_SHIFT;
+            int offset = address & (PAGE_SIZE - 1);
+            int count = Math.min(PAGE_SIZE - offset, end - address);
+            words.get(this.writablePage(page), offset, count);
+            address += count;
+        }
+    }
+
+    /**
+     * Gets the words of the segment in address order.
+     *
+     * @return A new array holding the segment
+     */
+    @Override
+    short[] words() {
+        short[] words = new short[this.length];
+        int first = Short.toUnsignedInt(this.initialAddress);
+        int end = Math.min(first + this.length, ADDRESS_COUNT);
+        for (int address = first; address < end; address++) {
+            words[address - first] = this.page(address >>> PAGE_SHIFT)[address
+                    & (PAGE_SIZE - 1)];
+        }
+        return words;
+    }
+
+    /**
+     * Writes a given value to the desired spot in memory, copying its page
+     * first if it is shared.
+     *
+     * @param address
+     *            The address to write to
+     * @param data
+     *            The value to be written into memory
+     */
+    @Override
+    public void writeToMemory(short address, short data) {
+        int trueAddress = Short.toUnsignedInt(address);
+        if (this.contains(trueAddress)) {
+            if (this.undoLog != null) {
+                this.undoLog.written(trueAddress, this.page(trueAddress
+                        >>> PAGE_SHIFT)[trueAddress & (PAGE_SIZE - 1)]);
+            }
+            this.writablePage(trueAddress >>> PAGE_SHIFT)[trueAddress
+                    & (PAGE_SIZE - 1)] = data;
+            this.writes++;
+            this.lastWrite = trueAddress;
+            if (this.codeWords != null && this.codeWords[trueAddress]) {
+                this.codeWriteListener.codeWritten(trueAddress);
+            }
+            if (this.breakpoints != null) {
+                this.breakpoints.written(trueAddress);
+            }
+        } else {
+            this.getErrorSink().queueError(
+                    ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS, trueAddress);
+        }
+    }
+
+    /**
+     * Returns the information at the given location in memory.
+     *
+     * @param address
+     *            The address to read from
+     * @return The value in the desired spot in memory, as a short
+     */
+    @Override
+    public short readFromMemory(short address) {
+        int trueAddress = Short.toUnsignedInt(address);
+        if (this.contains(trueAddress)) {
+            this.reads++;
+            if (this.breakpoints != null) {
+                this.breakpoints.read(trueAddress);
+            }
+            return this.page(trueAddress >>> PAGE_SHIFT)[trueAddress
+                    & (PAGE_SIZE - 1)];
+        }
+        this.getErrorSink().queueError(
+                ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS, trueAddress);
+        return 0;
+    }
+
+    /**
+     * Checks whether an address falls inside of the segment.
+     *
+     * @param address
+     *            The address to check as an unsigned value
+     * @return True if the address can be read without an invalid memory
+     *         access
+     */
+    @Override
+    public boolean contains(int address) {
+        int index = address - Short.toUnsignedInt(this.initialAddress);
+        return index < this.length && index >= 0;
+    }
+
+    /**
+     * Gets the part of the segment in the page of the specified address, with
+     * the same bounds and errors as MainMemory.getPage().
+     *
+     * @param address
+     *            A valid address that the program has access to
+     * @return A copy of the words of the page that are in the segment
+     */
+    @Override
+    public short[] getPage(short address) {
+        int trueAddress = Short.toUnsignedInt(address);
+        int trueInitialAddress = Short.toUnsignedInt(this.initialAddress);
+        int pageBottom = trueAddress & ~(PAGE_SIZE - 1);
+        int low = Math.max(pageBottom, trueInitialAddress);
+        int high = Math.min(pageBottom + PAGE_SIZE,
+                trueInitialAddress + this.length);
+        if (high < low || trueAddress < trueInitialAddress) {
+            this.getErrorSink().queueError(
+                    ErrorHandler.ERROR_TYPE.INVALID_MEMORY_ACCESS, trueAddress);
+            return new short[] { (short) -1 };
+        }
+        short[] words = new short[high - low];
+        if (high > low) {
+            System.arraycopy(this.page(trueAddress >>> PAGE_SHIFT),
+                    low - pageBottom, words, 0, high - low);
+        }
+        return words;
+    }
+
+    /**
+     * Replaces every page of the segment with the shared zeroed page and
+     * forgets any marked code and page source.
+     */
+    private void clearPages() {
+        this.pages = new short[PAGE_COUNT][];
+        this.ownedPages = new boolean[PAGE_COUNT];
+        this.source = null;
+        int first = Short.toUnsignedInt(this.initialAddress);
+        int end = Math.min(first + this.length, ADDRESS_COUNT);
+        if (end > first) {
+            Arrays.fill(this.pages, first >>> PAGE_SHIFT,
+                    ((end - 1) >>> PAGE_SHIFT) + 1, ZERO_PAGE);
+        }
+        this.forgetCode();
+    }
+
+    /**
+     * Gets a page that can be written in place, copying it first if it is
+     * shared.
+     *
+     * @param page
+     *            The number of a page of the segment
+     * @return The page, owned by this memory
+     */
+    private short[] writablePage(int page) {
+        if (this.pages[page] == null) {
+            return this.readPage(page);
+        }
+        if (!this.ownedPages[page]) {
+            this.pages[page] = this.pages[page].clone();
+            this.ownedPages[page] = true;
+        }
+        return this.pages[page];
+    }
+
+    /**
+     * Gets a page of the segment for reading, reading it in from the page
+     * source if it has not been accessed yet.
+     *
+     * @param page
+     *            The number of a page of the segment
+     * @return The page
+     */
+    private short[] page(int page) {
+        short[] words = this.pages[page];
+        return words != null ? words : this.readPage(page);
+    }
+
+    /**
+     * Reads in a page of the segment from the page source.
+     *
+     * @param page
+     *            The number of a page of the segment that is not present
+     * @return The page, owned by this memory
+     */
+    private short[] readPage(int page) {
+        short[] words = new short[PAGE_SIZE];
+        this.source.readPage(page << PAGE_SHIFT, words);
+        this.pages[page] = words;
+        this.ownedPages[page] = true;
+        return words;
+    }
+}
@@ -0,0 +1,484 @@
+package simulator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Counts how often every address is executed and how often every BRX
+ * instruction is taken, for batches run by Interpreter.run() or
+ * ThreadedCode.run() with a profiler, and how often the pairs fused by
+ * ThreadedCode were executed by one call. Counters are only updated when an
+ * instruction is not followed by the next address, which also tells which
+ * branches were taken, and the execution count of every address is worked
+ * out from them when it is asked for, so straight-line code is profiled for
+ * the cost of one comparison per instruction.
+ * At the end of a run it prints the most executed addresses and the loops
+ * closed by the most taken backward branches, annotated with the source lines
+ * of the assembler's listing file when one has been read.
+ */
+public final class Profiler {
+
+    /**
+     * The number of addresses printed by printReport() by default.
+     */
+    public static final int DEFAULT_REPORT_LENGTH = 20;
+
+    /**
+     * The number of addresses in the address space.
+     */
+    private static final int ADDRESS_COUNT = 0x10000;
+
+    /**
+     * Matches a line of a listing file that holds a word, capturing its
+     * address and its source text.
+     */
+    private static final Pattern LISTING_LINE = Pattern
+            .compile("^\\(([0-9A-F]{4})\\) .*?\\(\\d+\\)  (.*)$");
+
+    /**
+     * The address recorded before any instruction, chosen so that no address
+     * follows it.
+     */
+    static final int NONE = -2;
+
+    /**
+     * How many times the instruction at each address has been executed,
+     * worked out from entries and exits by countAll().
+     */
+    private final int[] counts = new int[ADDRESS_COUNT];
+
+    /**
+     * Whether counts is up to date with the instructions recorded.
+     */
+    private boolean counted = true;
+
+    /**
+     * How many times each address was executed other than by falling through
+     * from the previous address, less the times the previous address fell
+     * through to it and a batch then started somewhere else.
+     */
+    private final int[] entries = new int[ADDRESS_COUNT];
+
+    /**
+     * How many times the instruction at each address left the program
+     * counter on another address than the next one, which for a BRX
+     * instruction is how many times it branched.
+     */
+    private final int[] exits = new int[ADDRESS_COUNT];
+
+    /**
+     * The address of the last instruction recorded if it fell through to the
+     * next address, which has not been executed yet, or NONE.
+     */
+    private int last = NONE;
+
+    /**
+     * The source line of each address from the listing file, or null where
+     * none is known.
+     */
+    private final String[] source = new String[ADDRESS_COUNT];
+
+    /**
+     * How many times each kind of fused pair was executed by one call.
+     */
+    private final long[] fusionHits = new long[ThreadedCode.Fusion
+            .values().length];
+
+    /**
+     * How many times the first instruction of a fused pair was executed on
+     * its own, because the batch ended after it or it could not be fused
+     * with the next instruction that time.
+     */
+    private final long[] fusionMisses = new long[ThreadedCode.Fusion
+            .values().length];
+
+    /**
+     * The control flow graph refined with the jumps recorded, or null if
+     * there is none.
+     */
+    private ControlFlowGraph graph;
+
+    /**
+     * Records an executed instruction.
+     *
+     * @param address
+     *            The unsigned address the instruction was fetched from
+     * @param pc
+     *            The program counter after the instruction executed
+     */
+    void record(int address, int pc) {
+        int previous = this.resume(address);
+        if (address != previous + 1) {
+            this.jumped(previous, address);
+        }
+        this.stopped(address, pc);
+    }
+
+    /**
+     * Starts recording a batch. Interpreter.run() and ThreadedCode.run() keep
+     * the address of the previous instruction in a local from then on, and
+     * only call the profiler when an instruction does not follow it.
+     *
+     * @param pc
+     *            The program counter the batch starts from
+     * @return The address of the instruction before the batch if it fell
+     *         through to the program counter, or NONE
+     */
+    int resume(int pc) {
+        this.counted = false;
+        int previous = this.last;
+        if (previous == NONE || pc == previous + 1) {
+            return previous;
+        }
+        //The address the previous instruction fell through to never ran
+        this.entries[previous + 1]--;
+        this.last = NONE;
+        return NONE;
+    }
+
+    /**
+     * Records that an instruction was not executed by falling through from
+     * the instruction before it, without telling the control flow graph.
+     *
+     * @param from
+     *            The unsigned address of the instruction before it, which
+     *            jumped to it, or NONE if a batch started with it
+     * @param to
+     *            The unsigned address of the instruction
+     */
+    void jumped(int from, int to) {
+        this.entries[to]++;
+        if (from != NONE) {
+            this.exits[from]++;
+        }
+    }
+
+    /**
+     * Records the last instruction of a batch.
+     *
+     * @param address
+     *            The unsigned address of the instruction
+     * @param pc
+     *            The program counter after the instruction executed
+     */
+    void stopped(int address, int pc) {
+        if (this.graph != null) {
+            this.graph.recordJump(address, pc);
+        }
+        if (pc == address + 1) {
+            this.last = address;
+        } else {
+            this.last = NONE;
+            this.exits[address]++;
+        }
+    }
+
+    /**
+     * Sets a control flow graph to refine with the computed jumps the
+     * profiled program takes.
+     *
+     * @param graph
+     *            The graph of the profiled program, or null to stop refining
+     */
+    public void setControlFlowGraph(ControlFlowGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Checks whether a control flow graph is refined with the jumps
+     * recorded. A computed jump to the next address has to be passed on to
+     * the graph too, so then every instruction has to be recorded.
+     *
+     * @return True if there is a control flow graph
+     */
+    boolean refinesGraph() {
+        return this.graph != null;
+    }
+
+    /**
+     * Records the execution of the first instruction of a fused pair.
+     *
+     * @param fusion
+     *            The kind of pair
+     * @param hit
+     *            True if both instructions were executed by one call
+     */
+    void recordFusion(ThreadedCode.Fusion fusion, boolean hit) {
+        if (hit) {
+            this.fusionHits[fusion.ordinal()]++;
+        } else {
+            this.fusionMisses[fusion.ordinal()]++;
+        }
+    }
+
+    /**
+     * Gets how many times a kind of fused pair was executed by one call.
+     *
+     * @param fusion
+     *            The kind of pair
+     * @return The number of fused executions
+     */
+    public long getFusionHits(ThreadedCode.Fusion fusion) {
+        return this.fusionHits[fusion.ordinal()];
+    }
+
+    /**
+     * Gets how many times the first instruction of a kind of fused pair was
+     * executed on its own.
+     *
+     * @param fusion
+     *            The kind of pair
+     * @return The number of executions that were not fused
+     */
+    public long getFusionMisses(ThreadedCode.Fusion fusion) {
+        return this.fusionMisses[fusion.ordinal()];
+    }
+
+    /**
+     * Gets how many times the instruction at an address has been executed.
+     *
+     * @param address
+     *            The unsigned address of the instruction
+     * @return The execution count
+     */
+    public int getCount(int address) {
+        this.countAll();
+        return this.counts[address & 0xFFFF];
+    }
+
+    /**
+     * Gets how many times a BRX instruction at an address branched. A branch
+     * to the next address cannot be told apart from falling through and is
+     * counted as not taken.
+     *
+     * @param address
+     *            The unsigned address of the instruction
+     * @return The number of taken branches
+     */
+    public int getTaken(int address) {
+        return this.exits[address & 0xFFFF];
+    }
+
+    /**
+     * Gets how many times a BRX instruction at an address fell through.
+     *
+     * @param address
+     *            The unsigned address of the instruction
+     * @return The number of branches not taken
+     */
+    public int getNotTaken(int address) {
+        return this.getCount(address) - this.getTaken(address);
+    }
+
+    /**
+     * Gets the total number of instructions recorded.
+     *
+     * @return The sum of the execution counts of every address
+     */
+    public long getTotal() {
+        this.countAll();
+        long total = 0;
+        for (int count : this.counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Works out the execution count of every address. An address is executed
+     * every time it is entered other than from the previous address, and
+     * every time the previous address is executed and falls through to it,
+     * unless that was the last instruction recorded.
+     */
+    private void countAll() {
+        if (this.counted) {
+            return;
+        }
+        long running = 0;
+        for (int address = 0; address < ADDRESS_COUNT; address++) {
+            running += this.entries[address];
+            this.counts[address] = (int) running;
+            running -= this.exits[address];
+            if (address == this.last) {
+                running--;
+            }
+        }
+        this.counted = true;
+    }
+
+    /**
+     * Reads the source lines of a listing file written by
+     * FileGenerator.generateListingFile(). Addresses are taken from the
+     * listing as they are, so it should be the listing of the program as it
+     * is loaded.
+     *
+     * @param listingPath
+     *            The path of the listing file
+     * @throws IOException
+     *             If the listing file cannot be read
+     */
+    public void readListing(String listingPath) throws IOException {
+        try (BufferedReader listing = Files.newBufferedReader(
+                Paths.get(listingPath), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = listing.readLine()) != null) {
+                Matcher matcher = LISTING_LINE.matcher(line);
+                if (matcher.matches()) {
+                    int address = Integer.parseInt(matcher.group(1), 16);
+                    this.source[address] = matcher.group(2).stripTrailing();
+                }
+            }
+        }
+    }
+
+    /**
+     * Prints the most executed addresses ranked by execution count, followed
+     * by the loops closed by backward branches ranked by how often they were
+     * taken.
+     *
+     * @param out
+     *            Where to print the report
+     * @param mem
+     *            The memory of the profiled machine, used to find the branches
+     *            and their targets
+     * @param length
+     *            The most addresses and loops to print
+     */
+    public void printReport(PrintWriter out, MainMemory mem, int length) {
+        long total = this.getTotal();
+        out.println("Profile of " + total + " instructions");
+        out.println();
+
+        //Rank the executed addresses by count, lowest address first on ties
+        this.countAll();
+        long[] ranked = rank(this.counts);
+        out.println("Rank  Address       Count  Percent  Taken/Not taken  "
+                + "Source");
+        for (int i = 0; i < Math.min(length, ranked.length); i++) {
+            int address = 0xFFFF - (int) (ranked[i] & 0xFFFF);
+            int count = this.counts[address];
+            String branches = this.isBranch(mem, address)
+                    ? this.getTaken(address) + "/" + this.getNotTaken(address)
+                    : "";
+            out.println(String.format("%4d  x%04X   %11d  %6.2f%%  %-15s  %s",
+                    i + 1, address, count, 100.0 * count / total, branches,
+                    this.sourceOf(address)).stripTrailing());
+        }
+        out.println();
+
+        //Rank the backward branches that were taken by how often
+        int[] backward = new int[ADDRESS_COUNT];
+        for (int address = 0; address < ADDRESS_COUNT; address++) {
+            int taken = this.getTaken(address);
+            if (taken > 0 && this.isBranch(mem, address)
+                    && this.branchTarget(mem, address) <= address) {
+                backward[address] = taken;
+            }
+        }
+        long[] loops = rank(backward);
+        out.println("Loop        Iterations       Exits  Source");
+        for (int i = 0; i < Math.min(length, loops.length); i++) {
+            int address = 0xFFFF - (int) (loops[i] & 0xFFFF);
+            out.println(String.format("x%04X-x%04X %11d %11d  %s",
+                    this.branchTarget(mem, address), address,
+                    this.getTaken(address), this.getNotTaken(address),
+                    this.sourceOf(address)).stripTrailing());
+        }
+
+        //Show how often the fused pairs were executed together, if any were
+        //reached
+        if (Arrays.stream(this.fusionHits).sum()
+                + Arrays.stream(this.fusionMisses).sum() > 0) {
+            out.println();
+            out.println("Fusion          Hits      Misses  Hit rate  "
+                    + "Instructions");
+            for (ThreadedCode.Fusion fusion : ThreadedCode.Fusion.values()) {
+                long hits = this.getFusionHits(fusion);
+                long misses = this.getFusionMisses(fusion);
+                out.println(String.format("%-7s %12d %11d  %7.2f%%  %11.2f%%",
+                        fusion, hits, misses,
+                        hits + misses == 0 ? 0 : 100.0 * hits / (hits + misses),
+                        total == 0 ? 0 : 200.0 * hits / total));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Ranks the addresses with a non-zero value, highest value first and
+     * lowest address first on ties.
+     *
+     * @param values
+     *            A value for every address
+     * @return The ranked addresses, each packed as the value shifted left by
+     *         16 bits above 0xFFFF minus the address
+     */
+    private static long[] rank(int[] values) {
+        long[] ranked = new long[ADDRESS_COUNT];
+        int size = 0;
+        for (int address = 0; address < values.length; address++) {
+            if (values[address] != 0) {
+                ranked[size++] = (Integer.toUnsignedLong(values[address]) << 16)
+                        | (0xFFFF - address);
+            }
+        }
+        ranked = Arrays.copyOf(ranked, size);
+        Arrays.sort(ranked);
+        for (int i = 0; i < size / 2; i++) {
+            long swap = ranked[i];
+            ranked[i] = ranked[size - 1 - i];
+            ranked[size - 1 - i] = swap;
+        }
+        return ranked;
+    }
+
+    /**
+     * Checks whether the word at an address is a BRX instruction.
+     *
+     * @param mem
+     *            The memory holding the word
+     * @param address
+     *            The unsigned address of the word
+     * @return True if the word is a BRX instruction
+     */
+    private boolean isBranch(MainMemory mem, int address) {
+        return mem.contains(address) && Decoder.opcode(
+                Decoder.lookup(mem.inspectWord(address))) == 0b0000;
+    }
+
+    /**
+     * Finds the address a BRX instruction branches to.
+     *
+     * @param mem
+     *            The memory holding the instruction
+     * @param address
+     *            The unsigned address of the instruction
+     * @return The unsigned target address
+     */
+    private int branchTarget(MainMemory mem, int address) {
+        if (!mem.contains(address)) {
+            return address;
+        }
+        int entry = Decoder.lookup(mem.inspectWord(address));
+        return Short.toUnsignedInt(Bits.fullAddress((short) (address + 1),
+                Decoder.operand(entry)));
+    }
+
+    /**
+     * Gets the source line of an address.
+     *
+     * @param address
+     *            The unsigned address
+     * @return The source line, or an empty string if none is known
+     */
+    private String sourceOf(int address) {
+        return this.source[address] == null ? "" : this.source[address];
+    }
+}
@@ -0,0 +1,119 @@
+package simulator;
+
+/**
+ * Describes why a batch of instructions run by Interpreter.run() stopped and
+ * how many instructions it executed.
+ */
+public final class RunResult {
+
+    /**
+     * The reasons a batch of instructions can stop.
+     */
+    public static enum ExitReason {
+
+        /**
+         * A HALT trap was executed.
+         */
+        HALT,
+
+        /**
+         * The maximum number of instructions was executed.
+         */
+        LIMIT,
+
+        /**
+         * A DBUG instruction was executed.
+         */
+        DBUG,
+
+        /**
+         * An instruction could not be executed, such as a trap with an
+         * unknown vector. The interpreter reports these as DBUG so that the
+         * machine state gets printed. Also used when the error sink of the
+         * machine asks it to stop.
+         */
+        ERROR,
+
+        /**
+         * The next instruction is at a breakpoint and has not been executed.
+         */
+        BREAKPOINT,
+
+        /**
+         * The last instruction executed read or wrote a watched address.
+         */
+        WATCHPOINT;
+    }
+
+    /**
+     * Why the batch stopped.
+     */
+    private final ExitReason reason;
+
+    /**
+     * How many instructions the batch executed.
+     */
+    private final long instructionCount;
+
+    /**
+     * The last instruction the batch executed.
+     */
+    private final Instructions lastInstruction;
+
+    /**
+     * Creates a new exit record.
+     *
+     * @param reason
+     *            Why the batch stopped
+     * @param instructionCount
+     *            How many instructions the batch executed
+     * @param lastInstruction
+     *            The last instruction the batch executed, or NOEXE if it
+     *            executed none
+     */
+    public RunResult(ExitReason reason, long instructionCount,
+            Instructions lastInstruction) {
+        this.reason = reason;
+        this.instructionCount = instructionCount;
+        this.lastInstruction = lastInstruction;
+    }
+
+    /**
+     * Gets why the batch stopped.
+     *
+     * @return The exit reason
+     */
+    public ExitReason getReason() {
+        return this.reason;
+    }
+
+    /**
+     * Gets how many instructions the batch executed.
+     *
+     * @return The number of executed instructions
+     */
+    public long getInstructionCount() {
+        return this.instructionCount;
+    }
+
+    /**
+     * Gets the last instruction the batch executed.
+     *
+     * @return An enum telling the simulator what instruction was executed
+     *         last
+     */
+    public Instructions getLastInstruction() {
+        return this.lastInstruction;
+    }
+
+    /**
+     * Returns a string representation of the exit record.
+     *
+     * @return The exit reason and instruction count
+     */
+    @Override
+    public String toString() {
+        return this.reason + " after " + this.instructionCount
+                + " instructions";
+    }
+}
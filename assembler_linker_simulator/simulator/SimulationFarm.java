@@ -0,0 +1,360 @@
+package simulator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+
+/**
+ * Runs many independent programs concurrently in one virtual machine on a
+ * bounded pool of threads. Every job gets its own memory, machine state,
+ * error log and console, so jobs never share the static ErrorHandler queue or
+ * System.in and System.out. Jobs are run in quiet mode and stop at a HALT trap,
+ * when their instruction or time budget runs out, or at their first error if
+ * they are set to. A job can start from a Snapshot instead of an object file,
+ * so many runs can share a warmed-up prefix.
+ */
+public class SimulationFarm implements AutoCloseable {
+
+    /**
+     * The number of instructions run between checks of the time budget and
+     * of interruption.
+     */
+    private static final long SLICE = 1 << 16;
+
+    /**
+     * The time between metrics snapshots printed by main() in milliseconds.
+     */
+    private static final long METRICS_LOG_MILLIS = 10_000;
+
+    /**
+     * The threads the jobs run on.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * The time the farm was created at, from System.nanoTime().
+     */
+    private final long startNanos;
+
+    /**
+     * The number of jobs finished.
+     */
+    private final AtomicLong jobsCompleted = new AtomicLong();
+
+    /**
+     * The number of instructions executed by all finished jobs.
+     */
+    private final AtomicLong instructionsExecuted = new AtomicLong();
+
+    /**
+     * The time spent running all finished jobs in nanoseconds.
+     */
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    /**
+     * Counts the instruction mix of every job, or null if it is not counted.
+     */
+    private volatile SimulationMetrics metrics;
+
+    /**
+     * The generator the streams of unseeded jobs are split off, guarded by
+     * itself.
+     */
+    private final SplittableRandom seeds = new SplittableRandom();
+
+    /**
+     * Creates a farm with one thread per available processor.
+     */
+    public SimulationFarm() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a farm running at most a given number of jobs at once.
+     *
+     * @param threads
+     *            The number of jobs to run at once, at least 1
+     */
+    public SimulationFarm(int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable,
+                    "simulation-farm-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Queues a job to run on the farm.
+     *
+     * @param job
+     *            The job to run
+     * @return The pending result of the job
+     */
+    public Future<SimulationResult> submit(SimulationJob job) {
+        return this.pool.submit(() -> this.run(job));
+    }
+
+    /**
+     * Runs jobs on the farm and waits for all of them to finish.
+     *
+     * @param jobs
+     *            The jobs to run
+     * @return The results of the jobs, in the same order as the jobs
+     * @throws InterruptedException
+     *             If the calling thread is interrupted while waiting
+     */
+    public List<SimulationResult> runAll(List<SimulationJob> jobs)
+            throws InterruptedException {
+        List<Future<SimulationResult>> pending = new ArrayList<>();
+        for (SimulationJob job : jobs) {
+            pending.add(this.submit(job));
+        }
+        List<SimulationResult> results = new ArrayList<>();
+        for (Future<SimulationResult> future : pending) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Runs jobs on the farm and hands each result to an action on the calling
+     * thread as soon as its job finishes, so that results can be summarized
+     * and dropped instead of all being held until the last job is done.
+     *
+     * @param jobs
+     *            The jobs to run
+     * @param action
+     *            What to do with each result, called in the order the jobs
+     *            finish
+     * @throws InterruptedException
+     *             If the calling thread is interrupted while waiting
+     */
+    public void runEach(List<SimulationJob> jobs,
+            Consumer<SimulationResult> action) throws InterruptedException {
+        CompletionService<SimulationResult> finished =
+                new ExecutorCompletionService<>(this.pool);
+        for (SimulationJob job : jobs) {
+            finished.submit(() -> this.run(job));
+        }
+        for (int i = 0; i < jobs.size(); i++) {
+            try {
+                action.accept(finished.take().get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Loads and runs a job on the calling thread.
+     *
+     * @param job
+     *            The job to run
+     * @return The result of the job
+     */
+    public SimulationResult run(SimulationJob job) {
+        long start = System.nanoTime();
+
+        //Give the machine its own console and error log
+        MemoryTrapIO console = MemoryTrapIO.ofText(job.getInput());
+        MachineState state = new MachineState();
+        state.setTrapIO(console);
+        if (job.isSeeded()) {
+            state.setSeed(job.getSeed());
+        } else {
+            synchronized (this.seeds) {
+                state.setRandom(this.seeds.split());
+            }
+        }
+        ErrorLog errors = new ErrorLog(state);
+        if (job.isHaltOnError()) {
+            errors.haltOnAnyError();
+        }
+        MainMemory memory = new MainMemory();
+        memory.setErrorSink(errors);
+
+        //Start from a snapshot, or from the start of an object file
+        long executed = 0;
+        SimulationResult.Status status = null;
+        String path = job.getObjectFilePath();
+        if (Snapshot.isSnapshot(path)) {
+            try {
+                Snapshot.restore(path, memory, state);
+            } catch (IOException e) {
+                console.println("Error: " + e.getMessage());
+                status = SimulationResult.Status.LOAD_FAILED;
+            }
+        } else {
+            Loader loader = new Loader(memory, path, console);
+            if (loader.loadToMemory()) {
+                state.setPc(0x0000FFFF & loader.getStartingExecutionAddress());
+            } else {
+                status = SimulationResult.Status.LOAD_FAILED;
+            }
+        }
+
+        //Run in slices so the time budget and interruption are noticed
+        while (status == null) {
+            long left = job.getMaxInstructions() - executed;
+            if (errors.isHaltRequested()) {
+                status = SimulationResult.Status.ERROR;
+            } else if (left <= 0) {
+                status = SimulationResult.Status.INSTRUCTION_LIMIT;
+            } else if (Thread.currentThread().isInterrupted()) {
+                status = SimulationResult.Status.CANCELLED;
+            } else if (System.nanoTime() - start >= job.getTimeLimitNanos()) {
+                status = SimulationResult.Status.TIME_LIMIT;
+            } else {
+                RunResult result = Interpreter.run(memory, state,
+                        Math.min(left, SLICE), null, this.metrics);
+                executed += result.getInstructionCount();
+                if (result.getReason() == RunResult.ExitReason.HALT) {
+                    status = SimulationResult.Status.HALTED;
+                }
+            }
+        }
+
+        short[] registers = new short[8];
+        for (int i = 0; i < registers.length; i++) {
+            registers[i] = state.getRegister(i);
+        }
+        long elapsed = System.nanoTime() - start;
+        this.jobsCompleted.incrementAndGet();
+        this.instructionsExecuted.addAndGet(executed);
+        this.busyNanos.addAndGet(elapsed);
+        return new SimulationResult(job, status, executed, elapsed,
+                console.getOutput(), errors, registers);
+    }
+
+    /**
+     * Sets the metrics the instruction mix, trap routines and memory
+     * accesses of every job are counted in from now on. Counting them makes
+     * jobs run slightly slower.
+     *
+     * @param metrics
+     *            The metrics to count in, or null to stop counting
+     */
+    public void setMetrics(SimulationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the number of jobs finished so far.
+     *
+     * @return The number of finished jobs
+     */
+    public long getJobsCompleted() {
+        return this.jobsCompleted.get();
+    }
+
+    /**
+     * Gets the number of instructions executed by all finished jobs.
+     *
+     * @return The total instruction count
+     */
+    public long getInstructionsExecuted() {
+        return this.instructionsExecuted.get();
+    }
+
+    /**
+     * Gets the time spent running all finished jobs, summed over all
+     * threads.
+     *
+     * @return The total job time in nanoseconds
+     */
+    public long getBusyNanos() {
+        return this.busyNanos.get();
+    }
+
+    /**
+     * Gets the number of instructions executed per second of wall clock time
+     * since the farm was created.
+     *
+     * @return The aggregate throughput of the farm
+     */
+    public double getInstructionsPerSecond() {
+        long elapsed = System.nanoTime() - this.startNanos;
+        return elapsed == 0 ? 0
+                : this.instructionsExecuted.get() * 1e9 / elapsed;
+    }
+
+    /**
+     * Stops accepting jobs and waits for the queued ones to finish.
+     */
+    @Override
+    public void close() {
+        this.pool.shutdown();
+        try {
+            while (!this.pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                //Keep waiting for long running jobs
+            }
+        } catch (InterruptedException e) {
+            this.pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs object files on a farm and prints the result of each followed by
+     * the aggregate throughput.
+     *
+     * @param args
+     *            The instruction limit of every program followed by the paths
+     *            of the object files to run
+     * @throws InterruptedException
+     *             If interrupted while waiting for the programs
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 2) {
+            System.out.println("Usage: SimulationFarm <instruction limit> "
+                    + "<object file>...");
+            return;
+        }
+        long limit = Long.parseLong(args[0]);
+        List<SimulationJob> jobs = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            jobs.add(new SimulationJob(args[i], limit));
+        }
+        try (SimulationFarm farm = new SimulationFarm();
+                SimulationMetrics metrics = new SimulationMetrics()) {
+            //Let the jobs be watched while they run
+            try {
+                metrics.register("SimulationFarm");
+            } catch (JMException e) {
+                System.out.println("Error: Could not register metrics: "
+                        + e.getMessage());
+            }
+            metrics.startLogging(System.err, METRICS_LOG_MILLIS);
+            farm.setMetrics(metrics);
+
+            for (SimulationResult result : farm.runAll(jobs)) {
+                System.out.println(result);
+            }
+            System.out.printf("%d jobs, %d instructions, %.0f instructions/s%n",
+                    farm.getJobsCompleted(), farm.getInstructionsExecuted(),
+                    farm.getInstructionsPerSecond());
+            System.out.println(
+                    metrics.snapshot(metrics.getInstructionsPerSecond()));
+        }
+    }
+}
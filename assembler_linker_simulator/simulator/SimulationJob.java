@@ -0,0 +1,170 @@
+package simulator;
+
+/**
+ * Describes one program run by a SimulationFarm: the object file to load, the
+ * input its traps read, and the budgets that stop it if it does not halt.
+ */
+public class SimulationJob {
+
+    /**
+     * The path of the object file to load, or of a snapshot to start from.
+     */
+    private final String objectFilePath;
+
+    /**
+     * The maximum number of instructions the program may execute.
+     */
+    private final long maxInstructions;
+
+    /**
+     * The maximum time the program may run for in nanoseconds.
+     */
+    private long timeLimitNanos;
+
+    /**
+     * The lines the IN and INN traps of the program read.
+     */
+    private String input;
+
+    /**
+     * Whether the program is stopped at its first error.
+     */
+    private boolean haltOnError;
+
+    /**
+     * Whether the RND trap of the program is seeded.
+     */
+    private boolean seeded;
+
+    /**
+     * The seed of the RND trap of the program, if it is seeded.
+     */
+    private long seed;
+
+    /**
+     * Creates a job with no input and no time limit.
+     *
+     * @param objectFilePath
+     *            The path of the object file to load, or of a snapshot saved
+     *            by Snapshot.save() to start from
+     * @param maxInstructions
+     *            The maximum number of instructions the program may execute
+     */
+    public SimulationJob(String objectFilePath, long maxInstructions) {
+        this.objectFilePath = objectFilePath;
+        this.maxInstructions = maxInstructions;
+        this.timeLimitNanos = Long.MAX_VALUE;
+        this.input = "";
+        this.haltOnError = false;
+        this.seeded = false;
+    }
+
+    /**
+     * Gets the path of the object file to load, or of a snapshot to start
+     * from.
+     *
+     * @return The object file path
+     */
+    public String getObjectFilePath() {
+        return this.objectFilePath;
+    }
+
+    /**
+     * Gets the maximum number of instructions the program may execute.
+     *
+     * @return The instruction budget
+     */
+    public long getMaxInstructions() {
+        return this.maxInstructions;
+    }
+
+    /**
+     * Gets the maximum time the program may run for.
+     *
+     * @return The time budget in nanoseconds, Long.MAX_VALUE if there is none
+     */
+    public long getTimeLimitNanos() {
+        return this.timeLimitNanos;
+    }
+
+    /**
+     * Sets the maximum time the program may run for. The limit is checked
+     * between batches of instructions, so a program may run slightly over it.
+     *
+     * @param timeLimitMillis
+     *            The time budget in milliseconds
+     */
+    public void setTimeLimit(long timeLimitMillis) {
+        this.timeLimitNanos = timeLimitMillis * 1_000_000L;
+    }
+
+    /**
+     * Gets the input the traps of the program read.
+     *
+     * @return The input lines separated by newlines
+     */
+    public String getInput() {
+        return this.input;
+    }
+
+    /**
+     * Sets the input the traps of the program read. Once it is used up, IN
+     * and INN traps report an error instead of waiting for more.
+     *
+     * @param input
+     *            The input lines separated by newlines
+     */
+    public void setInput(String input) {
+        this.input = input;
+    }
+
+    /**
+     * Checks whether the program is stopped at its first error.
+     *
+     * @return True if any error stops the program
+     */
+    public boolean isHaltOnError() {
+        return this.haltOnError;
+    }
+
+    /**
+     * Sets whether the program is stopped at its first error.
+     *
+     * @param haltOnError
+     *            True to stop the program at its first error
+     */
+    public void setHaltOnError(boolean haltOnError) {
+        this.haltOnError = haltOnError;
+    }
+
+    /**
+     * Checks whether the RND trap of the program is seeded.
+     *
+     * @return True if the program draws the same numbers every run
+     */
+    public boolean isSeeded() {
+        return this.seeded;
+    }
+
+    /**
+     * Gets the seed of the RND trap of the program.
+     *
+     * @return The seed, only meaningful if isSeeded() is true
+     */
+    public long getSeed() {
+        return this.seed;
+    }
+
+    /**
+     * Seeds the RND trap of the program, so every run of the job draws the
+     * same numbers. Unseeded jobs draw from a stream split off the farm's
+     * own generator.
+     *
+     * @param seed
+     *            The seed of the generator
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        this.seeded = true;
+    }
+}
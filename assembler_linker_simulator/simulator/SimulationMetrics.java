@@ -0,0 +1,307 @@
+package simulator;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the instructions, trap routines and memory accesses of any number of
+ * machines. Batches run by Interpreter.run() with metrics count into locals
+ * and add them here once they end, so machines on different threads can
+ * share one SimulationMetrics without contending on every instruction. The
+ * counts can be watched through the platform MBean server and logged
+ * periodically.
+ */
+public class SimulationMetrics implements SimulationMetricsMXBean,
+        AutoCloseable {
+
+    /**
+     * The instructions that are trap routines.
+     */
+    private static final EnumSet<Instructions> TRAPS = EnumSet.of(
+            Instructions.OUT, Instructions.PUTS, Instructions.IN,
+            Instructions.OUTN, Instructions.INN, Instructions.RND,
+            Instructions.HALT);
+
+    /**
+     * Every instruction, indexed by ordinal.
+     */
+    private static final Instructions[] INSTRUCTIONS = Instructions.values();
+
+    /**
+     * The count of every instruction, indexed by ordinal.
+     */
+    private final LongAdder[] mix = new LongAdder[INSTRUCTIONS.length];
+
+    /**
+     * The number of instructions executed.
+     */
+    private final LongAdder instructions = new LongAdder();
+
+    /**
+     * The number of words read from memory.
+     */
+    private final LongAdder reads = new LongAdder();
+
+    /**
+     * The number of words written to memory.
+     */
+    private final LongAdder writes = new LongAdder();
+
+    /**
+     * When the counts were last reset, from System.nanoTime().
+     */
+    private volatile long startNanos = System.nanoTime();
+
+    /**
+     * Prints snapshots of the counts, or null if they are not being logged.
+     */
+    private ScheduledExecutorService logger;
+
+    /**
+     * The name the metrics are registered under, or null if they are not
+     * registered.
+     */
+    private ObjectName registeredName;
+
+    /**
+     * Creates a new set of metrics with every count at zero.
+     */
+    public SimulationMetrics() {
+        for (int i = 0; i < this.mix.length; i++) {
+            this.mix[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Adds the counts of a finished batch.
+     *
+     * @param batchMix
+     *            How many times each instruction was executed, indexed by
+     *            ordinal
+     * @param executed
+     *            The number of instructions the batch executed
+     * @param memoryReads
+     *            The number of words the batch read
+     * @param memoryWrites
+     *            The number of words the batch wrote
+     */
+    void add(long[] batchMix, long executed, long memoryReads,
+            long memoryWrites) {
+        for (int i = 0; i < batchMix.length; i++) {
+            if (batchMix[i] != 0) {
+                this.mix[i].add(batchMix[i]);
+            }
+        }
+        this.instructions.add(executed);
+        this.reads.add(memoryReads);
+        this.writes.add(memoryWrites);
+    }
+
+    /**
+     * Creates the array a batch counts its instruction mix into.
+     *
+     * @return An array with a zero count for every instruction
+     */
+    static long[] newBatchMix() {
+        return new long[INSTRUCTIONS.length];
+    }
+
+    /**
+     * Gets the number of instructions executed.
+     *
+     * @return The number of instructions executed since the last reset
+     */
+    @Override
+    public long getInstructionCount() {
+        return this.instructions.sum();
+    }
+
+    /**
+     * Gets the average execution rate since the last reset. Only finished
+     * batches are counted, so the rate lags behind while batches are long.
+     *
+     * @return Instructions executed per second
+     */
+    @Override
+    public double getInstructionsPerSecond() {
+        long elapsed = System.nanoTime() - this.startNanos;
+        return elapsed <= 0 ? 0
+                : this.instructions.sum() * 1_000_000_000.0 / elapsed;
+    }
+
+    /**
+     * Gets the number of words read from memory, including instruction
+     * fetches.
+     *
+     * @return The number of words read since the last reset
+     */
+    @Override
+    public long getMemoryReads() {
+        return this.reads.sum();
+    }
+
+    /**
+     * Gets the number of words written to memory.
+     *
+     * @return The number of words written since the last reset
+     */
+    @Override
+    public long getMemoryWrites() {
+        return this.writes.sum();
+    }
+
+    /**
+     * Gets how many times each instruction was executed, with traps counted
+     * by their vector.
+     *
+     * @return The count of every instruction, by name
+     */
+    @Override
+    public Map<String, Long> getInstructionMix() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Instructions instruction : INSTRUCTIONS) {
+            if (instruction != Instructions.NOEXE) {
+                counts.put(instruction.name(), this.getCount(instruction));
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Gets how many times each trap routine was executed.
+     *
+     * @return The count of every trap routine, by name
+     */
+    @Override
+    public Map<String, Long> getTrapCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Instructions trap : TRAPS) {
+            counts.put(trap.name(), this.getCount(trap));
+        }
+        return counts;
+    }
+
+    /**
+     * Gets how many times an instruction was executed.
+     *
+     * @param instruction
+     *            The instruction, or the trap routine
+     * @return The number of times it was executed since the last reset
+     */
+    public long getCount(Instructions instruction) {
+        return this.mix[instruction.ordinal()].sum();
+    }
+
+    /**
+     * Clears every count and restarts the rate.
+     */
+    @Override
+    public void reset() {
+        for (LongAdder count : this.mix) {
+            count.reset();
+        }
+        this.instructions.reset();
+        this.reads.reset();
+        this.writes.reset();
+        this.startNanos = System.nanoTime();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server, under the type
+     * SimulationMetrics in the simulator domain.
+     *
+     * @param name
+     *            The name to tell these metrics apart from others
+     * @throws JMException
+     *             If the name is invalid or already registered
+     */
+    public synchronized void register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(
+                "simulator:type=SimulationMetrics,name="
+                        + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                objectName);
+        this.registeredName = objectName;
+    }
+
+    /**
+     * Prints a snapshot of the counts periodically on a daemon thread, with
+     * the execution rate over each period.
+     *
+     * @param out
+     *            Where to print the snapshots
+     * @param periodMillis
+     *            The time between snapshots in milliseconds
+     */
+    public synchronized void startLogging(PrintStream out,
+            long periodMillis) {
+        if (this.logger != null) {
+            this.logger.shutdownNow();
+        }
+        this.logger = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "simulation-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] last = { this.getInstructionCount(), System.nanoTime() };
+        this.logger.scheduleAtFixedRate(() -> {
+            long count = this.getInstructionCount();
+            long now = System.nanoTime();
+            double rate = (count - last[0]) * 1_000_000_000.0
+                    / Math.max(1, now - last[1]);
+            last[0] = count;
+            last[1] = now;
+            out.println(this.snapshot(rate));
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Formats the counts as a single line.
+     *
+     * @param rate
+     *            The execution rate to print, in instructions per second
+     * @return The snapshot line
+     */
+    public String snapshot(double rate) {
+        StringBuilder line = new StringBuilder();
+        line.append(String.format(
+                "Metrics: %d instructions (%.0f/s), %d reads, %d writes, traps",
+                this.getInstructionCount(), rate, this.getMemoryReads(),
+                this.getMemoryWrites()));
+        for (Map.Entry<String, Long> trap : this.getTrapCounts().entrySet()) {
+            line.append(' ').append(trap.getKey()).append('=')
+                    .append(trap.getValue());
+        }
+        return line.toString();
+    }
+
+    /**
+     * Stops logging and unregisters the metrics if they were registered.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.logger != null) {
+            this.logger.shutdownNow();
+            this.logger = null;
+        }
+        if (this.registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .unregisterMBean(this.registeredName);
+            } catch (JMException e) {
+                //Already unregistered
+            }
+            this.registeredName = null;
+        }
+    }
+}
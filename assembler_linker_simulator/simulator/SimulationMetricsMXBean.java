@@ -0,0 +1,59 @@
+package simulator;
+
+import java.util.Map;
+
+/**
+ * The management interface of SimulationMetrics, so that the instruction mix
+ * of long running simulations can be watched with any JMX console.
+ */
+public interface SimulationMetricsMXBean {
+
+    /**
+     * Gets the number of instructions executed.
+     *
+     * @return The number of instructions executed since the last reset
+     */
+    long getInstructionCount();
+
+    /**
+     * Gets the average execution rate.
+     *
+     * @return Instructions executed per second since the last reset
+     */
+    double getInstructionsPerSecond();
+
+    /**
+     * Gets the number of words read from memory, including instruction
+     * fetches.
+     *
+     * @return The number of words read since the last reset
+     */
+    long getMemoryReads();
+
+    /**
+     * Gets the number of words written to memory.
+     *
+     * @return The number of words written since the last reset
+     */
+    long getMemoryWrites();
+
+    /**
+     * Gets how many times each instruction was executed. Traps are counted by
+     * their vector, under the names OUT, PUTS, IN, OUTN, INN, RND and HALT.
+     *
+     * @return The count of every instruction, by name
+     */
+    Map<String, Long> getInstructionMix();
+
+    /**
+     * Gets how many times each trap routine was executed.
+     *
+     * @return The count of every trap routine, by name
+     */
+    Map<String, Long> getTrapCounts();
+
+    /**
+     * Clears every count and restarts the rate.
+     */
+    void reset();
+}
@@ -0,0 +1,186 @@
+package simulator;
+
+/**
+ * The outcome of a SimulationJob: why the program stopped, what it printed,
+ * the errors it raised and its final registers.
+ */
+public class SimulationResult {
+
+    /**
+     * The reasons a job can stop.
+     */
+    public static enum Status {
+
+        /**
+         * The program executed a HALT trap.
+         */
+        HALTED,
+
+        /**
+         * The program used up its instruction budget.
+         */
+        INSTRUCTION_LIMIT,
+
+        /**
+         * The program used up its time budget.
+         */
+        TIME_LIMIT,
+
+        /**
+         * The program raised an error it was set to stop at.
+         */
+        ERROR,
+
+        /**
+         * The thread running the program was interrupted.
+         */
+        CANCELLED,
+
+        /**
+         * The object file could not be loaded.
+         */
+        LOAD_FAILED;
+    }
+
+    /**
+     * The job this is the result of.
+     */
+    private final SimulationJob job;
+
+    /**
+     * Why the job stopped.
+     */
+    private final Status status;
+
+    /**
+     * The number of instructions executed.
+     */
+    private final long instructionCount;
+
+    /**
+     * The time taken to load and run the program in nanoseconds.
+     */
+    private final long elapsedNanos;
+
+    /**
+     * Everything the program and its loader printed.
+     */
+    private final String output;
+
+    /**
+     * The errors raised while loading and running the program.
+     */
+    private final ErrorLog errors;
+
+    /**
+     * The final values of R0-R7.
+     */
+    private final short[] registers;
+
+    /**
+     * Creates the result of a job.
+     *
+     * @param job
+     *            The job this is the result of
+     * @param status
+     *            Why the job stopped
+     * @param instructionCount
+     *            The number of instructions executed
+     * @param elapsedNanos
+     *            The time taken to load and run the program in nanoseconds
+     * @param output
+     *            Everything the program and its loader printed
+     * @param errors
+     *            The errors raised while loading and running the program
+     * @param registers
+     *            The final values of R0-R7
+     */
+    public SimulationResult(SimulationJob job, Status status,
+            long instructionCount, long elapsedNanos, String output,
+            ErrorLog errors, short[] registers) {
+        this.job = job;
+        this.status = status;
+        this.instructionCount = instructionCount;
+        this.elapsedNanos = elapsedNanos;
+        this.output = output;
+        this.errors = errors;
+        this.registers = registers;
+    }
+
+    /**
+     * Gets the job this is the result of.
+     *
+     * @return The job
+     */
+    public SimulationJob getJob() {
+        return this.job;
+    }
+
+    /**
+     * Gets why the job stopped.
+     *
+     * @return The status of the job
+     */
+    public Status getStatus() {
+        return this.status;
+    }
+
+    /**
+     * Gets the number of instructions executed.
+     *
+     * @return The instruction count
+     */
+    public long getInstructionCount() {
+        return this.instructionCount;
+    }
+
+    /**
+     * Gets the time taken to load and run the program.
+     *
+     * @return The elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return this.elapsedNanos;
+    }
+
+    /**
+     * Gets everything the program and its loader printed.
+     *
+     * @return The captured output
+     */
+    public String getOutput() {
+        return this.output;
+    }
+
+    /**
+     * Gets the errors raised while loading and running the program.
+     *
+     * @return The error log of the job
+     */
+    public ErrorLog getErrors() {
+        return this.errors;
+    }
+
+    /**
+     * Gets the final value of a general register.
+     *
+     * @param index
+     *            The number of the register, 0-7
+     * @return The value of the register when the job stopped
+     */
+    public short getRegister(int index) {
+        return this.registers[index];
+    }
+
+    /**
+     * Returns a one line summary of the result.
+     *
+     * @return The object file, status, instruction count and error count
+     */
+    @Override
+    public String toString() {
+        return this.job.getObjectFilePath() + ": " + this.status + " after "
+                + this.instructionCount + " instructions, "
+                + this.errors.getTotal() + " errors";
+    }
+}
@@ -1,19 +1,36 @@
 package simulator;
 
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
+import javax.management.JMException;
+
 /**
  * Deals with user input and simulates the execution of the abstract machine for
  * CSE 3903
  */
 public class Simulator {
 
+    /**
+     * The number of instructions executed between checkpoints.
+     */
+    private static final long CHECKPOINT_INTERVAL = 100_000_000L;
+
     /**
      * Runs the simulator program
      *
      * @param args
-     *            Unused arguments that can be passed into the command line.
+     *            Arguments that can be passed into the command line: the
+     *            object file, the running mode and the instruction limit,
+     *            followed by any of the options described in
+     *            SimulatorOptions.
      */
     public static void main(String[] args) {
         // Simulator startup
@@ -21,9 +38,31 @@ public class Simulator {
 
         // Get command line arguments
         String[] commandLineArgs = args;
+        SimulatorOptions options = SimulatorOptions.parse(commandLineArgs);
 
-        // Create a default memory object to be filled
+        // Create a default memory object to be filled, covering the whole
+        // address space or filled a page at a time if asked to
         MainMemory mainMemory = new MainMemory();
+        if (options.demand) {
+            mainMemory = new PagedMemory();
+        } else if (options.flat) {
+            mainMemory = new FlatMemory(options.protect);
+        }
+
+        // Machine state the interpreter executes on, with traps reading
+        // through the same scanner as the simulator's prompts
+        MachineState machineState = new MachineState();
+        machineState.setTrapIO(new ConsoleTrapIO(inKeyboard));
+        if (options.seed != null) {
+            machineState.setSeed(options.seed);
+        }
+
+        // Errors are counted by the machine instead of queued without bound
+        ErrorLog errorLog = new ErrorLog(machineState);
+        mainMemory.setErrorSink(errorLog);
+        if (options.haltOnError) {
+            errorLog.haltOnAnyError();
+        }
 
         // Load object file into memory
         Loader programLoader;
@@ -32,14 +71,17 @@ public class Simulator {
         if (!commandLineArgs[0].equals("")) {
             // Use the command line arguments if given
             programLoader = new Loader(mainMemory, commandLineArgs[0]);
-            programLoadStatus = programLoader.loadToMemory();
+            programLoadStatus = programLoader
+                    .loadOnDemand(options.verifyChecksum);
             if (!programLoadStatus) {
                 // User input to load file if no/invalid command line argument
-                programLoader = loadObjectFileToMemory(inKeyboard, mainMemory);
+                programLoader = loadObjectFileToMemory(inKeyboard, mainMemory,
+                        options.verifyChecksum);
             }
         } else {
             // Uses user input to load file if no/invalid command line argument
-            programLoader = loadObjectFileToMemory(inKeyboard, mainMemory);
+            programLoader = loadObjectFileToMemory(inKeyboard, mainMemory,
+                    options.verifyChecksum);
         }
 
         // Ask user for running mode default at quiet mode
@@ -61,12 +103,12 @@ public class Simulator {
         }
 
         // Get the user-specified time limit
-        int timeLimitInstructions = 500;
+        long timeLimitInstructions = 500;
 
         if (commandLineArgs.length > 2) {
             // Use the command line arguments if given
             try {
-                timeLimitInstructions = Integer.parseInt(commandLineArgs[2]);
+                timeLimitInstructions = Long.parseLong(commandLineArgs[2]);
             } catch (NumberFormatException e) {
                 // Leave as default if invalid argument
             }
@@ -75,42 +117,191 @@ public class Simulator {
             timeLimitInstructions = getTimeLimitInstructions(inKeyboard);
         }
 
-        // Registers array: 8 general purpose
-        GeneralRegister[] registers = new GeneralRegister[8];
-        for (int i = 0; i < 8; i++) {
-            registers[i] = new GeneralRegister(i);
+        // The control flow graph learns computed jumps from a profiler,
+        // whose report is only printed if asked for
+        Profiler profiler = null;
+        if (options.profile || options.graphPath != null) {
+            profiler = new Profiler();
+        }
+        if (options.listingPath != null) {
+            try {
+                profiler.readListing(options.listingPath);
+            } catch (IOException e) {
+                System.out.println("Error: Could not read listing file "
+                        + options.listingPath + ".");
+            }
         }
 
-        // Condition code registers N, Z, P
-        ConditionRegister[] conditions = new ConditionRegister[4];
-        conditions[0] = new ConditionRegister("N");
-        conditions[1] = new ConditionRegister("Z");
-        conditions[2] = new ConditionRegister("P");
-        conditions[1].setVal((short) 1);
+        // Breakpoints and undo logs are checked by the memory
+        if (options.breakpoints != null) {
+            mainMemory.setBreakpoints(options.breakpoints);
+        }
+        if (options.undoEntries >= 0) {
+            mainMemory.setUndoLog(new UndoLog(options.undoEntries));
+        }
+        SimulationMetrics metrics = null;
+        if (options.metricsSeconds >= 0) {
+            metrics = new SimulationMetrics();
+            try {
+                metrics.register(
+                        programLoader.getCharacterSegmentName().strip());
+            } catch (JMException e) {
+                System.out.println("Error: Could not register metrics: "
+                        + e.getMessage());
+            }
+            if (options.metricsSeconds > 0) {
+                metrics.startLogging(System.err,
+                        options.metricsSeconds * 1000);
+            }
+        }
 
-        // Set the PC to the starting execution address
-        ProgramCounter programCounter = new ProgramCounter();
-        programCounter.setAddress(
+        // Start the machine at the starting execution address
+        machineState.setPc(
                 0x0000FFFF & programLoader.getStartingExecutionAddress());
 
+        // Or carry on from where a snapshot left off
+        if (options.resumePath != null) {
+            try {
+                Snapshot.restore(options.resumePath, mainMemory, machineState);
+            } catch (IOException e) {
+                System.out.println("Error: Could not resume from "
+                        + options.resumePath
+                        + ". Starting from the beginning.");
+            }
+        }
+
+        // Recover the control flow graph of the program as loaded
+        ControlFlowGraph graph = null;
+        if (options.graphPath != null) {
+            graph = new ControlFlowGraph(mainMemory,
+                    0x0000FFFF & programLoader.getStartingExecutionAddress());
+            graph.addEntry(machineState.getPc());
+            profiler.setControlFlowGraph(graph);
+        }
+
+        // Compiling is only done in quiet mode, which never prints the
+        // machine state between instructions
+        TieredExecutor executor = null;
+        ThreadedCode threadedCode = null;
+        if (options.compileHotCode && runningMode == 1) {
+            executor = new TieredExecutor(mainMemory, machineState);
+        } else if (options.useThreadedCode) {
+            threadedCode = programLoader.translateToThreadedCode();
+        }
+
+        // Output is buffered while executing, and flushed before errors
+        // are printed or input is read
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new BufferedOutputStream(
+                new FileOutputStream(FileDescriptor.out), 1 << 16)));
+        TraceRenderer renderer = new TraceRenderer(mainMemory, machineState,
+                errorLog, System.out, options.deltaTrace);
+        PrintStream trapOutput = setUpTrapIO(machineState, options,
+                runningMode, inKeyboard);
+
         // Execute program in user-specified mode
         System.out.println();
-        executeProgram(mainMemory, registers, programCounter, conditions,
-                runningMode, timeLimitInstructions, inKeyboard);
+        executeProgram(mainMemory, machineState, errorLog, executor,
+                threadedCode, profiler, metrics, renderer, runningMode,
+                timeLimitInstructions, options.checkpointPath, inKeyboard);
         System.out.println();
+        renderer.flush();
+        System.setOut(console);
+        if (trapOutput != null) {
+            trapOutput.close();
+        }
 
         // Print the error log
-        if (ErrorHandler.getSize() > 0) {
+        if (errorLog.hasNewErrors()) {
+            System.out.println();
+            errorLog.invokeNewErrors(new PrintWriter(System.err, true));
             System.out.println();
-            ErrorHandler.invokeAllErrors(new PrintWriter(System.err, true));
+        }
+        if (errorLog.getTotal() > 2L * errorLog.getCapacity()) {
+            errorLog.printSummary(new PrintWriter(System.err, true));
+            System.out.println();
+        }
+
+        // Print where the program spent its time
+        if (options.profile) {
+            profiler.printReport(new PrintWriter(System.out), mainMemory,
+                    Profiler.DEFAULT_REPORT_LENGTH);
             System.out.println();
         }
 
+        // Write the control flow graph with the jumps that were taken
+        if (graph != null) {
+            try (PrintWriter dot = new PrintWriter(options.graphPath,
+                    StandardCharsets.UTF_8)) {
+                graph.writeDot(dot, programLoader.getCharacterSegmentName());
+            } catch (IOException e) {
+                System.out.println("Error: Could not write control flow "
+                        + "graph file " + options.graphPath + ".");
+            }
+        }
+
+        // Print the final counts
+        if (metrics != null) {
+            System.err.println(
+                    metrics.snapshot(metrics.getInstructionsPerSecond()));
+            metrics.close();
+        }
+
         // Print exiting message and end simulation
         System.out.println("Execution of program "
                 + programLoader.getCharacterSegmentName() + " has ended.");
     }
 
+    /**
+     * Gives the traps a scripted input and captured output if asked to,
+     * buffering their output unless it has to interleave with a trace.
+     *
+     * @param machineState
+     *            The machine whose traps are set up
+     * @param options
+     *            The options naming the input and output files
+     * @param runningMode
+     *            The running mode of the simulator
+     * @param inKeyboard
+     *            Java Scanner object to read user input from the keyboard
+     * @return The stream trap output is written to, to be closed at the end,
+     *         or null if it goes to the console
+     */
+    private static PrintStream setUpTrapIO(MachineState machineState,
+            SimulatorOptions options, int runningMode, Scanner inKeyboard) {
+        Scanner trapInput = inKeyboard;
+        if (options.inputPath != null) {
+            try {
+                trapInput = new Scanner(new File(options.inputPath),
+                        StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                System.out.println("Error: Could not read input file "
+                        + options.inputPath + ". Reading from the keyboard.");
+            }
+        }
+        PrintStream trapOutput = null;
+        if (options.outputPath != null) {
+            try {
+                trapOutput = new PrintStream(new BufferedOutputStream(
+                        new FileOutputStream(options.outputPath), 1 << 16),
+                        false, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                System.out.println("Error: Could not write output file "
+                        + options.outputPath + ". Writing to the console.");
+            }
+        }
+        if (trapOutput != null) {
+            machineState.setTrapIO(
+                    new BufferedConsoleTrapIO(trapInput, trapOutput));
+        } else if (runningMode == 1) {
+            machineState.setTrapIO(
+                    new BufferedConsoleTrapIO(trapInput, System.out));
+        } else {
+            machineState.setTrapIO(new ConsoleTrapIO(trapInput));
+        }
+        return trapOutput;
+    }
+
     /**
      * Executes the program loaded into the MainMemory object to completion.
      * Stops execution when the instruction limit is hit, or when a halt
@@ -121,58 +312,129 @@ public class Simulator {
      * @param executingMemory
      *            The MainMemory object where the executing prorgam is loaded
      *            into
-     * @param registers
-     *            The registers the program is using. 0-7 are general purpose, 8
-     *            is the program counter
-     * @param programCounter
-     *            The program counter has as its value the address of the next
-     *            instruction to execute
-     * @param conditions
-     *            The condition code registers, N, Z, P
+     * @param machineState
+     *            The registers, program counter and condition codes the
+     *            program executes on
+     * @param errorLog
+     *            The log the errors of the machine are counted in
+     * @param executor
+     *            Executes the program a basic block at a time when compiling
+     *            frequently executed code, or null to execute every
+     *            instruction separately
+     * @param threadedCode
+     *            The pre-bound handlers to execute instructions with, or null
+     *            to interpret every instruction
+     * @param profiler
+     *            Records the instructions executed, or null to not profile
+     * @param metrics
+     *            Counts the instruction mix, or null to not count it
+     * @param renderer
+     *            Prints the execution trace
      * @param runningMode
      *            The running mode of the simulator
      * @param maxInstructionsLeft
      *            The maximum number of instructions the program is allowed to
      *            execute
+     * @param checkpointPath
+     *            The file to save snapshots of the machine to, or null to not
+     *            save any
      * @param inKeyboard
      *            Java Scanner object to read user input from the keyboard
      */
     private static void executeProgram(MainMemory executingMemory,
-            GeneralRegister[] registers, ProgramCounter programCounter,
-            ConditionRegister[] conditions, int runningMode,
-            int maxInstructionsLeft, Scanner inKeyboard) {
+            MachineState machineState, ErrorLog errorLog,
+            TieredExecutor executor, ThreadedCode threadedCode,
+            Profiler profiler, SimulationMetrics metrics,
+            TraceRenderer renderer, int runningMode,
+            long maxInstructionsLeft, String checkpointPath,
+            Scanner inKeyboard) {
         // Set exit status of the interpreter to START
         Instructions interpreterExitStatus = Instructions.NOEXE;
         //Print pre-execution machine state unless in quiet mode
         if (runningMode != 1) {
-            printDebugInfo(executingMemory, registers, programCounter,
-                    conditions, interpreterExitStatus);
+            renderer.render(interpreterExitStatus);
             if (runningMode == 3) {
-                waitForUserStep(inKeyboard);
+                waitForUserStep(inKeyboard, renderer,
+                        executingMemory, machineState);
             }
         }
 
-        // Run until execution is halted by instruction or time limits
+        // Instructions executed since the last snapshot was saved
+        long sinceCheckpoint = 0;
+
+        // Run until execution is halted by instruction, time limits or errors
         while (interpreterExitStatus != Instructions.HALT
-                && maxInstructionsLeft > 0) {
-            // Execute the next instruction
-            interpreterExitStatus = Interpreter.executeCycle(executingMemory,
-                    registers, conditions, programCounter);
-
-            // Print post-instruction machine state unless in quiet mode
-            if (runningMode != 1
-                    || interpreterExitStatus == Instructions.DBUG) {
-                printDebugInfo(executingMemory, registers, programCounter,
-                        conditions, interpreterExitStatus);
+                && maxInstructionsLeft > 0 && !errorLog.isHaltRequested()) {
+            // Stop batches at the next checkpoint
+            long batchLimit = maxInstructionsLeft;
+            if (checkpointPath != null) {
+                batchLimit = Math.min(batchLimit,
+                        CHECKPOINT_INTERVAL - sinceCheckpoint);
+            }
+
+            // Execute the next basic block, or a batch of instructions:
+            // quiet mode runs until something needs printing, trace and
+            // step mode one instruction at a time through the same checks
+            long instructionsExecuted;
+            RunResult.ExitReason batchExitReason = null;
+            if (executor != null) {
+                instructionsExecuted = executor.executeBlock(batchLimit);
+                interpreterExitStatus = executor.getLastInstruction();
+            } else {
+                if (runningMode != 1) {
+                    batchLimit = 1;
+                }
+                RunResult result = threadedCode != null
+                        ? threadedCode.run(machineState, batchLimit, profiler)
+                        : Interpreter.run(executingMemory, machineState,
+                                batchLimit, profiler, metrics);
+                instructionsExecuted = result.getInstructionCount();
+                interpreterExitStatus = result.getLastInstruction();
+                batchExitReason = result.getReason();
+            }
+
+            // Print post-instruction machine state unless in quiet mode,
+            // and nothing if a breakpoint stopped the machine before it
+            if (instructionsExecuted > 0 && (runningMode != 1
+                    || interpreterExitStatus == Instructions.DBUG)) {
+                renderer.render(interpreterExitStatus);
             }
 
             // Wait for user step if in step mode
-            if (runningMode == 3) {
-                waitForUserStep(inKeyboard);
+            if (runningMode == 3 && instructionsExecuted > 0) {
+                waitForUserStep(inKeyboard, renderer,
+                        executingMemory, machineState);
+            }
+
+            // Show where a breakpoint or watchpoint stopped the machine and
+            // wait for the user to carry on
+            if (batchExitReason == RunResult.ExitReason.BREAKPOINT
+                    || batchExitReason == RunResult.ExitReason.WATCHPOINT) {
+                printStop(executingMemory.getBreakpoints(), batchExitReason,
+                        machineState);
+                renderer.render(interpreterExitStatus);
+                waitForUserStep(inKeyboard, renderer,
+                        executingMemory, machineState);
             }
 
             // Decrement maxInstructionsLeft
-            maxInstructionsLeft--;
+            maxInstructionsLeft -= instructionsExecuted;
+
+            // Save a snapshot every CHECKPOINT_INTERVAL instructions
+            sinceCheckpoint += instructionsExecuted;
+            if (checkpointPath != null
+                    && sinceCheckpoint >= CHECKPOINT_INTERVAL) {
+                saveCheckpoint(checkpointPath, executingMemory, machineState);
+                sinceCheckpoint = 0;
+            }
+        }
+
+        // Program output comes before the exit message
+        machineState.getTrapIO().flush();
+
+        // Save the final state so it can be carried on from
+        if (checkpointPath != null) {
+            saveCheckpoint(checkpointPath, executingMemory, machineState);
         }
 
         // Print an execution exiting message
@@ -184,6 +446,9 @@ public class Simulator {
             // If HALT instruction is execution
             System.out
                     .println("Execution ended, because the program finished.");
+        } else if (errorLog.isHaltRequested()) {
+            // If an error stopped the machine
+            System.out.println("Execution ended, because of an error.");
         } else {
             // If an unknown exit occurs
             System.out.println("Execution ended because of an unknown reason.");
@@ -194,98 +459,9 @@ public class Simulator {
 
         //Print post-execution machine state unless in quiet mode
         if (runningMode != 1) {
-            printDebugInfo(executingMemory, registers, programCounter,
-                    conditions, interpreterExitStatus);
-        }
-
-    }
-
-    /**
-     * Prints a debug execution trace. Prints the current memory page and
-     * affected registers in Hex. Prints the last instruction executed.
-     *
-     * @param memory
-     *            The MainMemory object into which the object file is to be
-     *            loaded
-     * @param registers
-     *            The array of registers the current program is using
-     * @param programCounter
-     *            The program counter has as its value the address of the next
-     *            instruction to execute
-     * @param conditions
-     *            The condition code registers, N, Z, P
-     * @param interpreterExitStatus
-     *            The exit status of the interpreter including last instruction
-     *            executed, and affected registers
-     */
-    private static void printDebugInfo(MainMemory memory,
-            GeneralRegister[] registers, ProgramCounter programCounter,
-            ConditionRegister[] conditions,
-            Instructions interpreterExitStatus) {
-
-        // Get the current page in memory
-        short[] currentMemoryPage = memory
-                .getPage((short) programCounter.getAddress());
-
-        // Print desired debug trace
-        if (interpreterExitStatus == Instructions.NOEXE
-                || interpreterExitStatus == Instructions.DBUG) {
-            System.out.println();
-            // Print non-executing trace
-
-            // Print the program counter
-            System.out.println(programCounter);
-
-            // Print all the registers
-            for (int i = 0; i < registers.length; i++) {
-                System.out.println(registers[i]);
-            }
-
-            // Print the condition codes
-            System.out.println(conditions[0] + "\t" + conditions[1] + "\t"
-                    + conditions[2]);
-
-            // Print the current page in memory
-            for (int i = 0; i < currentMemoryPage.length; i++) {
-                System.out.print(
-                        " " + Bits.shortToHexString(currentMemoryPage[i]));
-                if ((i + 1) % 24 == 0) {
-                    System.out.println();
-                }
-            }
-        } else { // Print in-execution debug trace
-            // Print the program counter
-            System.out.println(programCounter);
-
-            for (int i = 0; i < registers.length; i++) {
-                if (registers[i].getModified()) {
-                    System.out.println(registers[i]);
-                }
-            }
-
-            // Print the condition codes
-            System.out.println(conditions[0] + "\t" + conditions[1] + "\t"
-                    + conditions[2]);
-
-            // Print the last executed instruction
-            System.out.println(
-                    "Last Instruction Executed: " + interpreterExitStatus);
-
-            // Print the current page in memory
-            for (int i = 0; i < currentMemoryPage.length; i++) {
-                System.out.print(
-                        " " + Bits.shortToHexString(currentMemoryPage[i]));
-                if ((i + 1) % 24 == 0) {
-                    System.out.println();
-                }
-            }
+            renderer.render(interpreterExitStatus);
         }
 
-        // Print current errors
-        System.out.println();
-        ErrorHandler.invokeAllErrors(new PrintWriter(System.err, true));
-
-        System.out.print("\n\n");
     }
 
     /**
@@ -299,12 +475,15 @@ public class Simulator {
      * @param memory
      *            The MainMemory object into which the object file is to be
      *            loaded
+     * @param verifyChecksum
+     *            Whether the checksum of an object image loaded into a paged
+     *            memory is checked
      * @return Returns the Loader object which loaded the object file to memory.
      *         This object contains the program name, starting execution
      *         address, initial load address, and segment length
      */
     private static Loader loadObjectFileToMemory(Scanner inKeyboard,
-            MainMemory memory) {
+            MainMemory memory, boolean verifyChecksum) {
         // Loader to be returned on successful load
         Loader programLoader;
         boolean successfulLoad;
@@ -317,8 +496,9 @@ public class Simulator {
             // Send file name to Loader to load into memory
             programLoader = new Loader(memory, objectFileName);
 
-            // Load the object file into memory
-            successfulLoad = programLoader.loadToMemory();
+            // Load the object file into memory, only as it is accessed if
+            // the memory is paged
+            successfulLoad = programLoader.loadOnDemand(verifyChecksum);
             if (!successfulLoad) {
                 System.out.println("Object file could not be loaded.");
             }
@@ -336,12 +516,12 @@ public class Simulator {
      *
      * @param inKeyboard
      *            Java Scanner object to read user input from the keyboard
-     * @return Returns the time limit as an integer if parsing is successful, a
+     * @return Returns the time limit as a long if parsing is successful, a
      *         default value of 500 if not
      */
-    private static int getTimeLimitInstructions(Scanner inKeyboard) {
+    private static long getTimeLimitInstructions(Scanner inKeyboard) {
         // Set default time limit
-        int timeLimitInstructions = 500;
+        long timeLimitInstructions = 500;
 
         // Prompt user to input time limit
         System.out.print("Enter maximum number of instructions to run: ");
@@ -349,8 +529,8 @@ public class Simulator {
 
         // Try to parse the user input as the time limit
         try {
-            timeLimitInstructions = Integer
-                    .parseInt(timeLimitInstructionsUserInput);
+            timeLimitInstructions = Long
+                    .parseLong(timeLimitInstructionsUserInput);
         } catch (NumberFormatException e) {
             // Use default time limit on parsing failure
         }
@@ -406,13 +586,75 @@ public class Simulator {
         return runningMode;
     }
 
+    /**
+     * Prints which breakpoint or watchpoint stopped the machine.
+     *
+     * @param breakpoints
+     *            The breakpoints of the machine
+     * @param reason
+     *            Whether a breakpoint or a watchpoint was hit
+     * @param machineState
+     *            The registers, program counter and condition codes of the
+     *            machine
+     */
+    private static void printStop(Breakpoints breakpoints,
+            RunResult.ExitReason reason, MachineState machineState) {
+        machineState.getTrapIO().flush();
+        System.out.println();
+        if (reason == RunResult.ExitReason.BREAKPOINT) {
+            System.out.println(String.format("Stopped at breakpoint x%04X.",
+                    machineState.getPc()));
+        } else {
+            boolean write = breakpoints.wasWatchHitWrite();
+            System.out.println(String.format(
+                    "Stopped after %s watched address x%04X.",
+                    write ? "writing" : "reading",
+                    breakpoints.pollWatchHit()));
+        }
+    }
+
+    /**
+     * Saves a snapshot of the machine, printing an error instead of stopping
+     * if it cannot be saved.
+     *
+     * @param checkpointPath
+     *            The file to save the snapshot to
+     * @param memory
+     *            The memory of the machine
+     * @param machineState
+     *            The registers, program counter and condition codes of the
+     *            machine
+     */
+    private static void saveCheckpoint(String checkpointPath,
+            MainMemory memory, MachineState machineState) {
+        try {
+            Snapshot.save(checkpointPath, memory, machineState);
+        } catch (IOException e) {
+            System.out.println(
+                    "Error: Could not save checkpoint: " + e.getMessage());
+        }
+    }
+
     /**
      * Continuously prompts the user to enter "step", returns once it's entered.
+     * Entering "page" prints the current memory page. When the memory has an
+     * undo log, entering "back" takes back the last instruction and entering
+     * "reverse" takes back instructions until a breakpoint or watched write.
      *
      * @param inKeyboard
      *            Java Scanner object to read user input from the keyboard
+     * @param renderer
+     *            Prints the current memory page on request
+     * @param memory
+     *            The memory of the machine
+     * @param machineState
+     *            The registers, program counter and condition codes of the
+     *            machine
      */
-    private static void waitForUserStep(Scanner inKeyboard) {
+    private static void waitForUserStep(Scanner inKeyboard,
+            TraceRenderer renderer, MainMemory memory,
+            MachineState machineState) {
+        UndoLog undoLog = memory.getUndoLog();
         // User response for "step" prompt
         String userResponse = new String();
         System.out.println();
@@ -420,9 +662,29 @@ public class Simulator {
         do {
             // Prompt user to enter "step"
             System.out.print("Enter \"step\" to continue: ");
+            renderer.flush();
 
             // Read user input
             userResponse = inKeyboard.nextLine();
+            if (userResponse.equals("page")) {
+                renderer.renderPage();
+            } else if (undoLog != null && (userResponse.equals("back")
+                    || userResponse.equals("reverse"))) {
+                // Step backwards and show where the machine is now
+                long reversed = 0;
+                if (userResponse.equals("back")) {
+                    reversed = undoLog.reverseStep(memory, machineState) ? 1
+                            : 0;
+                } else {
+                    reversed = undoLog.reverseContinue(memory, machineState,
+                            memory.getBreakpoints());
+                }
+                System.out.println(String.format(
+                        "Stepped back %d instructions to x%04X.", reversed,
+                        machineState.getPc()));
+                renderer.render(Instructions.NOEXE);
+                System.out.println();
+            }
         } while (!userResponse.equals("step"));
     }
 
@@ -0,0 +1,311 @@
+package simulator;
+
+/**
+ * The options that can follow the object file, running mode and instruction
+ * limit on the command line of the Simulator:
+ *
+ * <pre>
+ * -jit              compile frequently executed code in quiet mode
+ * -threaded         execute through handlers bound at load time, fusing
+ *                   common pairs of instructions in quiet mode
+ * -haltonerror      stop at the first error
+ * -delta            only trace what each instruction changed
+ * -checkpoint file  save a snapshot of the machine every
+ *                   Simulator.CHECKPOINT_INTERVAL instructions and at the end
+ * -resume file      start from a saved snapshot
+ * -break address    stop before executing a hex address
+ * -watch address    stop after a hex address is written
+ * -rwatch address   stop after a hex address is read
+ * -profile          report the most executed addresses and loops at the end
+ * -listing file     profile, annotating the report with the lines of an
+ *                   assembler listing file
+ * -metrics seconds  count the instruction mix, traps and memory accesses,
+ *                   exposed over JMX and printed to System.err at that
+ *                   interval
+ * -input file       read trap input from a file
+ * -output file      write trap output to a file
+ * -seed number      seed the RND trap to repeat a run
+ * -undo entries     keep an undo log of that many entries, so that "back"
+ *                   and "reverse" at a step prompt step backwards
+ * -flat             back memory with the whole address space, still
+ *                   reporting accesses outside of the program
+ * -unprotected      with -flat, allow the whole address space
+ * -demand           read each page of an object image the first time it is
+ *                   accessed; text object files are still loaded whole
+ * -unchecked        with -demand, do not check the checksum of an object
+ *                   image, so that loading does not read the whole program
+ * -cfg file         write the control flow graph of the program to a DOT
+ *                   file at the end, with the computed jumps taken filled in
+ * </pre>
+ *
+ * Unknown options and options with a missing or invalid value are ignored.
+ * Breakpoints, watchpoints, profiling, metrics and undo logs apply in every
+ * running mode. They need every instruction to be interpreted, so they turn
+ * off -jit, and all of them but profiling turn off -threaded. -demand also
+ * turns off -threaded, which would bind every word of the program up front.
+ */
+final class SimulatorOptions {
+
+    /**
+     * The index of the first option, after the object file, running mode and
+     * instruction limit.
+     */
+    static final int FIRST_OPTION = 3;
+
+    /**
+     * Whether frequently executed code is compiled in quiet mode.
+     */
+    boolean compileHotCode;
+
+    /**
+     * Whether instructions are executed through threaded code.
+     */
+    boolean useThreadedCode;
+
+    /**
+     * Whether the machine stops at the first error.
+     */
+    boolean haltOnError;
+
+    /**
+     * Whether the trace only shows what each instruction changed.
+     */
+    boolean deltaTrace;
+
+    /**
+     * The file to save snapshots of the machine to, or null to not save any.
+     */
+    String checkpointPath;
+
+    /**
+     * The snapshot to start from, or null to start from the beginning.
+     */
+    String resumePath;
+
+    /**
+     * The breakpoints and watchpoints to stop at, or null if there are none.
+     */
+    Breakpoints breakpoints;
+
+    /**
+     * Whether the instructions executed are profiled.
+     */
+    boolean profile;
+
+    /**
+     * The assembler listing to annotate the profile with, or null.
+     */
+    String listingPath;
+
+    /**
+     * How often metrics are printed in seconds, 0 to only print them at the
+     * end, or -1 to not count them.
+     */
+    long metricsSeconds = -1;
+
+    /**
+     * The file traps read input from, or null to read from the keyboard.
+     */
+    String inputPath;
+
+    /**
+     * The file traps write output to, or null to write to the console.
+     */
+    String outputPath;
+
+    /**
+     * The seed of the RND trap, or null to leave it unseeded.
+     */
+    Long seed;
+
+    /**
+     * The number of entries of the undo log, or -1 to not keep one.
+     */
+    int undoEntries = -1;
+
+    /**
+     * Whether memory covers the whole address space.
+     */
+    boolean flat;
+
+    /**
+     * Whether accesses outside of the program are reported with -flat.
+     */
+    boolean protect = true;
+
+    /**
+     * Whether the program is loaded a page at a time as it is accessed.
+     */
+    boolean demand;
+
+    /**
+     * Whether the checksum of an object image is checked with -demand.
+     */
+    boolean verifyChecksum = true;
+
+    /**
+     * The file to write the control flow graph to, or null to not recover
+     * it.
+     */
+    String graphPath;
+
+    /**
+     * Reads the options following the positional arguments.
+     *
+     * @param args
+     *            Arguments passed into the command line
+     * @return The options given, with the ones that cannot be combined
+     *         turned off
+     */
+    static SimulatorOptions parse(String[] args) {
+        SimulatorOptions options = new SimulatorOptions();
+        for (int i = FIRST_OPTION; i < args.length; i++) {
+            // The value of an option, if it has one
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            switch (args[i]) {
+                case "-jit":
+                    options.compileHotCode = true;
+                    break;
+                case "-threaded":
+                    options.useThreadedCode = true;
+                    break;
+                case "-haltonerror":
+                    options.haltOnError = true;
+                    break;
+                case "-delta":
+                    options.deltaTrace = true;
+                    break;
+                case "-profile":
+                    options.profile = true;
+                    break;
+                case "-flat":
+                    options.flat = true;
+                    break;
+                case "-unprotected":
+                    options.protect = false;
+                    break;
+                case "-demand":
+                    options.demand = true;
+                    break;
+                case "-unchecked":
+                    options.verifyChecksum = false;
+                    break;
+                default:
+                    if (value != null && options.parseValue(args[i], value)) {
+                        i++;
+                    }
+                    break;
+            }
+        }
+
+        // Breakpoints, metrics and undo logs are only checked by the
+        // interpreter, which is also the only one to profile besides
+        // threaded code
+        if (options.breakpoints != null || options.metricsSeconds >= 0
+                || options.undoEntries >= 0) {
+            options.compileHotCode = false;
+            options.useThreadedCode = false;
+        }
+        if (options.profile || options.graphPath != null) {
+            options.compileHotCode = false;
+        }
+
+        // Threaded code binds a handler to every word at load time, which
+        // would read in every page before the first instruction
+        if (options.demand) {
+            options.useThreadedCode = false;
+        }
+        return options;
+    }
+
+    /**
+     * Reads an option that takes a value.
+     *
+     * @param option
+     *            The option
+     * @param value
+     *            The argument following it
+     * @return True if the option takes a value, even if the value is invalid
+     */
+    private boolean parseValue(String option, String value) {
+        switch (option) {
+            case "-checkpoint":
+                this.checkpointPath = value;
+                return true;
+            case "-resume":
+                this.resumePath = value;
+                return true;
+            case "-break":
+            case "-watch":
+            case "-rwatch":
+                int address = parseAddress(value);
+                if (address >= 0) {
+                    if (this.breakpoints == null) {
+                        this.breakpoints = new Breakpoints();
+                    }
+                    if (option.equals("-break")) {
+                        this.breakpoints.setBreakpoint(address);
+                    } else if (option.equals("-watch")) {
+                        this.breakpoints.watchWrites(address);
+                    } else {
+                        this.breakpoints.watchReads(address);
+                    }
+                }
+                return true;
+            case "-listing":
+                this.profile = true;
+                this.listingPath = value;
+                return true;
+            case "-metrics":
+                try {
+                    this.metricsSeconds = Math.max(0, Long.parseLong(value));
+                } catch (NumberFormatException e) {
+                    // Leave metrics off if invalid argument
+                }
+                return true;
+            case "-input":
+                this.inputPath = value;
+                return true;
+            case "-output":
+                this.outputPath = value;
+                return true;
+            case "-seed":
+                try {
+                    this.seed = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    // Leave the generator unseeded if invalid argument
+                }
+                return true;
+            case "-undo":
+                try {
+                    this.undoEntries = Math.max(0, Integer.parseInt(value));
+                } catch (NumberFormatException e) {
+                    // Leave the undo log off if invalid argument
+                }
+                return true;
+            case "-cfg":
+                this.graphPath = value;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Parses an address given on the command line as up to four hex digits,
+     * optionally preceded by an x.
+     *
+     * @param address
+     *            The address to parse
+     * @return The unsigned address, or -1 if it is not valid
+     */
+    private static int parseAddress(String address) {
+        String digits = address.startsWith("x") ? address.substring(1)
+                : address;
+        if (digits.isEmpty() || digits.length() > 4
+                || !Bits.isValidHexString(digits)) {
+            return -1;
+        }
+        return Short.toUnsignedInt(Bits.hexStringToShort(digits));
+    }
+}
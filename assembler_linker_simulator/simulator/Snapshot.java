@@ -0,0 +1,184 @@
+package simulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves the whole state of a machine to a file and restores it, so long runs
+ * can resume after a crash and many runs can start from the same point. A
+ * snapshot is laid out big-endian as:
+ *
+ * <pre>
+ * offset  size  contents
+ *      0     4  MAGIC
+ *      4     2  VERSION
+ *      6     2  initial address of the memory
+ *      8     4  number of words of memory, m
+ *     12     4  number of state values, s
+ *     16   4*s  the MachineState values: R0-R7, PC, condition codes and
+ *               modified registers
+ *  16+4s   2*m  the words of memory
+ *     end    4  CRC-32 of everything before it
+ * </pre>
+ *
+ * The console of the machine and anything derived from its memory, such as
+ * threaded code or compiled blocks, are not part of a snapshot.
+ */
+public final class Snapshot {
+
+    /**
+     * The first four bytes of every snapshot, "SNAP" in ASCII.
+     */
+    public static final int MAGIC = 0x534E4150;
+
+    /**
+     * The version of the layout written by this class.
+     */
+    public static final short VERSION = 1;
+
+    /**
+     * The number of bytes before the state values.
+     */
+    private static final int HEADER_LENGTH = 16;
+
+    /**
+     * The number of bytes after the words of memory.
+     */
+    private static final int TRAILER_LENGTH = 4;
+
+    /**
+     * Not meant to be instantiated.
+     */
+    private Snapshot() {
+    }
+
+    /**
+     * Saves a machine to a snapshot. The snapshot is written next to its
+     * final path and then moved over it, so a crash while saving leaves the
+     * previous snapshot intact.
+     *
+     * @param snapshotPath
+     *            The path of the snapshot to write
+     * @param mem
+     *            The memory of the machine
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @throws IOException
+     *             If the snapshot cannot be written
+     */
+    public static void save(String snapshotPath, MainMemory mem,
+            MachineState state) throws IOException {
+        int[] values = state.values;
+        short[] words = mem.words();
+        ByteBuffer snapshot = ByteBuffer
+                .allocate(HEADER_LENGTH + 4 * values.length + 2 * words.length
+                        + TRAILER_LENGTH)
+                .order(ByteOrder.BIG_ENDIAN);
+        snapshot.putInt(MAGIC).putShort(VERSION).putShort(mem.initialAddress)
+                .putInt(words.length).putInt(values.length);
+        snapshot.asIntBuffer().put(values);
+        //The condition codes are saved as their N/Z/P bits
+        snapshot.putInt(HEADER_LENGTH + 4 * MachineState.CC,
+                state.getConditions());
+        snapshot.position(snapshot.position() + 4 * values.length);
+        snapshot.asShortBuffer().put(words);
+        snapshot.position(snapshot.position() + 2 * words.length);
+        ByteBuffer body = snapshot.duplicate();
+        body.flip();
+        snapshot.putInt(ObjectImage.checksum(body));
+        snapshot.flip();
+
+        Path target = Paths.get(snapshotPath);
+        Path temporary = Paths.get(snapshotPath + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (snapshot.hasRemaining()) {
+                channel.write(snapshot);
+            }
+            channel.force(false);
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Restores a machine from a snapshot by mapping the file and copying it
+     * into the memory and machine state in bulk. Anything built from the old
+     * contents of the memory, such as threaded code, has to be built again.
+     *
+     * @param snapshotPath
+     *            The path of the snapshot to read
+     * @param mem
+     *            The memory to restore
+     * @param state
+     *            The machine state to restore
+     * @throws IOException
+     *             If the snapshot cannot be read or is not a valid snapshot
+     */
+    public static void restore(String snapshotPath, MainMemory mem,
+            MachineState state) throws IOException {
+        ByteBuffer snapshot;
+        try (FileChannel channel = FileChannel.open(Paths.get(snapshotPath),
+                StandardOpenOption.READ)) {
+            snapshot = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        }
+
+        int size = snapshot.limit();
+        if (size < HEADER_LENGTH + TRAILER_LENGTH
+                || snapshot.getInt(0) != MAGIC) {
+            throw new IOException(snapshotPath + " is not a snapshot");
+        }
+        if (snapshot.getShort(4) != VERSION) {
+            throw new IOException(snapshotPath + " has an unsupported version");
+        }
+        short initialAddress = snapshot.getShort(6);
+        int words = snapshot.getInt(8);
+        int values = snapshot.getInt(12);
+        if (words < 1 || words > 0x10000 || values != state.values.length
+                || size != HEADER_LENGTH + 4L * values + 2L * words
+                        + TRAILER_LENGTH) {
+            throw new IOException(snapshotPath + " has the wrong size");
+        }
+        int bodyLength = size - TRAILER_LENGTH;
+        if (ObjectImage.checksum(snapshot.slice(0, bodyLength)) != snapshot
+                .getInt(bodyLength)) {
+            throw new IOException(snapshotPath + " is corrupt");
+        }
+
+        snapshot.slice(HEADER_LENGTH, 4 * values).asIntBuffer()
+                .get(state.values);
+        state.setConditions(state.values[MachineState.CC]);
+        mem.setInitialLoadAddress(initialAddress);
+        mem.setSegmentLength((short) (words - 1));
+        mem.loadWords(snapshot.slice(HEADER_LENGTH + 4 * values, 2 * words)
+                .asShortBuffer());
+    }
+
+    /**
+     * Checks whether a file is a snapshot.
+     *
+     * @param path
+     *            The path of the file
+     * @return True if the file starts with the snapshot magic number
+     */
+    public static boolean isSnapshot(String path) {
+        ByteBuffer magic = ByteBuffer.allocate(4);
+        try (FileChannel channel = FileChannel.open(Paths.get(path),
+                StandardOpenOption.READ)) {
+            channel.read(magic, 0);
+        } catch (IOException e) {
+            return false;
+        }
+        return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+    }
+}
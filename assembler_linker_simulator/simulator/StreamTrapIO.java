@@ -0,0 +1,130 @@
+package simulator;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * A TrapIO reading from and writing to character streams, used to give a
+ * machine its own input and capture its output. Output is buffered and only
+ * written to the stream before input is read, when flush() is called and when
+ * the console is closed, so batch runs can script their input from a file and
+ * capture their output to another without a write per trap.
+ */
+public class StreamTrapIO implements TrapIO, AutoCloseable {
+
+    /**
+     * The input of the machine.
+     */
+    private final BufferedReader input;
+
+    /**
+     * The output of the machine.
+     */
+    private final PrintWriter output;
+
+    /**
+     * Creates a console over a pair of streams.
+     *
+     * @param input
+     *            The stream the machine reads its input from
+     * @param output
+     *            The stream the machine writes its output to
+     */
+    public StreamTrapIO(Reader input, Writer output) {
+        this.input = new BufferedReader(input);
+        this.output = new PrintWriter(new BufferedWriter(output));
+    }
+
+    /**
+     * Opens a console that reads a script of input lines from one file and
+     * captures the output in another.
+     *
+     * @param inputPath
+     *            The file to read input lines from, or null for no input
+     * @param outputPath
+     *            The file to write the output to, replacing it if it exists
+     * @return The console, which must be closed to write all of the output
+     * @throws IOException
+     *             If either file cannot be opened
+     */
+    public static StreamTrapIO open(String inputPath, String outputPath)
+            throws IOException {
+        Reader input = inputPath == null ? new StringReader("")
+                : Files.newBufferedReader(Paths.get(inputPath),
+                        StandardCharsets.UTF_8);
+        try {
+            return new StreamTrapIO(input, Files.newBufferedWriter(
+                    Paths.get(outputPath), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes text without ending the line.
+     *
+     * @param text
+     *            The text to write
+     */
+    @Override
+    public void print(String text) {
+        this.output.print(text);
+    }
+
+    /**
+     * Writes text followed by a line separator.
+     *
+     * @param text
+     *            The text to write
+     */
+    @Override
+    public void println(String text) {
+        this.output.println(text);
+    }
+
+    /**
+     * Reads the next line of input, after writing out the output so far.
+     *
+     * @return The line without its line separator, or null if there is no
+     *         more input
+     */
+    @Override
+    public String readLine() {
+        this.output.flush();
+        try {
+            return this.input.readLine();
+        } catch (IOException e) {
+            //A failed read is treated as the end of the input
+            return null;
+        }
+    }
+
+    /**
+     * Writes the output so far to the output stream.
+     */
+    @Override
+    public void flush() {
+        this.output.flush();
+    }
+
+    /**
+     * Writes the output so far and closes both streams.
+     *
+     * @throws IOException
+     *             If the input stream cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.output.close();
+        this.input.close();
+    }
+}
@@ -0,0 +1,626 @@
+package simulator;
+
+/**
+ * Holds a pre-bound InstructionHandler for every word of the loaded program so
+ * that executing an instruction is a single call, without decoding the word
+ * or switching on its opcode. Handlers are built from the memory contents when
+ * the program is loaded, and the handler of a word is rebuilt whenever that
+ * word is written to.
+ *
+ * Common pairs of instructions also get a fused handler that executes both
+ * in one call. Only run() uses them, between two instructions that nothing
+ * could observe apart, so executeCycle() still executes exactly one
+ * instruction for tracing and stepping.
+ */
+public class ThreadedCode implements MainMemory.CodeWriteListener {
+
+    /**
+     * The pairs of instructions that are executed by one fused handler.
+     */
+    public enum Fusion {
+
+        /**
+         * LD from an address inside of memory followed by ADD.
+         */
+        LD_ADD(Instructions.LD, Instructions.ADD),
+
+        /**
+         * ADD followed by BRX, the tail of a counted loop.
+         */
+        ADD_BRX(Instructions.ADD, Instructions.BRX),
+
+        /**
+         * LDR followed by STR, the body of a copy loop.
+         */
+        LDR_STR(Instructions.LDR, Instructions.STR);
+
+        /**
+         * The first instruction of the pair.
+         */
+        final Instructions first;
+
+        /**
+         * The second instruction of the pair, which a fused handler returns
+         * when it executed both.
+         */
+        final Instructions second;
+
+        /**
+         * Creates a kind of fusion.
+         *
+         * @param first
+         *            The first instruction of the pair
+         * @param second
+         *            The second instruction of the pair
+         */
+        Fusion(Instructions first, Instructions second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        /**
+         * Names the pair as the profiler prints it.
+         *
+         * @return The two instructions joined by a plus sign
+         */
+        @Override
+        public String toString() {
+            return this.first + "+" + this.second;
+        }
+    }
+
+    /**
+     * The handler of every DBUG instruction, so that run() can tell them
+     * apart from instructions that could not be executed.
+     */
+    private static final InstructionHandler DEBUG = (state,
+            mem) -> Instructions.DBUG;
+
+    /**
+     * The memory the program is executed from.
+     */
+    private final MainMemory mem;
+
+    /**
+     * The unsigned address of the first word of the program.
+     */
+    private final int firstAddress;
+
+    /**
+     * The handler for each word of the program, indexed from firstAddress.
+     */
+    private final InstructionHandler[] handlers;
+
+    /**
+     * The packed instruction of each word of the program as returned by
+     * Decoder.lookup(), indexed from firstAddress.
+     */
+    private final int[] entries;
+
+    /**
+     * The fused handler executing each word of the program together with the
+     * next one, or null where the pair is not fused.
+     */
+    private final InstructionHandler[] fusedHandlers;
+
+    /**
+     * The kind of pair each fused handler executes, or null where the pair
+     * is not fused.
+     */
+    private final Fusion[] fusions;
+
+    /**
+     * Builds the handlers for a loaded program and registers to be told about
+     * writes to it.
+     *
+     * @param mem
+     *            The memory the program is loaded into
+     * @param firstAddress
+     *            The unsigned initial load address of the program
+     * @param length
+     *            The number of words in the program. Words past the end of
+     *            the address space are ignored.
+     */
+    public ThreadedCode(MainMemory mem, int firstAddress, int length) {
+        this.mem = mem;
+        this.firstAddress = firstAddress;
+        length = Math.min(length, 0x10000 - firstAddress);
+        this.handlers = new InstructionHandler[length];
+        this.entries = new int[length];
+        this.fusedHandlers = new InstructionHandler[length];
+        this.fusions = new Fusion[length];
+        mem.setCodeWriteListener(this);
+        for (int i = 0; i < length; i++) {
+            this.rebind(i);
+            mem.markCode(firstAddress + i);
+        }
+        for (int i = 0; i < length; i++) {
+            this.fuse(i);
+        }
+    }
+
+    /**
+     * Simulates the instruction process cycle by calling the handler bound to
+     * the address in the program counter. Addresses outside of the program
+     * are left to the interpreter so they report the same errors.
+     *
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @return An enum telling the simulator what instruction was executed
+     */
+    public Instructions executeCycle(MachineState state) {
+        int[] s = state.values;
+        int pc = s[MachineState.PC];
+        int index = pc - this.firstAddress;
+        if (index < 0 || index >= this.handlers.length) {
+            return Interpreter.executeCycle(this.mem, state);
+        }
+
+        //Increment past the instruction and execute it
+        if (pc != 0xFFFF) {
+            s[MachineState.PC] = pc + 1;
+        }
+        return this.handlers[index].execute(state, this.mem);
+    }
+
+    /**
+     * Runs up to maxInstructions instructions in a single loop, stopping
+     * for the same reasons as Interpreter.run(). Fused pairs are executed by
+     * one call unless only one instruction is left or the memory has
+     * breakpoints, which may stop the machine between any two instructions.
+     * Addresses outside of the program are left to the interpreter. Like
+     * Interpreter.run(), a profiler is only called for instructions that do
+     * not follow the one executed before them, unless it refines a control
+     * flow graph and so has to see every instruction.
+     *
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @param maxInstructions
+     *            The maximum number of instructions to execute
+     * @param profiler
+     *            The profiler to record instructions and fused pairs in, or
+     *            null to not profile
+     * @return Why the batch stopped and how many instructions it executed
+     */
+    public RunResult run(MachineState state, long maxInstructions,
+            Profiler profiler) {
+        int[] s = state.values;
+        ErrorSink errors = this.mem.getErrorSink();
+        Breakpoints breakpoints = this.mem.getBreakpoints();
+        RunResult.ExitReason reason = RunResult.ExitReason.LIMIT;
+        Instructions last = Instructions.NOEXE;
+        //The profiler only told of jumps, with the address of the previous
+        //instruction kept in a local
+        Profiler jumps = profiler != null && !profiler.refinesGraph()
+                ? profiler
+                : null;
+        int previous = jumps != null ? jumps.resume(s[MachineState.PC])
+                : Profiler.NONE;
+        long executed = 0;
+        while (executed < maxInstructions) {
+            int pc = s[MachineState.PC];
+            int index = pc - this.firstAddress;
+            if (index < 0 || index >= this.handlers.length) {
+                if (jumps != null && previous != Profiler.NONE) {
+                    jumps.stopped(previous, pc);
+                }
+                RunResult result = Interpreter.run(this.mem, state, 1,
+                        profiler);
+                executed += result.getInstructionCount();
+                last = result.getLastInstruction();
+                if (jumps != null) {
+                    previous = jumps.resume(s[MachineState.PC]);
+                }
+                if (result.getReason() != RunResult.ExitReason.LIMIT) {
+                    reason = result.getReason();
+                    break;
+                }
+                continue;
+            }
+            if (breakpoints != null && breakpoints.breakAt(pc)) {
+                reason = RunResult.ExitReason.BREAKPOINT;
+                break;
+            }
+
+            //Increment past the instruction and execute it, with the next
+            //one if they are fused
+            if (pc != 0xFFFF) {
+                s[MachineState.PC] = pc + 1;
+            }
+            Fusion fusion = this.fusions[index];
+            if (fusion != null && breakpoints == null
+                    && maxInstructions - executed >= 2) {
+                last = this.fusedHandlers[index].execute(state, this.mem);
+                boolean both = last == fusion.second;
+                executed += both ? 2 : 1;
+                if (jumps != null) {
+                    if (pc != previous + 1) {
+                        jumps.jumped(previous, pc);
+                    }
+                    previous = both ? pc + 1 : pc;
+                    jumps.recordFusion(fusion, both);
+                } else if (profiler != null) {
+                    if (both) {
+                        profiler.record(pc, pc + 1);
+                        profiler.record(pc + 1, s[MachineState.PC]);
+                    } else {
+                        profiler.record(pc, s[MachineState.PC]);
+                    }
+                    profiler.recordFusion(fusion, both);
+                }
+            } else {
+                last = this.handlers[index].execute(state, this.mem);
+                executed++;
+                if (jumps != null) {
+                    if (pc != previous + 1) {
+                        jumps.jumped(previous, pc);
+                    }
+                    previous = pc;
+                    if (fusion != null) {
+                        jumps.recordFusion(fusion, false);
+                    }
+                } else if (profiler != null) {
+                    profiler.record(pc, s[MachineState.PC]);
+                    if (fusion != null) {
+                        profiler.recordFusion(fusion, false);
+                    }
+                }
+            }
+
+            if (last == Instructions.HALT) {
+                reason = RunResult.ExitReason.HALT;
+                break;
+            }
+            if (last == Instructions.DBUG) {
+                //Only a DBUG opcode is a real debug point
+                reason = this.handlers[index] == DEBUG
+                        ? RunResult.ExitReason.DBUG
+                        : RunResult.ExitReason.ERROR;
+                break;
+            }
+            if (errors.isHaltRequested()) {
+                reason = RunResult.ExitReason.ERROR;
+                break;
+            }
+            if (breakpoints != null && breakpoints.hasWatchHit()) {
+                reason = RunResult.ExitReason.WATCHPOINT;
+                break;
+            }
+        }
+        if (jumps != null && previous != Profiler.NONE) {
+            jumps.stopped(previous, s[MachineState.PC]);
+        }
+        return new RunResult(reason, executed, last);
+    }
+
+    /**
+     * Gets the kind of pair fused at an address.
+     *
+     * @param address
+     *            The unsigned address of the first instruction of the pair
+     * @return The kind of pair, or null if the instruction at the address
+     *         is not fused with the next one
+     */
+    public Fusion getFusion(int address) {
+        int index = address - this.firstAddress;
+        return index >= 0 && index < this.fusions.length
+                ? this.fusions[index]
+                : null;
+    }
+
+    /**
+     * Rebuilds the handler of a word after it is written to, and the fused
+     * handlers of the two pairs it belongs to.
+     *
+     * @param address
+     *            The address of the written word as an unsigned value
+     */
+    @Override
+    public void codeWritten(int address) {
+        int index = address - this.firstAddress;
+        if (index >= 0 && index < this.handlers.length) {
+            this.rebind(index);
+            this.fuse(index - 1);
+            this.fuse(index);
+        }
+    }
+
+    /**
+     * Decodes a word of the program and builds its handler. The word is read
+     * without counting it as a read of the program or checking watchpoints.
+     *
+     * @param index
+     *            The index of the word from firstAddress
+     */
+    private void rebind(int index) {
+        int address = this.firstAddress + index;
+        short word = this.mem.inspectWord(address);
+        this.entries[index] = Decoder.lookup(word);
+        this.handlers[index] = bind(word, address);
+    }
+
+    /**
+     * Builds the fused handler of a word and the next one, if they are a
+     * pair that is fused.
+     *
+     * @param index
+     *            The index of the first word from firstAddress
+     */
+    private void fuse(int index) {
+        if (index < 0 || index + 1 >= this.handlers.length) {
+            return;
+        }
+        this.fusions[index] = null;
+        this.fusedHandlers[index] = null;
+        int address = this.firstAddress + index;
+        //The program counter is not incremented past 0xFFFF
+        if (address + 1 == 0xFFFF) {
+            return;
+        }
+        int first = this.entries[index];
+        int second = this.entries[index + 1];
+        Fusion fusion = fusionOf(first, second, address, this.mem);
+        if (fusion != null) {
+            this.fusions[index] = fusion;
+            this.fusedHandlers[index] = bindFused(fusion, first, second,
+                    address);
+        }
+    }
+
+    /**
+     * Works out whether two instructions are a pair that is fused. LD is only
+     * fused when its address is inside of memory, so that it cannot report
+     * an error that should stop the machine before the ADD.
+     *
+     * @param first
+     *            The packed first instruction returned by Decoder.lookup()
+     * @param second
+     *            The packed second instruction returned by Decoder.lookup()
+     * @param address
+     *            The unsigned address of the first instruction
+     * @param mem
+     *            The memory the program is loaded into
+     * @return The kind of pair, or null if the instructions are not fused
+     */
+    static Fusion fusionOf(int first, int second, int address,
+            MainMemory mem) {
+        int pair = Decoder.opcode(first) << 4 | Decoder.opcode(second);
+        switch (pair) {
+            case 0b0010_0001: //LD, ADD
+                short direct = Bits.fullAddress((short) (address + 1),
+                        Decoder.operand(first));
+                return mem.contains(Short.toUnsignedInt(direct))
+                        ? Fusion.LD_ADD
+                        : null;
+            case 0b0001_0000: //ADD, BRX
+                return Fusion.ADD_BRX;
+            case 0b0110_0111: //LDR, STR
+                return Fusion.LDR_STR;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Creates the fused handler for a pair of instructions. The handler
+     * increments the program counter past the second instruction once the
+     * first has executed, and returns the second instruction only if it
+     * executed both.
+     *
+     * @param fusion
+     *            The kind of pair, as returned by fusionOf()
+     * @param first
+     *            The packed first instruction returned by Decoder.lookup()
+     * @param second
+     *            The packed second instruction returned by Decoder.lookup()
+     * @param address
+     *            The unsigned address of the first instruction, below 0xFFFE
+     * @return The handler executing both instructions
+     */
+    static InstructionHandler bindFused(Fusion fusion, int first, int second,
+            int address) {
+        int dr = Decoder.dr(first);
+        int sr = Decoder.sr(first);
+        short operand = Decoder.operand(first);
+        int secondDr = Decoder.dr(second);
+        int secondSr = Decoder.sr(second);
+        short secondOperand = Decoder.operand(second);
+        int next = address + 2;
+
+        switch (fusion) {
+            case LD_ADD:
+                short direct = Bits.fullAddress((short) (address + 1),
+                        operand);
+                if (Decoder.flag(second) == 0) {
+                    return (state, mem) -> {
+                        int[] s = state.values;
+                        setResult(s, dr, mem.readFromMemory(direct));
+                        s[MachineState.PC] = next;
+                        setResult(s, secondDr,
+                                (short) (s[secondSr] + s[secondOperand]));
+                        return Instructions.ADD;
+                    };
+                }
+                return (state, mem) -> {
+                    int[] s = state.values;
+                    setResult(s, dr, mem.readFromMemory(direct));
+                    s[MachineState.PC] = next;
+                    setResult(s, secondDr,
+                            (short) (s[secondSr] + secondOperand));
+                    return Instructions.ADD;
+                };
+            case ADD_BRX:
+                //The n, z and p bits line up with the packed condition codes
+                short target = Bits.fullAddress((short) next, secondOperand);
+                if (Decoder.flag(first) == 0) {
+                    return (state, mem) -> {
+                        int[] s = state.values;
+                        short result = (short) (s[sr] + s[operand]);
+                        setResult(s, dr, result);
+                        s[MachineState.PC] = next;
+                        if ((MachineState.conditionsFor(result)
+                                & secondDr) != 0) {
+                            state.setPc(target);
+                        }
+                        return Instructions.BRX;
+                    };
+                }
+                return (state, mem) -> {
+                    int[] s = state.values;
+                    short result = (short) (s[sr] + operand);
+                    setResult(s, dr, result);
+                    s[MachineState.PC] = next;
+                    if ((MachineState.conditionsFor(result) & secondDr) != 0) {
+                        state.setPc(target);
+                    }
+                    return Instructions.BRX;
+                };
+            default:
+                //LDR_STR, leaving the STR to execute on its own after a load
+                //from outside of memory so it comes after the error
+                return (state, mem) -> {
+                    int[] s = state.values;
+                    short source = Bits.indexAddress((short) s[sr], operand);
+                    boolean inside = mem.contains(Short.toUnsignedInt(source));
+                    setResult(s, dr, mem.readFromMemory(source));
+                    if (!inside) {
+                        return Instructions.LDR;
+                    }
+                    s[MachineState.PC] = next;
+                    mem.writeToMemory(Bits.indexAddress((short) s[secondSr],
+                            secondOperand), (short) s[secondDr]);
+                    return Instructions.STR;
+                };
+        }
+    }
+
+    /**
+     * Creates the handler for an instruction word. Fields are decoded and
+     * addresses that only depend on the program counter are computed here, so
+     * the handler does no decoding when it runs. Rarely executed instructions
+     * are bound to the interpreter.
+     *
+     * @param word
+     *            The instruction word
+     * @param address
+     *            The unsigned address the word is stored at
+     * @return The handler executing the word
+     */
+    static InstructionHandler bind(short word, int address) {
+        int entry = Decoder.lookup(word);
+        int dr = Decoder.dr(entry);
+        int sr = Decoder.sr(entry);
+        short operand = Decoder.operand(entry);
+        //The program counter is incremented before the instruction executes
+        short pc = (short) (address == 0xFFFF ? address : address + 1);
+        short direct = Bits.fullAddress(pc, operand);
+
+        switch (Decoder.opcode(entry)) {
+            case 0b0001: //ADD
+                if (Decoder.flag(entry) == 0) {
+                    return (state, mem) -> {
+                        int[] s = state.values;
+                        setResult(s, dr, (short) (s[sr] + s[operand]));
+                        return Instructions.ADD;
+                    };
+                }
+                return (state, mem) -> {
+                    int[] s = state.values;
+                    setResult(s, dr, (short) (s[sr] + operand));
+                    return Instructions.ADD;
+                };
+            case 0b0101: //AND
+                if (Decoder.flag(entry) == 0) {
+                    return (state, mem) -> {
+                        int[] s = state.values;
+                        setResult(s, dr, (short) (s[sr] & s[operand]));
+                        return Instructions.AND;
+                    };
+                }
+                return (state, mem) -> {
+                    int[] s = state.values;
+                    setResult(s, dr, (short) (s[sr] & operand));
+                    return Instructions.AND;
+                };
+            case 0b1001: //NOT
+                return (state, mem) -> {
+                    int[] s = state.values;
+                    setResult(s, dr, (short) ~s[sr]);
+                    return Instructions.NOT;
+                };
+            case 0b0010: //LD
+                return (state, mem) -> {
+                    setResult(state.values, dr, mem.readFromMemory(direct));
+                    return Instructions.LD;
+                };
+            case 0b1010: //LDI, evaluated the same way as ldi()
+                return (state, mem) -> {
+                    setResult(state.values, dr, mem.readFromMemory(direct));
+                    return Instructions.LDI;
+                };
+            case 0b0110: //LDR
+                return (state, mem) -> {
+                    int[] s = state.values;
+                    setResult(s, dr, mem.readFromMemory(
+                            Bits.indexAddress((short) s[sr], operand)));
+                    return Instructions.LDR;
+                };
+            case 0b1110: //LEA
+                return (state, mem) -> {
+                    setResult(state.values, dr, direct);
+                    return Instructions.LEA;
+                };
+            case 0b0011: //ST
+                return (state, mem) -> {
+                    mem.writeToMemory(direct, (short) state.values[dr]);
+                    return Instructions.ST;
+                };
+            case 0b0111: //STR
+                return (state, mem) -> {
+                    int[] s = state.values;
+                    mem.writeToMemory(Bits.indexAddress((short) s[sr], operand),
+                            (short) s[dr]);
+                    return Instructions.STR;
+                };
+            case 0b1011: //STI
+                return (state, mem) -> {
+                    mem.writeToMemory(mem.readFromMemory(direct),
+                            (short) state.values[dr]);
+                    return Instructions.STI;
+                };
+            case 0b0000: //BRX
+                //The n, z and p bits line up with the packed condition codes
+                return (state, mem) -> {
+                    if ((MachineState.conditionsFor(
+                            state.values[MachineState.CC]) & dr) != 0) {
+                        state.setPc(direct);
+                    }
+                    return Instructions.BRX;
+                };
+            case 0b1000: //DBUG
+                return DEBUG;
+            default:
+                //Subroutine calls, returns and traps
+                return (state, mem) -> Interpreter.execute(entry, state, mem);
+        }
+    }
+
+    /**
+     * Writes a general register, marks it as modified and makes it the value
+     * the condition codes are worked out from.
+     *
+     * @param s
+     *            The values array of the machine state
+     * @param index
+     *            The number of the register, 0-7
+     * @param result
+     *            The value to set the register to
+     */
+    private static void setResult(int[] s, int index, short result) {
+        s[index] = result;
+        s[MachineState.MODIFIED] |= 1 << index;
+        s[MachineState.CC] = result;
+    }
+}
@@ -0,0 +1,190 @@
+package simulator;
+
+/**
+ * Executes a program one basic block at a time. Blocks are interpreted until
+ * they have been entered COMPILE_THRESHOLD times, after which they are
+ * compiled to JVM bytecode by BlockCompiler and run natively. Writing to a word
+ * covered by a compiled block discards the block so that it is interpreted and
+ * eventually compiled again from the new code. Either way a block stops after
+ * an instruction raising an error that asks the machine to halt.
+ */
+public class TieredExecutor implements MainMemory.CodeWriteListener {
+
+    /**
+     * How many times a block is entered before it is compiled.
+     */
+    static final int COMPILE_THRESHOLD = 50;
+
+    /**
+     * The number of addresses in the address space.
+     */
+    private static final int ADDRESS_COUNT = 65536;
+
+    /**
+     * The memory the program is executed from.
+     */
+    private final MainMemory mem;
+
+    /**
+     * The state the program is executed on.
+     */
+    private final MachineState state;
+
+    /**
+     * How many times the block starting at each address has been entered, or
+     * -1 if the block could not be compiled.
+     */
+    private final int[] entryCounts = new int[ADDRESS_COUNT];
+
+    /**
+     * The compiled block starting at each address, or null if there is none.
+     */
+    private final CompiledBlock[] blocks = new CompiledBlock[ADDRESS_COUNT];
+
+    /**
+     * The number of instructions of the compiled block at each address.
+     */
+    private final int[] blockLengths = new int[ADDRESS_COUNT];
+
+    /**
+     * The last instruction of the compiled block at each address.
+     */
+    private final Instructions[] blockExits = new Instructions[ADDRESS_COUNT];
+
+    /**
+     * The last instruction executed by executeBlock().
+     */
+    private Instructions lastInstruction = Instructions.NOEXE;
+
+    /**
+     * Creates an executor for a loaded program and registers it to be told
+     * about writes to compiled code.
+     *
+     * @param mem
+     *            The memory the program is loaded into
+     * @param state
+     *            The state the program executes on
+     */
+    public TieredExecutor(MainMemory mem, MachineState state) {
+        this.mem = mem;
+        this.state = state;
+        mem.setCodeWriteListener(this);
+    }
+
+    /**
+     * Executes the basic block at the program counter, either by running its
+     * compiled form or by interpreting it instruction by instruction.
+     *
+     * @param maxInstructions
+     *            The maximum number of instructions to execute, at least 1
+     * @return The number of instructions executed
+     */
+    public int executeBlock(long maxInstructions) {
+        int pc = this.state.values[MachineState.PC];
+
+        CompiledBlock block = this.blocks[pc];
+        if (block == null && this.entryCounts[pc] >= 0
+                && ++this.entryCounts[pc] >= COMPILE_THRESHOLD) {
+            block = this.compile(pc);
+        }
+        if (block != null && this.blockLengths[pc] <= maxInstructions) {
+            try {
+                block.run(this.state.values, this.mem);
+            } catch (BlockCompiler.Halted e) {
+                this.lastInstruction = e.lastInstruction;
+                return e.executed;
+            }
+            this.lastInstruction = this.blockExits[pc];
+            return this.blockLengths[pc];
+        }
+
+        //Interpret up to the end of the block
+        ErrorSink errors = this.mem.getErrorSink();
+        int executed = 0;
+        do {
+            this.lastInstruction = Interpreter.executeCycle(this.mem,
+                    this.state);
+            executed++;
+        } while (executed < maxInstructions
+                && isStraightLine(this.lastInstruction)
+                && !errors.isHaltRequested());
+        return executed;
+    }
+
+    /**
+     * Gets the last instruction executed by executeBlock().
+     *
+     * @return An enum telling the simulator what instruction was executed
+     *         last
+     */
+    public Instructions getLastInstruction() {
+        return this.lastInstruction;
+    }
+
+    /**
+     * Discards every compiled block covering a written word.
+     *
+     * @param address
+     *            The address of the written word as an unsigned value
+     */
+    @Override
+    public void codeWritten(int address) {
+        int lowest = Math.max(0, address - BlockCompiler.MAX_BLOCK_LENGTH + 1);
+        for (int start = lowest; start <= address; start++) {
+            if ((this.entryCounts[start] < 0 && start == address)
+                    || (this.blocks[start] != null
+                            && start + this.blockLengths[start] > address)) {
+                this.blocks[start] = null;
+                this.entryCounts[start] = 0;
+            }
+        }
+    }
+
+    /**
+     * Compiles the block starting at an address and marks its words as code.
+     *
+     * @param pc
+     *            The unsigned address of the block
+     * @return The compiled block, or null if it could not be compiled
+     */
+    private CompiledBlock compile(int pc) {
+        BlockCompiler compiler = new BlockCompiler(this.mem, pc);
+        CompiledBlock block = compiler.compile();
+        if (block == null) {
+            //Still watch the first word so a rewrite gives it another chance
+            this.entryCounts[pc] = -1;
+            this.mem.markCode(pc);
+            return null;
+        }
+        this.blocks[pc] = block;
+        this.blockLengths[pc] = compiler.getLength();
+        this.blockExits[pc] = compiler.getLastInstruction();
+        for (int i = 0; i < compiler.getLength(); i++) {
+            this.mem.markCode(pc + i);
+        }
+        return block;
+    }
+
+    /**
+     * Checks whether an executed instruction continues the current basic
+     * block.
+     *
+     * @param instruction
+     *            The instruction that was executed
+     * @return True for instructions that cannot end a basic block
+     */
+    private static boolean isStraightLine(Instructions instruction) {
+        switch (instruction) {
+            case ADD:
+            case AND:
+            case NOT:
+            case LD:
+            case LDI:
+            case LDR:
+            case LEA:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
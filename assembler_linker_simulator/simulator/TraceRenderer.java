@@ -0,0 +1,292 @@
+package simulator;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+
+/**
+ * Renders the execution trace of the simulator. Every trace is formatted into
+ * one reused buffer and written to a single output stream, which is expected
+ * to be buffered, and errors go to one reused writer on System.err.
+ *
+ * In full mode every trace prints the current memory page, in the same format
+ * the simulator has always printed. In delta mode a trace after an instruction
+ * only prints the program counter, the registers and condition codes that
+ * changed and the memory word that was written, and the page is only printed
+ * before and after execution, at DBUG instructions or by renderPage().
+ */
+public class TraceRenderer {
+
+    /**
+     * The number of words printed on each line of a page dump.
+     */
+    private static final int WORDS_PER_LINE = 24;
+
+    /**
+     * Upper-case hexadecimal digits, indexed by value.
+     */
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * The memory of the traced machine.
+     */
+    private final MainMemory mem;
+
+    /**
+     * The traced machine.
+     */
+    private final MachineState state;
+
+    /**
+     * The errors of the traced machine.
+     */
+    private final ErrorLog errorLog;
+
+    /**
+     * Whether only changes are printed after instructions.
+     */
+    private final boolean delta;
+
+    /**
+     * The stream traces are written to.
+     */
+    private final PrintStream out;
+
+    /**
+     * The writer errors are printed to.
+     */
+    private final PrintWriter errors;
+
+    /**
+     * The buffer every trace is formatted into.
+     */
+    private final StringBuilder buffer = new StringBuilder(8192);
+
+    /**
+     * The general registers written since they were last printed after an
+     * instruction, one bit per register.
+     */
+    private int pendingRegisters = 0;
+
+    /**
+     * The packed condition codes last printed, or -1 if none have been.
+     */
+    private int printedConditions = -1;
+
+    /**
+     * Creates a renderer for a machine.
+     *
+     * @param mem
+     *            The memory of the traced machine
+     * @param state
+     *            The traced machine
+     * @param errorLog
+     *            The errors of the traced machine
+     * @param out
+     *            The stream to write traces to
+     * @param delta
+     *            True to only print changes after instructions
+     */
+    public TraceRenderer(MainMemory mem, MachineState state, ErrorLog errorLog,
+            PrintStream out, boolean delta) {
+        this.mem = mem;
+        this.state = state;
+        this.errorLog = errorLog;
+        this.out = out;
+        this.delta = delta;
+        this.errors = new PrintWriter(System.err, true);
+    }
+
+    /**
+     * Prints the trace of the machine after an instruction, or its whole
+     * state before or after execution or at a DBUG instruction, followed by
+     * any new errors.
+     *
+     * @param interpreterExitStatus
+     *            The last instruction executed, or NOEXE before or after
+     *            execution
+     */
+    public void render(Instructions interpreterExitStatus) {
+        //Output the program printed comes before the trace that follows it
+        this.state.getTrapIO().flush();
+        int[] s = this.state.values;
+        this.pendingRegisters |= s[MachineState.MODIFIED];
+        s[MachineState.MODIFIED] = 0;
+        int written = this.mem.pollLastWrite();
+
+        StringBuilder b = this.buffer;
+        boolean wholeState = interpreterExitStatus == Instructions.NOEXE
+                || interpreterExitStatus == Instructions.DBUG;
+        if (wholeState) {
+            b.append('\n');
+            this.appendProgramCounter();
+            this.appendRegisters(0xFF);
+            this.appendConditions();
+        } else {
+            this.appendProgramCounter();
+            this.appendRegisters(this.pendingRegisters);
+            this.pendingRegisters = 0;
+            if (!this.delta || MachineState.conditionsFor(
+                    s[MachineState.CC]) != this.printedConditions) {
+                this.appendConditions();
+            }
+            b.append("Last Instruction Executed: ")
+                    .append(interpreterExitStatus).append('\n');
+        }
+
+        boolean printPage = wholeState || !this.delta;
+        if (printPage) {
+            this.appendPage();
+        } else if (written >= 0) {
+            //Only the word written by the instruction
+            b.append("M[");
+            appendHex(b, written, 4, '0');
+            b.append("]: ");
+            appendHex(b, this.mem.readFromMemory((short) written) & 0xFFFF, 4,
+                    '0');
+            b.append('\n');
+        }
+        b.append('\n');
+        this.writeBuffer();
+        this.printNewErrors();
+        if (printPage) {
+            b.append("\n\n");
+            this.writeBuffer();
+        }
+    }
+
+    /**
+     * Prints the memory page the program counter is in, on demand.
+     */
+    public void renderPage() {
+        this.state.getTrapIO().flush();
+        this.appendPage();
+        this.buffer.append('\n');
+        this.writeBuffer();
+        this.printNewErrors();
+    }
+
+    /**
+     * Writes everything rendered so far to the output stream and flushes it.
+     */
+    public void flush() {
+        this.writeBuffer();
+        this.out.flush();
+    }
+
+    /**
+     * Appends the program counter line.
+     */
+    private void appendProgramCounter() {
+        this.buffer.append("PC: ");
+        appendHex(this.buffer, this.state.values[MachineState.PC], 1, ' ');
+        this.buffer.append('\n');
+    }
+
+    /**
+     * Appends a line for each of the given general registers, in binary and
+     * decimal.
+     *
+     * @param registers
+     *            The registers to print, one bit per register
+     */
+    private void appendRegisters(int registers) {
+        int[] s = this.state.values;
+        for (int i = 0; i < 8; i++) {
+            if ((registers & (1 << i)) != 0) {
+                this.buffer.append('R').append(i).append(": ");
+                appendBinary(this.buffer, s[i] & 0xFFFF);
+                this.buffer.append(" (").append((short) s[i]).append(")\n");
+            }
+        }
+    }
+
+    /**
+     * Appends the condition code line.
+     */
+    private void appendConditions() {
+        int cc = this.state.getConditions();
+        this.buffer.append("N: ").append((cc & MachineState.N) != 0 ? 1 : 0)
+                .append("\tZ: ").append((cc & MachineState.Z) != 0 ? 1 : 0)
+                .append("\tP: ").append((cc & MachineState.P) != 0 ? 1 : 0)
+                .append('\n');
+        this.printedConditions = cc;
+    }
+
+    /**
+     * Appends the memory page the program counter is in, as far as it is
+     * loaded.
+     */
+    private void appendPage() {
+        short[] page = this.mem
+                .getPage((short) this.state.values[MachineState.PC]);
+        for (int i = 0; i < page.length; i++) {
+            this.buffer.append(' ');
+            appendHex(this.buffer, page[i] & 0xFFFF, 4, ' ');
+            if ((i + 1) % WORDS_PER_LINE == 0) {
+                this.buffer.append('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes the buffer to the output stream and empties it.
+     */
+    private void writeBuffer() {
+        if (this.buffer.length() > 0) {
+            this.out.append(this.buffer);
+            this.buffer.setLength(0);
+        }
+    }
+
+    /**
+     * Prints the errors raised since the last trace, after flushing the
+     * output stream so the two streams stay in order.
+     */
+    private void printNewErrors() {
+        if (this.errorLog.hasNewErrors()) {
+            this.out.flush();
+            this.errorLog.invokeNewErrors(this.errors);
+        }
+    }
+
+    /**
+     * Appends an unsigned value in upper-case hexadecimal.
+     *
+     * @param b
+     *            The buffer to append to
+     * @param value
+     *            The value, from 0 to 0xFFFF
+     * @param width
+     *            The minimum number of characters to append
+     * @param pad
+     *            The character to pad to the width with
+     */
+    private static void appendHex(StringBuilder b, int value, int width,
+            char pad) {
+        int digits = 1;
+        while (digits < 4 && (value >>> (4 * digits)) != 0) {
+            digits++;
+        }
+        for (int i = digits; i < width; i++) {
+            b.append(pad);
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            b.append(HEX_DIGITS[(value >>> (4 * i)) & 0xF]);
+        }
+    }
+
+    /**
+     * Appends an unsigned value in binary without leading zeros.
+     *
+     * @param b
+     *            The buffer to append to
+     * @param value
+     *            The value, from 0 to 0xFFFF
+     */
+    private static void appendBinary(StringBuilder b, int value) {
+        int bit = Math.max(0, 31 - Integer.numberOfLeadingZeros(value));
+        for (; bit >= 0; bit--) {
+            b.append((value >>> bit) & 1);
+        }
+    }
+}
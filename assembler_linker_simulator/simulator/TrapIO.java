@@ -0,0 +1,43 @@
+package simulator;
+
+/**
+ * The console a machine's trap routines read from and write to. Each
+ * MachineState has its own TrapIO so that machines running side by side do not
+ * share System.in and System.out. ConsoleTrapIO writes straight to System.out,
+ * BufferedConsoleTrapIO holds output back until it is read from or flushed,
+ * StreamTrapIO reads and writes files or other streams for batch runs, and
+ * MemoryTrapIO keeps both in memory.
+ */
+public interface TrapIO {
+
+    /**
+     * Writes text without ending the line.
+     *
+     * @param text
+     *            The text to write
+     */
+    void print(String text);
+
+    /**
+     * Writes text followed by a line separator.
+     *
+     * @param text
+     *            The text to write
+     */
+    void println(String text);
+
+    /**
+     * Reads the next line of input.
+     *
+     * @return The line without its line separator, or null if there is no
+     *         more input
+     */
+    String readLine();
+
+    /**
+     * Writes any output this console has held back. Consoles that write
+     * straight through have nothing to do.
+     */
+    default void flush() {
+    }
+}
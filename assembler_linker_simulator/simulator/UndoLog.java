@@ -0,0 +1,264 @@
+package simulator;
+
+/**
+ * A bounded record of what each executed instruction overwrote, so the machine
+ * can be stepped backwards without running the program again from the start.
+ * Every entry is packed into a long in a ring buffer: one entry per
+ * instruction holding its address, the condition codes and the old values of
+ * the only registers it can write, its destination register and R7, followed
+ * by one entry per memory word it wrote holding the old value. Once the
+ * buffer is full the oldest instructions are forgotten. Output already
+ * printed and input already read by traps are not taken back.
+ */
+public final class UndoLog {
+
+    /**
+     * The number of entries kept by default, 8 MB of longs.
+     */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /**
+     * Tag of an entry holding the state an instruction can change other than
+     * memory: bits 0-15 hold its address, bits 16-31 the old value of its
+     * destination register, bits 32-47 the old value of R7, bits 48-50 the
+     * condition codes and bits 51-53 the number of the destination register.
+     */
+    private static final long STEP = 1L << 62;
+
+    /**
+     * Tag of an entry holding the old value of a memory word in bits 0-15 and
+     * its address in bits 16-31.
+     */
+    private static final long WORD = 3L << 62;
+
+    /**
+     * Mask of the tag of an entry.
+     */
+    private static final long TAG = 3L << 62;
+
+    /**
+     * The ring buffer of packed entries.
+     */
+    private final long[] entries;
+
+    /**
+     * The number of entries written, the next one goes at head & mask.
+     */
+    private long head;
+
+    /**
+     * The number of entries forgotten or taken back from the oldest end.
+     */
+    private long tail;
+
+    /**
+     * The number of instructions that can be stepped back.
+     */
+    private long steps;
+
+    /**
+     * Creates an undo log holding DEFAULT_CAPACITY entries.
+     */
+    public UndoLog() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an undo log holding a given number of entries. An instruction
+     * takes one entry, or two if it writes to memory.
+     *
+     * @param capacity
+     *            The number of entries to keep, rounded up to a power of two
+     *            of at least 16
+     */
+    public UndoLog(int capacity) {
+        int size = 16;
+        while (size < capacity && size < 1 << 30) {
+            size <<= 1;
+        }
+        this.entries = new long[size];
+    }
+
+    /**
+     * Records the state of the machine before an instruction executes.
+     *
+     * @param s
+     *            The values of the machine state
+     * @param address
+     *            The unsigned address of the instruction
+     * @param entry
+     *            The packed instruction returned by Decoder.lookup()
+     */
+    void record(int[] s, int address, int entry) {
+        //Traps write R0 whatever bits 9-11 hold
+        int dr = Decoder.opcode(entry) == 0b1111 ? 0 : Decoder.dr(entry);
+        this.push(STEP | (long) dr << 51
+                | (long) MachineState.conditionsFor(s[MachineState.CC]) << 48
+                | (s[7] & 0xFFFFL) << 32 | (s[dr] & 0xFFFFL) << 16 | address);
+        this.steps++;
+    }
+
+    /**
+     * Records the old value of a memory word about to be overwritten.
+     *
+     * @param address
+     *            The unsigned address of the word
+     * @param old
+     *            The value of the word before the write
+     */
+    void written(int address, short old) {
+        if (this.steps > 0) {
+            this.push(WORD | (long) address << 16 | (old & 0xFFFF));
+        }
+    }
+
+    /**
+     * Adds an entry, forgetting the oldest instruction as a whole if the
+     * buffer is full.
+     *
+     * @param entry
+     *            The packed entry
+     */
+    private void push(long entry) {
+        int mask = this.entries.length - 1;
+        if (this.head - this.tail == this.entries.length) {
+            //The oldest entry is always a STEP, forget everything up to the
+            //next one
+            this.tail++;
+            this.steps--;
+            while (this.tail < this.head
+                    && (this.entries[(int) this.tail & mask] & TAG) != STEP) {
+                this.tail++;
+            }
+        }
+        this.entries[(int) this.head & mask] = entry;
+        this.head++;
+    }
+
+    /**
+     * Gets the number of instructions that can be stepped back.
+     *
+     * @return The number of instructions recorded and not forgotten
+     */
+    public long getSteps() {
+        return this.steps;
+    }
+
+    /**
+     * Forgets every recorded instruction.
+     */
+    public void clear() {
+        this.head = 0;
+        this.tail = 0;
+        this.steps = 0;
+    }
+
+    /**
+     * Takes back the last recorded instruction, restoring the registers,
+     * memory words, program counter and condition codes it changed. A
+     * breakpoint at the restored program counter does not stop the machine
+     * when it carries on.
+     *
+     * @param mem
+     *            The memory of the machine
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @return False if there is no instruction left to take back
+     */
+    public boolean reverseStep(MainMemory mem, MachineState state) {
+        if (this.steps == 0) {
+            return false;
+        }
+        int[] s = state.values;
+        int mask = this.entries.length - 1;
+        while (true) {
+            this.head--;
+            long entry = this.entries[(int) this.head & mask];
+            if ((entry & TAG) == WORD) {
+                mem.restoreWord((int) (entry >>> 16) & 0xFFFF, (short) entry);
+            } else {
+                restore(state, 7, (short) (entry >>> 32));
+                restore(state, (int) (entry >>> 51) & 0b111,
+                        (short) (entry >>> 16));
+                s[MachineState.PC] = (int) entry & 0xFFFF;
+                state.setConditions((int) (entry >>> 48) & 0b111);
+                this.steps--;
+                if (mem.getBreakpoints() != null) {
+                    mem.getBreakpoints().movedTo(s[MachineState.PC]);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Puts back the old value of a register, marking it as modified only if
+     * the instruction changed it.
+     *
+     * @param state
+     *            The registers of the machine
+     * @param index
+     *            The number of the register, 0-7
+     * @param old
+     *            The value the register had
+     */
+    private static void restore(MachineState state, int index, short old) {
+        if (state.getRegister(index) != old) {
+            state.setRegister(index, old);
+        }
+    }
+
+    /**
+     * Steps back until the program counter is at a breakpoint or until the
+     * instruction that last wrote a watched address has been taken back, or
+     * until there is nothing left to take back.
+     *
+     * @param mem
+     *            The memory of the machine
+     * @param state
+     *            The registers, program counter and condition codes of the
+     *            machine
+     * @param breakpoints
+     *            The breakpoints and watchpoints to stop at, or null to go
+     *            back as far as the log reaches
+     * @return The number of instructions taken back
+     */
+    public long reverseContinue(MainMemory mem, MachineState state,
+            Breakpoints breakpoints) {
+        long reversed = 0;
+        while (this.steps > 0) {
+            boolean watched = breakpoints != null
+                    && this.writesWatched(breakpoints);
+            this.reverseStep(mem, state);
+            reversed++;
+            if (watched || breakpoints != null
+                    && breakpoints.isBreakpoint(state.getPc())) {
+                break;
+            }
+        }
+        return reversed;
+    }
+
+    /**
+     * Checks whether the last recorded instruction wrote a watched address.
+     *
+     * @param breakpoints
+     *            The watchpoints to check
+     * @return True if the instruction wrote an address watched for writes
+     */
+    private boolean writesWatched(Breakpoints breakpoints) {
+        int mask = this.entries.length - 1;
+        for (long i = this.head - 1; i >= this.tail; i--) {
+            long entry = this.entries[(int) i & mask];
+            if ((entry & TAG) == STEP) {
+                return false;
+            }
+            if ((entry & TAG) == WORD && breakpoints
+                    .isWriteWatched((int) (entry >>> 16) & 0xFFFF)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}